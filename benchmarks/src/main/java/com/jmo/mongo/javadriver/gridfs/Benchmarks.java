@@ -0,0 +1,49 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import ch.qos.logback.classic.Level;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the benchmarks like JMH's own main, except results are written as JSON to
+ * {@value #DEFAULT_RESULT_FILE} unless {@code -rf}/{@code -rff} say otherwise, so runs can be
+ * compared and published.
+ */
+public class Benchmarks {
+  static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+  public static void main(final String[] args) throws Exception {
+    final CommandLineOptions cmd = new CommandLineOptions(args);
+    if (cmd.shouldHelp()) {
+      cmd.showHelp();
+      return;
+    }
+
+    final ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+    if (!cmd.getResultFormat().hasValue()) {
+      options.resultFormat(ResultFormatType.JSON);
+    }
+    if (!cmd.getResult().hasValue()) {
+      options.result(DEFAULT_RESULT_FILE);
+    }
+
+    final Runner runner = new Runner(options.build());
+    if (cmd.shouldList()) {
+      runner.list();
+    } else {
+      runner.run();
+    }
+  }
+
+  /**
+   * Keeps per-operation INFO logging, e.g. status entries being removed, from dominating what's
+   * measured. Called from every benchmark's setup, since they run in forked JVMs.
+   */
+  static void quietLogging() {
+    ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("com.jmo.mongo")).setLevel(Level.WARN);
+  }
+}
@@ -0,0 +1,84 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding one chunk document: {@link ChunkDocumentEncoder} as the batched engine uses it, with
+ * and without its buffer pool, against building a {@link BsonDocument} and encoding it with the
+ * codec, which is roughly what the driver's GridFS upload stream does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkEncodingBenchmark {
+  private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+
+  @Param({"261120", "358400", "1048576", "4194304"})
+  int _chunkSizeBytes;
+
+  @Param({"string", "binary"})
+  String _fileId;
+
+  private byte[] _data;
+  private BsonValue _id;
+  private ChunkDocumentEncoder _pooled;
+  private ChunkDocumentEncoder _unpooled;
+  private int _n;
+
+  @Setup
+  public void setUp() {
+    Benchmarks.quietLogging();
+    _data = new byte[_chunkSizeBytes];
+    ThreadLocalRandom.current().nextBytes(_data);
+    _id = FileIdStrategy.parseStrategy(_fileId).next();
+    _pooled = new ChunkDocumentEncoder(_id, new ChunkBufferPool(
+        _chunkSizeBytes + ChunkBufferPool.DOCUMENT_HEADROOM_BYTES, 4));
+    _unpooled = new ChunkDocumentEncoder(_id);
+  }
+
+  @Benchmark
+  public int encoder() {
+    final RawBsonDocument document = _unpooled.encode(_n++, _data, 0, _data.length);
+    final int size = document.getByteBuffer().remaining();
+    _unpooled.release(document);
+    return size;
+  }
+
+  @Benchmark
+  public int pooledEncoder() {
+    final RawBsonDocument document = _pooled.encode(_n++, _data, 0, _data.length);
+    final int size = document.getByteBuffer().remaining();
+    _pooled.release(document);
+    return size;
+  }
+
+  @Benchmark
+  public int documentCodec() {
+    final BsonDocument document = new BsonDocument()
+        .append("files_id", _id)
+        .append("n", new BsonInt32(_n++))
+        .append("data", new BsonBinary(_data));
+    return new RawBsonDocument(document, CODEC).getByteBuffer().remaining();
+  }
+}
@@ -0,0 +1,74 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.jmo.mongo.javadriver.gridfs.GridFS.StatusThread;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link StatusThread} bookkeeping from many upload threads at once: every upload adds a status
+ * entry, and removing it folds its count into the total under the status lock. Mixed workload
+ * operations only add to the total. The thread itself isn't started, so no interval logging
+ * competes for the lock; run with {@code -t} to vary the contention.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class StatusThreadBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Shared {
+    StatusThread _status;
+
+    @Setup
+    public void setUp() {
+      Benchmarks.quietLogging();
+      _status = new StatusThread(Long.MAX_VALUE);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Upload {
+    private static final int IDS = 1024;
+
+    final String[] _ids = new String[IDS];
+    final AtomicLong _count = new AtomicLong();
+    int _next;
+
+    @Setup
+    public void setUp() {
+      for (int i = 0; i < IDS; i++) {
+        _ids[i] = UUID.randomUUID().toString();
+      }
+    }
+  }
+
+  @Benchmark
+  public long addAndRemoveEntry(final Shared pShared, final Upload pUpload) {
+    final String id = pUpload._ids[pUpload._next++ & (Upload.IDS - 1)];
+    pShared._status.add(id, "benchmark", 358400L, pUpload._count::get);
+    pUpload._count.addAndGet(358400L);
+    pShared._status.remove(id);
+    return pShared._status.getTotalCumulativeCount();
+  }
+
+  @Benchmark
+  public long addCount(final Shared pShared) {
+    pShared._status.addCount(358400L);
+    return pShared._status.getTotalCumulativeCount();
+  }
+}
@@ -0,0 +1,97 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.jmo.mongo.javadriver.gridfs.ChunkReader.ChunkReaderInputStream;
+import com.jmo.mongo.javadriver.gridfs.GridFS.RateLimitedStream;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The read paths uploads hand to the driver, drained a chunk at a time the way its upload stream
+ * reads: ingest's {@code ChunkReaderInputStream} over {@code MeteredChunkReader} over a pooled
+ * chunk reader on a {@code BufferedInputStream}, and mixed workload's {@code RateLimitedStream} over
+ * {@code BufferedInputStream}.
+ * The source is an in-memory file, so this is the client's overhead alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UploadStreamBenchmark {
+  private static final int FILE_BYTES = 16 << 20;
+
+  @Param({"8192", "65536", "1048576"})
+  int _bufferSize;
+
+  @Param({"358400"})
+  int _chunkSizeBytes;
+
+  /** "unlimited" skips the limiter entirely, a rate takes tokens on every read */
+  @Param({"unlimited", "1000000000000000"})
+  String _rate;
+
+  private byte[] _file;
+  private byte[] _chunk;
+  private ByteRateLimiter _limiter;
+  private ChunkBufferPool _readPool;
+
+  @Setup
+  public void setUp() {
+    Benchmarks.quietLogging();
+    _file = new byte[FILE_BYTES];
+    ThreadLocalRandom.current().nextBytes(_file);
+    _chunk = new byte[_chunkSizeBytes];
+    _readPool = new ChunkBufferPool(_chunkSizeBytes, 1);
+    _limiter = ByteRateLimiter.create(
+        "unlimited".equals(_rate) ? Long.MAX_VALUE : Double.parseDouble(_rate));
+  }
+
+  /**
+   * @return bytes read, one operation being one whole {@value #FILE_BYTES} byte file
+   */
+  @Benchmark
+  public long readFile() throws IOException {
+    try (final MeteredChunkReader reader = new MeteredChunkReader(_limiter, ChunkReader.ofStream(
+        new BufferedInputStream(new ByteArrayInputStream(_file), _bufferSize), _chunkSizeBytes, _readPool))) {
+      drain(new ChunkReaderInputStream(reader));
+      return reader.getCount();
+    }
+  }
+
+  /**
+   * @return bytes read, one operation being one whole {@value #FILE_BYTES} byte file
+   */
+  @Benchmark
+  public long readStream() throws IOException {
+    try (final InputStream stream = new RateLimitedStream(_limiter,
+        new BufferedInputStream(new ByteArrayInputStream(_file), _bufferSize))) {
+      return drain(stream);
+    }
+  }
+
+  private long drain(final InputStream pStream) throws IOException {
+    long count = 0L;
+    int read;
+    while ((read = pStream.read(_chunk, 0, _chunk.length)) >= 0) {
+      // Drained into the chunk buffer, as GridFSUploadStream does
+      count += read;
+    }
+    return count;
+  }
+}
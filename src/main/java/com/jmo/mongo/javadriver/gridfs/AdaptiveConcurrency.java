@@ -0,0 +1,184 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.jmo.mongo.javadriver.gridfs.GridFS.IntervalListener;
+import java.util.function.IntConsumer;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Searches for the number of uploads in flight that gets the most throughput out of the cluster
+ * while chunk inserts stay within a latency SLO, using AIMD on what {@link GridFS.StatusThread}
+ * observes every interval.
+ *
+ * <p>It starts by doubling the concurrency every interval. Once the p99 {@code chunk_insert}
+ * latency exceeds the SLO, the concurrency is cut by a backoff factor and only grows by one after
+ * that. A step up that doesn't add a minimum gain in throughput means the cluster is saturated,
+ * so it steps back down, below where it doubled from if still doubling, and holds for
+ * {@link #HOLD_INTERVALS} intervals before probing again. The best throughput seen within the
+ * SLO and the concurrency it was reached at are the cluster's maximum sustainable throughput.
+ */
+class AdaptiveConcurrency implements IntervalListener {
+  private static final Logger LOG = LoggerFactory.getLogger(AdaptiveConcurrency.class);
+
+  static final int DEFAULT_MIN = 1;
+  static final long DEFAULT_SLO_MILLIS = 500L;
+  static final double DEFAULT_BACKOFF = 0.75;
+  static final double DEFAULT_MIN_GAIN = 0.05;
+  static final int HOLD_INTERVALS = 5;
+
+  private final int _min;
+  private final int _max;
+  private final long _sloMicros;
+  private final double _backoff;
+  private final double _minGain;
+  private final IntConsumer _apply;
+
+  private int _concurrency;
+  private boolean _slowStart = true;
+  private boolean _steppedUp;
+  private int _concurrencyBeforeStep;
+  private double _rateBeforeStep;
+  private int _holdIntervals;
+  private double _bestRate;
+  private int _bestConcurrency;
+
+  AdaptiveConcurrency(
+      final int pMin,
+      final int pMax,
+      final long pSloMillis,
+      final double pBackoff,
+      final double pMinGain,
+      final IntConsumer pApply) {
+    if (pMin < 1 || pMax < pMin || pSloMillis <= 0L || pBackoff <= 0.0 || pBackoff >= 1.0) {
+      throw new IllegalArgumentException("Expected 1 <= min <= max, a positive SLO and a backoff "
+          + "within (0, 1): " + pMin + ", " + pMax + ", " + pSloMillis + "ms, " + pBackoff);
+    }
+    _min = pMin;
+    _max = pMax;
+    _sloMicros = pSloMillis * 1000L;
+    _backoff = pBackoff;
+    _minGain = pMinGain;
+    _apply = pApply;
+    _concurrency = pMin;
+    _apply.accept(_concurrency);
+    LOG.info("Adapting between {} and {} upload(s) in flight to a {} ms p99 chunk insert SLO",
+        pMin, pMax, pSloMillis);
+  }
+
+  /**
+   * Builds a controller from {@code gridfs.concurrency.*} if {@code gridfs.concurrency.adaptive}
+   * is set, otherwise returns {@code null}.
+   *
+   * @param pMax the most uploads the executor can run at once
+   */
+  static AdaptiveConcurrency fromSystemProperties(final int pMax, final IntConsumer pApply) {
+    if (!Boolean.getBoolean("gridfs.concurrency.adaptive")) {
+      return null;
+    }
+    return new AdaptiveConcurrency(
+        Math.min(pMax, Integer.getInteger("gridfs.concurrency.min", DEFAULT_MIN)),
+        pMax,
+        Long.getLong("gridfs.concurrency.sloMillis", DEFAULT_SLO_MILLIS),
+        Double.parseDouble(System.getProperty(
+            "gridfs.concurrency.backoff", String.valueOf(DEFAULT_BACKOFF))),
+        Double.parseDouble(System.getProperty(
+            "gridfs.concurrency.minGain", String.valueOf(DEFAULT_MIN_GAIN))),
+        pApply);
+  }
+
+  @Override
+  public void onInterval(final long pNowMillis, final long pTotalBytes, final double pLastBytesPerSecond) {
+    decide(pLastBytesPerSecond, Metrics.CHUNK_INSERT.getLastInterval());
+  }
+
+  int getConcurrency() {
+    return _concurrency;
+  }
+
+  int getBestConcurrency() {
+    return _bestConcurrency;
+  }
+
+  double getBestRate() {
+    return _bestRate;
+  }
+
+  /**
+   * Picks the concurrency for the next interval from the last one's throughput and chunk insert
+   * latencies.
+   *
+   * @return the new concurrency
+   */
+  synchronized int decide(final double pBytesPerSecond, final Histogram pInsertMicros) {
+    if (pInsertMicros.getTotalCount() == 0) {
+      LOG.info("Concurrency {}: no chunk inserts completed last interval, holding", _concurrency);
+      return _concurrency;
+    }
+
+    final long p99Micros = pInsertMicros.getValueAtPercentile(99.0);
+    final int previous = _concurrency;
+    final String reason;
+    if (p99Micros > _sloMicros) {
+      _slowStart = false;
+      _holdIntervals = 0;
+      _concurrency = Math.max(_min, Math.min(previous - 1, (int) (previous * _backoff)));
+      reason = "over SLO, backing off";
+    } else {
+      // The fewest uploads in flight that come within the minimum gain of the best
+      if (pBytesPerSecond > _bestRate * (1.0 + _minGain)
+          || pBytesPerSecond >= _bestRate / (1.0 + _minGain) && previous < _bestConcurrency) {
+        _bestConcurrency = previous;
+      }
+      _bestRate = Math.max(_bestRate, pBytesPerSecond);
+      if (_steppedUp && pBytesPerSecond < _rateBeforeStep * (1.0 + _minGain)) {
+        // Doubling overshoots, the knee is somewhere below where it doubled from
+        _concurrency = _slowStart
+            ? Math.max(_min, (int) (_concurrencyBeforeStep * _backoff))
+            : _concurrencyBeforeStep;
+        _slowStart = false;
+        _holdIntervals = HOLD_INTERVALS;
+        reason = "saturated, stepping back and holding";
+      } else if (_holdIntervals > 0) {
+        _holdIntervals--;
+        reason = "holding";
+      } else if (previous >= _max) {
+        reason = "at maximum";
+      } else {
+        _concurrency = Math.min(_max, _slowStart ? previous * 2 : previous + 1);
+        reason = _slowStart ? "within SLO, doubling" : "within SLO, probing";
+      }
+    }
+    _steppedUp = _concurrency > previous;
+    _concurrencyBeforeStep = previous;
+    _rateBeforeStep = pBytesPerSecond;
+
+    LOG.info("Concurrency {} -> {}: {} MB/s, p99 chunk insert {} ms vs {} ms SLO, {}",
+        previous, _concurrency,
+        String.format("%.1f", pBytesPerSecond / 1e6),
+        String.format("%.1f", p99Micros / 1e3),
+        String.format("%.1f", _sloMicros / 1e3),
+        reason);
+    if (_concurrency != previous) {
+      _apply.accept(_concurrency);
+    }
+    return _concurrency;
+  }
+
+  /**
+   * Logs where the search ended up and the best throughput that stayed within the SLO.
+   */
+  synchronized void logSummary() {
+    if (_bestConcurrency == 0) {
+      LOG.info("Adaptive concurrency ended at {} without an interval within the {} ms SLO",
+          _concurrency, String.format("%.1f", _sloMicros / 1e3));
+      return;
+    }
+    LOG.info("Adaptive concurrency ended at {}. Maximum sustainable throughput {} MB/s at "
+            + "concurrency {} within the {} ms p99 chunk insert SLO",
+        _concurrency,
+        String.format("%.1f", _bestRate / 1e6),
+        _bestConcurrency,
+        String.format("%.1f", _sloMicros / 1e3));
+  }
+}
@@ -0,0 +1,420 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Upload engine that bypasses {@code GridFSBucket.uploadFromStream} and inserts chunk documents
+ * itself, as unordered {@code insertMany} batches sized to fit a single wire protocol message.
+ *
+ * <p>Several batches per file are kept in flight on a shared executor, and the {@code files}
+ * document is only written once every chunk has been acknowledged, so readers never observe a
+ * partially written file and the result stays GridFS-compatible.
+ */
+class BatchedChunkWriter implements RangedUpload.ChunkWriter {
+  private static final Logger LOG = LoggerFactory.getLogger(BatchedChunkWriter.class);
+
+  // Server maxMessageSizeBytes
+  static final int MAX_MESSAGE_BYTES = 48000000;
+  // Headroom for the OP_MSG header and insert command document
+  static final int DEFAULT_BATCH_BYTES = MAX_MESSAGE_BYTES - (1 << 16);
+  static final int DEFAULT_BATCHES_IN_FLIGHT = 4;
+  // Server maxWriteBatchSize
+  private static final int MAX_BATCH_DOCUMENTS = 100000;
+
+  private final MongoCollection<Document> _files;
+  private final MongoCollection<RawBsonDocument> _chunks;
+  private final int _chunkSizeBytes;
+  private final int _batchBytes;
+  private final int _batchesInFlight;
+  private final ExecutorService _batchExecutor;
+  private final ChunkBufferPool _pool;
+  private final ChunkCodec _codec;
+
+  BatchedChunkWriter(
+      final MongoDatabase pDatabase,
+      final String pBucket,
+      final int pChunkSizeBytes,
+      final int pBatchBytes,
+      final int pBatchesInFlight,
+      final int pThreads) {
+    if (pBatchBytes > MAX_MESSAGE_BYTES) {
+      throw new IllegalArgumentException("Batch size exceeds the " + MAX_MESSAGE_BYTES
+          + " byte message limit: " + pBatchBytes);
+    }
+
+    _files = pDatabase.getCollection(pBucket + ".files");
+    _chunks = pDatabase.getCollection(pBucket + ".chunks", RawBsonDocument.class);
+    _chunkSizeBytes = pChunkSizeBytes;
+    _batchBytes = pBatchBytes;
+    _batchesInFlight = pBatchesInFlight;
+    _batchExecutor = Executors.newFixedThreadPool(pThreads * pBatchesInFlight,
+        new ThreadFactoryBuilder().setNameFormat("BatchWriter-%d").setDaemon(true).build());
+    _codec = ChunkCodec.fromSystemProperties();
+    // Sized for a chunk that didn't compress, which also fits the compressor's scratch buffer
+    _pool = ChunkBufferPool.fromSystemProperties(
+        _codec.maxCompressedLength(pChunkSizeBytes), pThreads, pBatchBytes, pBatchesInFlight);
+    if (_codec != ChunkCodec.NONE) {
+      LOG.info("Compressing chunks with {}", _codec.getName());
+    }
+  }
+
+  /**
+   * Creates the same indexes {@code GridFSBucket} creates lazily on its first upload.
+   */
+  void ensureIndexes() {
+    ensureIndexes(_files, _chunks);
+  }
+
+  static void ensureIndexes(final MongoCollection<?> pFiles, final MongoCollection<?> pChunks) {
+    pFiles.createIndex(new Document("filename", 1).append("uploadDate", 1));
+    pChunks.createIndex(new Document("files_id", 1).append("n", 1), new IndexOptions().unique(true));
+  }
+
+  @Override
+  public int getChunkSizeBytes() {
+    return _chunkSizeBytes;
+  }
+
+  /**
+   * @return the pool chunk documents are encoded into, or {@code null} if pooling is disabled
+   */
+  ChunkBufferPool getBufferPool() {
+    return _pool;
+  }
+
+  @Override
+  public ChunkDocumentEncoder newEncoder(final BsonValue pFileId) {
+    return new ChunkDocumentEncoder(pFileId, _pool);
+  }
+
+  /**
+   * @return the {@code files} document stored
+   */
+  Document upload(
+      final BsonValue pFileId,
+      final String pFilename,
+      final ChunkReader pReader,
+      final Document pMetadata) throws IOException {
+    return upload(pFileId, pFilename, pReader, pMetadata, n -> { });
+  }
+
+  /**
+   * @param pOnAcknowledged called with the highest chunk number acknowledged so far, along with
+   *     every chunk before it
+   * @return the {@code files} document stored
+   */
+  Document upload(
+      final BsonValue pFileId,
+      final String pFilename,
+      final ChunkReader pReader,
+      final Document pMetadata,
+      final IntConsumer pOnAcknowledged) throws IOException {
+    try {
+      final ChunkDocumentEncoder encoder = newEncoder(pFileId);
+      final long length = writeChunks(encoder, 0, pReader, pOnAcknowledged);
+      return insertFilesDocument(encoder, pFilename, length, pMetadata);
+    } catch (IOException | RuntimeException pE) {
+      abort(pFileId);
+      throw pE;
+    }
+  }
+
+  /**
+   * Finishes an interrupted upload whose chunks {@code [0, pStartN)} are already stored, reading
+   * the rest from {@code pReader}. Unlike {@link #upload}, nothing is removed on failure so it can
+   * be resumed again. For compressed files the recorded {@code storedLength} only covers the
+   * chunks written by this call.
+   */
+  void resume(
+      final BsonValue pFileId,
+      final String pFilename,
+      final int pStartN,
+      final ChunkReader pReader,
+      final Document pMetadata,
+      final IntConsumer pOnAcknowledged) throws IOException {
+    final ChunkDocumentEncoder encoder = newEncoder(pFileId);
+    final long length = writeChunks(encoder, pStartN, pReader, pOnAcknowledged);
+    writeFilesDocument(encoder, pFilename, (long) pStartN * _chunkSizeBytes + length, pMetadata);
+  }
+
+  boolean hasFilesDocument(final BsonValue pFileId) {
+    return _files.find(Filters.eq("_id", pFileId)).projection(Projections.include("_id")).first() != null;
+  }
+
+  /**
+   * Finds how many chunks of a file are stored without gaps from chunk 0, and removes any stored
+   * after the first gap, as a partially uploaded range may leave behind.
+   *
+   * @return the number of the first missing chunk
+   */
+  int verifyChunks(final BsonValue pFileId) {
+    int expectedN = 0;
+    try (final MongoCursor<RawBsonDocument> cursor = _chunks.find(Filters.eq("files_id", pFileId))
+        .projection(Projections.include("n"))
+        .sort(Sorts.ascending("n"))
+        .iterator()) {
+      while (cursor.hasNext() && cursor.next().getNumber("n").intValue() == expectedN) {
+        expectedN++;
+      }
+    }
+
+    final long removed = _chunks.deleteMany(
+        Filters.and(Filters.eq("files_id", pFileId), Filters.gte("n", expectedN))).getDeletedCount();
+    if (removed > 0) {
+      LOG.info("Removed {} chunk(s) of fileId {} stored after missing chunk {}",
+          removed, pFileId, expectedN);
+    }
+    return expectedN;
+  }
+
+  /**
+   * Drains {@code pReader}, inserting one chunk document per chunk numbered from {@code pStartN},
+   * each compressed with the configured {@link ChunkCodec}.
+   *
+   * @return the number of bytes read, before compression
+   */
+  @Override
+  public long writeChunks(final ChunkDocumentEncoder pEncoder, final int pStartN, final ChunkReader pReader)
+      throws IOException {
+    return writeChunks(pEncoder, pStartN, pReader, n -> { });
+  }
+
+  /**
+   * @param pOnAcknowledged called with the highest chunk number acknowledged so far, along with
+   *     every chunk from {@code pStartN} up to it
+   */
+  long writeChunks(
+      final ChunkDocumentEncoder pEncoder,
+      final int pStartN,
+      final ChunkReader pReader,
+      final IntConsumer pOnAcknowledged) throws IOException {
+    final Pipeline pipeline = new Pipeline(pEncoder, pStartN, pOnAcknowledged);
+    final CompressingChunkReader compressor =
+        _codec == ChunkCodec.NONE ? null : new CompressingChunkReader(_codec, pReader, _pool);
+    final ChunkReader reader = compressor == null ? pReader : compressor;
+    long length = 0L;
+    int n = pStartN;
+
+    try {
+      ByteBuffer chunk;
+      while ((chunk = reader.next()) != null) {
+        length += chunk.remaining();
+        pipeline.add(pEncoder.encode(n++, chunk));
+      }
+    } catch (IOException | RuntimeException pE) {
+      pipeline.drain();
+      throw pE;
+    } finally {
+      if (compressor != null) {
+        compressor.close();
+      }
+    }
+
+    pipeline.await();
+    if (compressor == null) {
+      return length;
+    }
+    return compressor.getOriginalBytes();
+  }
+
+  /**
+   * @param pEncoder encoder every chunk of the file was written with
+   * @param pLength length of the file before compression
+   */
+  @Override
+  public void writeFilesDocument(
+      final ChunkDocumentEncoder pEncoder,
+      final String pFilename,
+      final long pLength,
+      final Document pMetadata) {
+    insertFilesDocument(pEncoder, pFilename, pLength, pMetadata);
+  }
+
+  private Document insertFilesDocument(
+      final ChunkDocumentEncoder pEncoder,
+      final String pFilename,
+      final long pLength,
+      final Document pMetadata) {
+    final Document files = filesDocument(pEncoder.getFileId(), pFilename, pLength, _chunkSizeBytes,
+        pMetadata, _codec, pEncoder.getDataBytes());
+    _files.insertOne(files);
+    return files;
+  }
+
+  /**
+   * @param pStoredLength bytes of chunk data stored, which only differs from {@code pLength} when
+   *     compressed
+   * @return the {@code files} document of a file, recording {@code pCodec} in its metadata unless
+   *     it's {@link ChunkCodec#NONE}
+   */
+  static Document filesDocument(
+      final BsonValue pFileId,
+      final String pFilename,
+      final long pLength,
+      final int pChunkSizeBytes,
+      final Document pMetadata,
+      final ChunkCodec pCodec,
+      final long pStoredLength) {
+    final Document metadata = new Document(pMetadata);
+    if (pCodec != ChunkCodec.NONE) {
+      metadata.append("compression", new Document()
+          .append("codec", pCodec.getName())
+          .append("length", pLength)
+          .append("storedLength", pStoredLength));
+    }
+    return new Document()
+        .append("_id", pFileId)
+        .append("filename", pFilename)
+        .append("length", pLength)
+        .append("chunkSize", pChunkSizeBytes)
+        .append("uploadDate", new Date())
+        .append("metadata", metadata);
+  }
+
+  @Override
+  public void abort(final BsonValue pFileId) {
+    try {
+      final long deleted = _chunks.deleteMany(Filters.eq("files_id", pFileId)).getDeletedCount();
+      LOG.warn("Aborted upload of fileId {}, removed {} chunk(s)", pFileId, deleted);
+    } catch (RuntimeException pE) {
+      LOG.warn("Failed to remove chunks for aborted fileId {}", pFileId, pE);
+    }
+  }
+
+  void shutdown() {
+    _batchExecutor.shutdownNow();
+  }
+
+  /**
+   * Groups chunk documents of a single upload into batches and keeps at most
+   * {@link #_batchesInFlight} of them outstanding.
+   */
+  class Pipeline {
+    private final ChunkDocumentEncoder _encoder;
+    private final IntConsumer _onAcknowledged;
+    private final Deque<Future<Integer>> _inFlight = new ArrayDeque<>();
+    private List<RawBsonDocument> _batch = new ArrayList<>();
+    private int _batchSize = 0;
+    private int _nextN;
+    private boolean _failed;
+
+    /**
+     * @param pEncoder encoder of every chunk added, whose buffers are released once sent
+     * @param pStartN number of the first chunk added
+     * @param pOnAcknowledged told the last chunk number of every batch, in order, once it and all
+     *     batches before it have been inserted
+     */
+    Pipeline(final ChunkDocumentEncoder pEncoder, final int pStartN, final IntConsumer pOnAcknowledged) {
+      _encoder = pEncoder;
+      _nextN = pStartN;
+      _onAcknowledged = pOnAcknowledged;
+    }
+
+    void add(final RawBsonDocument pChunk) throws IOException {
+      final int size = pChunk.getByteBuffer().remaining();
+      if (!_batch.isEmpty()
+          && (_batchSize + size > _batchBytes || _batch.size() >= MAX_BATCH_DOCUMENTS)) {
+        flush();
+      }
+      _batch.add(pChunk);
+      _batchSize += size;
+      _nextN++;
+    }
+
+    void flush() throws IOException {
+      if (_batch.isEmpty()) {
+        return;
+      }
+      if (_inFlight.size() >= _batchesInFlight) {
+        waitFor(_inFlight.removeFirst());
+      }
+
+      final List<RawBsonDocument> batch = _batch;
+      final int lastN = _nextN - 1;
+      _inFlight.addLast(_batchExecutor.submit(() -> {
+        try {
+          _chunks.insertMany(batch, new InsertManyOptions().ordered(false));
+          return lastN;
+        } finally {
+          batch.forEach(_encoder::release);
+        }
+      }));
+      _batch = new ArrayList<>();
+      _batchSize = 0;
+    }
+
+    void await() throws IOException {
+      flush();
+      IOException failure = null;
+      while (!_inFlight.isEmpty()) {
+        try {
+          waitFor(_inFlight.removeFirst());
+        } catch (IOException pE) {
+          if (failure == null) {
+            failure = pE;
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+
+    /**
+     * Waits out every outstanding batch, ignoring failures, so nothing is still being inserted
+     * when the caller cleans up after an error.
+     */
+    void drain() {
+      _batch.forEach(_encoder::release);
+      _batch.clear();
+      while (!_inFlight.isEmpty()) {
+        try {
+          waitFor(_inFlight.removeFirst());
+        } catch (IOException pE) {
+          LOG.debug("Ignoring batch failure while draining", pE);
+        }
+      }
+    }
+
+    private void waitFor(final Future<Integer> pFuture) throws IOException {
+      try {
+        final int lastN = pFuture.get();
+        if (!_failed) {
+          _onAcknowledged.accept(lastN);
+        }
+      } catch (InterruptedException pE) {
+        _failed = true;
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted waiting on chunk batch", pE);
+      } catch (ExecutionException pE) {
+        _failed = true;
+        throw new IOException("Chunk batch insert failed", pE.getCause());
+      }
+    }
+  }
+}
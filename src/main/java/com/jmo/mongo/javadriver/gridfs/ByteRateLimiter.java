@@ -0,0 +1,175 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket limiting bytes per second across all threads, following a {@link RateProfile}.
+ *
+ * <p>Callers charge bytes after they were actually transferred. To keep threads from contending
+ * on the shared bucket for every small read, each thread leases permits from it in batches of
+ * {@link #_batchBytes} and spends them locally. The bucket holds at most one second of tokens,
+ * and going into debt makes the caller sleep until the profile, followed forward from now, would
+ * have repaid the debt.
+ */
+class ByteRateLimiter {
+  static final int DEFAULT_BATCH_BYTES = 1 << 16;
+  private static final double MAX_BURST_SECONDS = 1.0;
+  // The profile is integrated in slices starting this short and growing up to a second
+  private static final double MIN_SLICE_SECONDS = 0.01;
+  private static final double MAX_SLICE_SECONDS = 1.0;
+  private static final double SLICE_GROWTH = 1.1;
+  // Longest single wait, for a profile that allows (almost) nothing for a long time
+  private static final double MAX_WAIT_SECONDS = 86400.0;
+
+  private final RateProfile _profile;
+  private final boolean _unlimited;
+  private final int _batchBytes;
+  private final LongSupplier _nanoTime;
+  private final Sleeper _sleeper;
+  private final ThreadLocal<long[]> _leases = ThreadLocal.withInitial(() -> new long[1]);
+
+  private final long _startNanos;
+  private long _lastRefillNanos;
+  private double _tokens;
+
+  ByteRateLimiter(final RateProfile pProfile, final int pBatchBytes) {
+    this(pProfile, pBatchBytes, System::nanoTime,
+        pNanos -> Uninterruptibles.sleepUninterruptibly(pNanos, TimeUnit.NANOSECONDS));
+  }
+
+  ByteRateLimiter(
+      final RateProfile pProfile,
+      final int pBatchBytes,
+      final LongSupplier pNanoTime,
+      final Sleeper pSleeper) {
+    _profile = pProfile;
+    _batchBytes = pBatchBytes;
+    _nanoTime = pNanoTime;
+    _sleeper = pSleeper;
+    _startNanos = pNanoTime.getAsLong();
+    _lastRefillNanos = _startNanos;
+    _tokens = 0.0;
+    // Long.MAX_VALUE bytes per second is the historical way of saying "no limit"
+    _unlimited = pProfile.rateAt(0.0) >= Long.MAX_VALUE;
+  }
+
+  static ByteRateLimiter create(final double pBytesPerSecond) {
+    return new ByteRateLimiter(RateProfile.flat(pBytesPerSecond), DEFAULT_BATCH_BYTES);
+  }
+
+  /**
+   * Builds a limiter around {@code pBytesPerSecond} using {@code gridfs.rate.*} for its profile and
+   * batch size.
+   */
+  static ByteRateLimiter fromSystemProperties(final double pBytesPerSecond) {
+    return new ByteRateLimiter(RateProfile.fromSystemProperties(pBytesPerSecond),
+        Integer.getInteger("gridfs.rate.batchBytes", DEFAULT_BATCH_BYTES));
+  }
+
+  double getCurrentRate() {
+    return _profile.rateAt((_nanoTime.getAsLong() - _startNanos) / 1e9);
+  }
+
+  /**
+   * Charges {@code pBytes} already transferred by the calling thread, sleeping if the shared
+   * bucket is in debt.
+   *
+   * @return seconds spent waiting
+   */
+  double acquire(final long pBytes) {
+    if (_unlimited || pBytes <= 0) {
+      return 0.0;
+    }
+
+    final long[] lease = _leases.get();
+    if (lease[0] >= pBytes) {
+      lease[0] -= pBytes;
+      return 0.0;
+    }
+
+    final long needed = pBytes - lease[0];
+    final long granted = Math.max(needed, _batchBytes);
+    lease[0] = granted - needed;
+
+    final long waitNanos = reserve(granted);
+    if (waitNanos > 0) {
+      _sleeper.sleep(waitNanos);
+    }
+    Metrics.recordLimiterWait(waitNanos / 1e9);
+    return waitNanos / 1e9;
+  }
+
+  /**
+   * Returns the calling thread's unspent lease to the shared bucket. Worth calling when a thread is
+   * about to finish, as a virtual thread per task does, so its lease isn't charged for nothing.
+   */
+  void releaseLease() {
+    final long[] lease = _leases.get();
+    if (lease[0] > 0) {
+      synchronized (this) {
+        _tokens += lease[0];
+      }
+      lease[0] = 0L;
+    }
+    _leases.remove();
+  }
+
+  /**
+   * Takes {@code pBytes} from the bucket, possibly going into debt.
+   *
+   * @return nanoseconds until the debt is repaid
+   */
+  private synchronized long reserve(final long pBytes) {
+    final long now = _nanoTime.getAsLong();
+    final double elapsed = (now - _startNanos) / 1e9;
+    final double rate = Math.max(1.0, _profile.rateAt(elapsed));
+    _tokens = Math.min(rate * MAX_BURST_SECONDS,
+        _tokens + bytesAllowed((_lastRefillNanos - _startNanos) / 1e9, elapsed));
+    _lastRefillNanos = now;
+
+    _tokens -= pBytes;
+    return _tokens >= 0.0 ? 0L : Math.round(secondsToAllow(elapsed, -_tokens) * 1e9);
+  }
+
+  /**
+   * @return bytes the profile allows between two points of the run
+   */
+  double bytesAllowed(final double pFromSeconds, final double pToSeconds) {
+    double allowed = 0.0;
+    for (double from = pFromSeconds; from < pToSeconds; from += MAX_SLICE_SECONDS) {
+      final double slice = Math.min(MAX_SLICE_SECONDS, pToSeconds - from);
+      allowed += Math.max(0.0, _profile.rateAt(from + slice / 2.0)) * slice;
+    }
+    return allowed;
+  }
+
+  /**
+   * Follows the profile forward rather than assuming the current rate holds, which for a ramp
+   * starting near zero would mean waiting hours for a single chunk.
+   *
+   * @return seconds from {@code pFromSeconds} into the run until the profile has allowed
+   *     {@code pBytes}, at most {@link #MAX_WAIT_SECONDS}
+   */
+  double secondsToAllow(final double pFromSeconds, final double pBytes) {
+    double remaining = pBytes;
+    double elapsed = 0.0;
+    double slice = MIN_SLICE_SECONDS;
+    while (elapsed < MAX_WAIT_SECONDS) {
+      final double rate = Math.max(0.0, _profile.rateAt(pFromSeconds + elapsed + slice / 2.0));
+      if (rate * slice >= remaining) {
+        return elapsed + remaining / rate;
+      }
+      remaining -= rate * slice;
+      elapsed += slice;
+      slice = Math.min(MAX_SLICE_SECONDS, slice * SLICE_GROWTH);
+    }
+    return MAX_WAIT_SECONDS;
+  }
+
+  @FunctionalInterface
+  interface Sleeper {
+    void sleep(long pNanos);
+  }
+}
@@ -0,0 +1,70 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.bson.Document;
+
+/**
+ * Records the {@link ChunkChecksums} of every chunk handed out by another reader, as it passes
+ * through on its way to being written.
+ *
+ * <p>Given the file's metadata, the checksums are added to it once the end is reached. Every
+ * storage writes the {@code files} document only after reading to the end, the driver's upload
+ * stream included, so they end up in it without any extra pass over the data.
+ */
+class ChecksummingChunkReader implements ChunkReader {
+  private final ChunkReader _reader;
+  private final ChunkChecksums _checksums;
+  private final Document _metadata;
+  private final Object _fileId;
+  private int _n;
+  private boolean _done;
+
+  /**
+   * Reads a range of chunks, leaving it to the caller to store the checksums once every range
+   * is read.
+   */
+  ChecksummingChunkReader(final ChunkReader pReader, final ChunkChecksums pChecksums, final int pStartN) {
+    this(pReader, pChecksums, pStartN, null, null);
+  }
+
+  ChecksummingChunkReader(
+      final ChunkReader pReader,
+      final ChunkChecksums pChecksums,
+      final Document pMetadata,
+      final Object pFileId) {
+    this(pReader, pChecksums, 0, pMetadata, pFileId);
+  }
+
+  private ChecksummingChunkReader(
+      final ChunkReader pReader,
+      final ChunkChecksums pChecksums,
+      final int pStartN,
+      final Document pMetadata,
+      final Object pFileId) {
+    _reader = pReader;
+    _checksums = pChecksums;
+    _n = pStartN;
+    _metadata = pMetadata;
+    _fileId = pFileId;
+  }
+
+  @Override
+  public ByteBuffer next() throws IOException {
+    final ByteBuffer chunk = _reader.next();
+    if (chunk != null) {
+      _checksums.record(_n++, chunk);
+    } else if (!_done) {
+      _done = true;
+      if (_metadata != null) {
+        _checksums.appendTo(_metadata, _fileId);
+      }
+    }
+    return chunk;
+  }
+
+  @Override
+  public void close() throws IOException {
+    _reader.close();
+  }
+}
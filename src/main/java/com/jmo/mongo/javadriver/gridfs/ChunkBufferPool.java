@@ -0,0 +1,153 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pool of equally sized heap buffers for encoded chunk documents, and for the chunks
+ * readers fill before they're encoded or streamed to the driver.
+ *
+ * <p>At the default chunk size every encoded chunk is a G1 humongous allocation, so allocating one
+ * per chunk churns through humongous regions at the upload rate. Reusing buffers keeps the
+ * allocation rate flat once the pool has warmed up. Acquiring never blocks: when the pool is empty
+ * or the request doesn't fit a pooled buffer a new one is allocated and counted as a miss, and
+ * buffers released while the pool is full are left to the garbage collector.
+ *
+ * <p>Buffers are on the heap because {@code RawBsonDocument} only wraps byte arrays.
+ */
+class ChunkBufferPool {
+  private static final Logger LOG = LoggerFactory.getLogger(ChunkBufferPool.class);
+
+  // Room for the files_id, n and data element headers around a full chunk
+  static final int DOCUMENT_HEADROOM_BYTES = 1024;
+
+  private final String _name;
+  private final int _bufferSize;
+  private final int _capacity;
+  private final ArrayBlockingQueue<byte[]> _free;
+  private final LongAdder _hits = new LongAdder();
+  private final LongAdder _misses = new LongAdder();
+  private long _previousHits;
+  private long _previousMisses;
+
+  ChunkBufferPool(final int pBufferSize, final int pCapacity) {
+    this("Buffer pool", pBufferSize, pCapacity);
+  }
+
+  ChunkBufferPool(final String pName, final int pBufferSize, final int pCapacity) {
+    _name = pName;
+    _bufferSize = pBufferSize;
+    _capacity = pCapacity;
+    _free = new ArrayBlockingQueue<>(pCapacity);
+  }
+
+  /**
+   * Builds a pool for documents holding up to {@code pChunkSizeBytes} of data, unless
+   * {@code gridfs.pool.enabled} is false.
+   *
+   * <p>The pool retains at most {@code gridfs.pool.maxBytes}, by default enough for every batch
+   * that can be outstanding plus the one being filled per upload thread, capped at a quarter of the
+   * maximum heap and never less than one chunk per thread.
+   *
+   * @return the pool, or {@code null} if pooling is disabled
+   */
+  static ChunkBufferPool fromSystemProperties(
+      final int pChunkSizeBytes,
+      final int pThreads,
+      final int pBatchBytes,
+      final int pBatchesInFlight) {
+    if (!Boolean.parseBoolean(System.getProperty("gridfs.pool.enabled", "true"))) {
+      return null;
+    }
+
+    final int bufferSize = pChunkSizeBytes + DOCUMENT_HEADROOM_BYTES;
+    final long workingSet = (long) pThreads * (pBatchesInFlight + 1) * pBatchBytes;
+    final long defaultMaxBytes = Math.max((long) pThreads * bufferSize,
+        Math.min(workingSet, Runtime.getRuntime().maxMemory() / 4));
+    final long maxBytes = Long.getLong("gridfs.pool.maxBytes", defaultMaxBytes);
+    final int capacity = (int) Math.max(1L, Math.min(Integer.MAX_VALUE, maxBytes / bufferSize));
+
+    LOG.info("Pooling up to {} chunk buffer(s) of {} bytes, {} bytes total",
+        capacity, bufferSize, String.format("%,d", (long) capacity * bufferSize));
+    return new ChunkBufferPool(bufferSize, capacity);
+  }
+
+  /**
+   * Builds a pool for the chunks read from upload sources, unless {@code gridfs.pool.enabled} is
+   * false. Every upload in flight holds one buffer while it reads, so that's all it retains.
+   *
+   * @return the pool, or {@code null} if pooling is disabled
+   */
+  static ChunkBufferPool forReaders(final int pChunkSizeBytes, final int pUploadsInFlight) {
+    if (!Boolean.parseBoolean(System.getProperty("gridfs.pool.enabled", "true"))) {
+      return null;
+    }
+    LOG.info("Pooling up to {} read buffer(s) of {} bytes", pUploadsInFlight, pChunkSizeBytes);
+    return new ChunkBufferPool("Read buffer pool", pChunkSizeBytes, pUploadsInFlight);
+  }
+
+  /**
+   * @return a buffer of at least {@code pSize} bytes, possibly larger
+   */
+  byte[] acquire(final int pSize) {
+    if (pSize <= _bufferSize) {
+      final byte[] buffer = _free.poll();
+      if (buffer != null) {
+        _hits.increment();
+        return buffer;
+      }
+      _misses.increment();
+      return new byte[_bufferSize];
+    }
+    _misses.increment();
+    return new byte[pSize];
+  }
+
+  void release(final byte[] pBuffer) {
+    if (pBuffer.length == _bufferSize) {
+      _free.offer(pBuffer);
+    }
+  }
+
+  int getBufferSize() {
+    return _bufferSize;
+  }
+
+  int getCapacity() {
+    return _capacity;
+  }
+
+  int getPooled() {
+    return _free.size();
+  }
+
+  long getHits() {
+    return _hits.sum();
+  }
+
+  long getMisses() {
+    return _misses.sum();
+  }
+
+  /**
+   * Logs the hit rate since the previous call and over the whole run.
+   */
+  synchronized void logInterval() {
+    final long hits = getHits();
+    final long misses = getMisses();
+    LOG.info("{}: hit rate {}% last, {}% cumulative, {} allocated, {}/{} pooled",
+        _name,
+        String.format("%.1f", hitRate(hits - _previousHits, misses - _previousMisses)),
+        String.format("%.1f", hitRate(hits, misses)),
+        String.format("%,d", misses),
+        getPooled(), _capacity);
+    _previousHits = hits;
+    _previousMisses = misses;
+  }
+
+  private static double hitRate(final long pHits, final long pMisses) {
+    return pHits + pMisses == 0 ? 0.0 : 100.0 * pHits / (pHits + pMisses);
+  }
+}
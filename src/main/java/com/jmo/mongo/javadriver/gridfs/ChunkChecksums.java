@@ -0,0 +1,128 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CRC32C of every chunk of one file, in chunk number order, and the file's checksum as the CRC32C
+ * of those chunk checksums. Composing the file checksum from chunk checksums, rather than hashing
+ * the whole stream, lets ranges of a file be checksummed concurrently and in any order, both when
+ * {@link RangedUpload} writes them and when {@link IngestVerifier} reads them back.
+ *
+ * <p>Checksums cover the original bytes of a chunk, before any {@link ChunkCodec} compression, and
+ * are stored as {@code metadata.checksum} in the {@code files} document. The chunk checksums are
+ * only listed for files of up to {@link #MAX_LISTED_CHUNKS} chunks.
+ *
+ * <p>Each chunk number is recorded by exactly one thread. Whoever reads the checksums once every
+ * chunk is recorded must have synchronized with those threads, as the last range of a
+ * {@link RangedUpload} does through its counter of remaining ranges.
+ */
+class ChunkChecksums {
+  private static final Logger LOG = LoggerFactory.getLogger(ChunkChecksums.class);
+
+  static final String FIELD = "checksum";
+  static final String ALGORITHM = "crc32c";
+  /** 4MB of chunk checksums, keeping a files document well within the 16MB limit */
+  static final int MAX_LISTED_CHUNKS = 1 << 20;
+
+  private final int[] _chunks;
+  private final AtomicInteger _recorded;
+  private volatile boolean _overflowed;
+
+  /**
+   * @param pLength the length the file is expected to have
+   */
+  ChunkChecksums(final long pLength, final int pChunkSizeBytes) {
+    _chunks = new int[(int) ((pLength + pChunkSizeBytes - 1) / pChunkSizeBytes)];
+    _recorded = new AtomicInteger(0);
+  }
+
+  int getChunkCount() {
+    return _chunks.length;
+  }
+
+  void record(final int pN, final ByteBuffer pChunk) {
+    if (pN >= _chunks.length) {
+      _overflowed = true;
+      return;
+    }
+    _chunks[pN] = checksum(pChunk);
+    _recorded.incrementAndGet();
+  }
+
+  int get(final int pN) {
+    return _chunks[pN];
+  }
+
+  /**
+   * @return whether every expected chunk and nothing beyond was recorded, which a file that
+   *     changed while it was read won't have
+   */
+  boolean isComplete() {
+    return !_overflowed && _recorded.get() == _chunks.length;
+  }
+
+  long getFileChecksum() {
+    final CRC32C crc = new CRC32C();
+    final ByteBuffer buffer = ByteBuffer.allocate(4);
+    for (final int chunk : _chunks) {
+      buffer.clear();
+      buffer.putInt(chunk).flip();
+      crc.update(buffer);
+    }
+    return crc.getValue();
+  }
+
+  /**
+   * Adds the checksums to a file's metadata, unless some chunks weren't recorded.
+   *
+   * @return whether they were added
+   */
+  boolean appendTo(final Document pMetadata, final Object pFileId) {
+    if (!isComplete()) {
+      LOG.warn("Not storing checksums of fileId {}, {} of {} chunk(s) were read{}",
+          pFileId, _recorded.get(), _chunks.length, _overflowed ? " and more beyond" : "");
+      return false;
+    }
+    final Document checksum = new Document()
+        .append("algorithm", ALGORITHM)
+        .append("file", getFileChecksum());
+    if (_chunks.length <= MAX_LISTED_CHUNKS) {
+      final ByteBuffer chunks = ByteBuffer.allocate(_chunks.length * 4);
+      chunks.asIntBuffer().put(_chunks);
+      checksum.append("chunks", new Binary(chunks.array()));
+    }
+    pMetadata.append(FIELD, checksum);
+    return true;
+  }
+
+  /**
+   * @return the stored {@code checksum} sub-document, or {@code null} if the file has none
+   */
+  static BsonDocument ofMetadata(final BsonDocument pMetadata) {
+    final BsonDocument checksum = pMetadata.getDocument(FIELD, null);
+    if (checksum == null || !new BsonString(ALGORITHM).equals(checksum.get("algorithm"))) {
+      return null;
+    }
+    return checksum;
+  }
+
+  static int checksum(final ByteBuffer pChunk) {
+    final CRC32C crc = new CRC32C();
+    crc.update(pChunk.duplicate());
+    return (int) crc.getValue();
+  }
+
+  static int checksum(final byte[] pData) {
+    final CRC32C crc = new CRC32C();
+    crc.update(pData, 0, pData.length);
+    return (int) crc.getValue();
+  }
+}
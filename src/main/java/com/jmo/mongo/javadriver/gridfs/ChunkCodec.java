@@ -0,0 +1,137 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.github.luben.zstd.Zstd;
+import java.io.IOException;
+import java.util.Locale;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.xerial.snappy.Snappy;
+
+/**
+ * Compression applied to each chunk's data before it is inserted.
+ *
+ * <p>Compressed files record the codec along with their original and stored lengths under
+ * {@code metadata.compression}, and their {@code length} and {@code chunkSize} stay those of the
+ * uncompressed data. Their chunks hold fewer bytes than {@code chunkSize}, so only
+ * {@link GridFSDownloader} can read them back, not the driver's GridFS download stream.
+ */
+enum ChunkCodec {
+  NONE {
+    @Override
+    int maxCompressedLength(final int pLength) {
+      return pLength;
+    }
+
+    @Override
+    int compress(final byte[] pSource, final int pOffset, final int pLength, final byte[] pTarget) {
+      System.arraycopy(pSource, pOffset, pTarget, 0, pLength);
+      return pLength;
+    }
+
+    @Override
+    byte[] decompress(final byte[] pSource, final int pOriginalLength) {
+      return pSource;
+    }
+  },
+
+  SNAPPY {
+    @Override
+    int maxCompressedLength(final int pLength) {
+      return Snappy.maxCompressedLength(pLength);
+    }
+
+    @Override
+    int compress(final byte[] pSource, final int pOffset, final int pLength, final byte[] pTarget)
+        throws IOException {
+      return Snappy.compress(pSource, pOffset, pLength, pTarget, 0);
+    }
+
+    @Override
+    byte[] decompress(final byte[] pSource, final int pOriginalLength) throws IOException {
+      final byte[] target = new byte[pOriginalLength];
+      final int length = Snappy.uncompress(pSource, 0, pSource.length, target, 0);
+      checkLength(length, pOriginalLength);
+      return target;
+    }
+  },
+
+  ZSTD {
+    @Override
+    int maxCompressedLength(final int pLength) {
+      return (int) Zstd.compressBound(pLength);
+    }
+
+    @Override
+    int compress(final byte[] pSource, final int pOffset, final int pLength, final byte[] pTarget)
+        throws IOException {
+      final long length = Zstd.compressByteArray(
+          pTarget, 0, pTarget.length, pSource, pOffset, pLength, ZSTD_LEVEL);
+      if (Zstd.isError(length)) {
+        throw new IOException("zstd compression failed: " + Zstd.getErrorName(length));
+      }
+      return (int) length;
+    }
+
+    @Override
+    byte[] decompress(final byte[] pSource, final int pOriginalLength) throws IOException {
+      final byte[] target = new byte[pOriginalLength];
+      final long length = Zstd.decompressByteArray(
+          target, 0, target.length, pSource, 0, pSource.length);
+      if (Zstd.isError(length)) {
+        throw new IOException("zstd decompression failed: " + Zstd.getErrorName(length));
+      }
+      checkLength(length, pOriginalLength);
+      return target;
+    }
+  };
+
+  static final String DEFAULT_CODEC = "none";
+  static final int DEFAULT_ZSTD_LEVEL = 3;
+  private static final int ZSTD_LEVEL =
+      Integer.getInteger("gridfs.compression.zstd.level", DEFAULT_ZSTD_LEVEL);
+
+  abstract int maxCompressedLength(int pLength);
+
+  /**
+   * Compresses {@code pLength} bytes of {@code pSource} into the start of {@code pTarget}, which
+   * must hold at least {@link #maxCompressedLength(int)} bytes.
+   *
+   * @return the compressed length
+   */
+  abstract int compress(byte[] pSource, int pOffset, int pLength, byte[] pTarget) throws IOException;
+
+  abstract byte[] decompress(byte[] pSource, int pOriginalLength) throws IOException;
+
+  String getName() {
+    return name().toLowerCase(Locale.ROOT);
+  }
+
+  static ChunkCodec parse(final String pValue) {
+    return valueOf(pValue.toUpperCase(Locale.ROOT));
+  }
+
+  static ChunkCodec fromSystemProperties() {
+    return parse(System.getProperty("gridfs.compression", DEFAULT_CODEC));
+  }
+
+  /**
+   * @return the codec recorded in a files document's {@code metadata}, which may be {@code null}
+   */
+  static ChunkCodec ofMetadata(final BsonDocument pMetadata) {
+    if (pMetadata == null) {
+      return NONE;
+    }
+    final BsonValue compression = pMetadata.get("compression");
+    if (compression == null || !compression.isDocument()) {
+      return NONE;
+    }
+    return parse(compression.asDocument().getString("codec").getValue());
+  }
+
+  private static void checkLength(final long pLength, final int pOriginalLength) throws IOException {
+    if (pLength != pOriginalLength) {
+      throw new IOException(String.format(
+          "Decompressed %d bytes but expected %d", pLength, pOriginalLength));
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import org.bson.BsonBinarySubType;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonValueCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+/**
+ * Writes GridFS chunk documents {@code {files_id, n, data}} straight into their final BSON bytes.
+ *
+ * <p>The {@code files_id} element is encoded once per file and copied into every chunk, and the
+ * payload is copied exactly once, from the caller's buffer into the document. With a
+ * {@link ChunkBufferPool} the documents are written into pooled buffers, which must be handed back
+ * through {@link #release(RawBsonDocument)} once the document has been sent.
+ */
+class ChunkDocumentEncoder {
+  private static final byte[] N_NAME = cString("n");
+  private static final byte[] DATA_NAME = cString("data");
+
+  // int32 document length plus trailing document terminator
+  private static final int DOCUMENT_OVERHEAD = 4 + 1;
+  // type byte, name and int32 value
+  private static final int N_ELEMENT_SIZE = 1 + N_NAME.length + 4;
+  // type byte, name, int32 length and subtype byte, excluding the payload
+  private static final int DATA_ELEMENT_OVERHEAD = 1 + DATA_NAME.length + 4 + 1;
+
+  private final BsonValue _fileId;
+  private final byte[] _filesIdElement;
+  private final ChunkBufferPool _pool;
+  private final LongAdder _dataBytes = new LongAdder();
+
+  ChunkDocumentEncoder(final BsonValue pFileId) {
+    this(pFileId, null);
+  }
+
+  /**
+   * @param pPool pool to take document buffers from, may be {@code null} to allocate each one
+   */
+  ChunkDocumentEncoder(final BsonValue pFileId, final ChunkBufferPool pPool) {
+    _fileId = pFileId;
+    _filesIdElement = encodeFilesIdElement(pFileId);
+    _pool = pPool;
+  }
+
+  BsonValue getFileId() {
+    return _fileId;
+  }
+
+  /**
+   * @return payload bytes of every chunk encoded so far
+   */
+  long getDataBytes() {
+    return _dataBytes.sum();
+  }
+
+  int documentSize(final int pDataLength) {
+    return DOCUMENT_OVERHEAD + _filesIdElement.length + N_ELEMENT_SIZE
+        + DATA_ELEMENT_OVERHEAD + pDataLength;
+  }
+
+  RawBsonDocument encode(final int pN, final byte[] pData, final int pOffset, final int pLength) {
+    final int size = documentSize(pLength);
+    final byte[] document = allocate(size);
+    final ByteBuffer buffer = writeHeader(document, size, pN, pLength);
+    buffer.put(pData, pOffset, pLength);
+    buffer.put((byte) 0);
+    return new RawBsonDocument(document, 0, size);
+  }
+
+  /**
+   * Encodes the remaining bytes of {@code pData} without changing its position.
+   */
+  RawBsonDocument encode(final int pN, final ByteBuffer pData) {
+    final int length = pData.remaining();
+    final int size = documentSize(length);
+    final byte[] document = allocate(size);
+    final ByteBuffer buffer = writeHeader(document, size, pN, length);
+    buffer.put(pData.duplicate());
+    buffer.put((byte) 0);
+    return new RawBsonDocument(document, 0, size);
+  }
+
+  /**
+   * Returns the buffer behind a document from this encoder to the pool, after which the document
+   * must no longer be used.
+   */
+  void release(final RawBsonDocument pDocument) {
+    if (_pool != null) {
+      _pool.release(pDocument.getByteBuffer().array());
+    }
+  }
+
+  private byte[] allocate(final int pSize) {
+    return _pool == null ? new byte[pSize] : _pool.acquire(pSize);
+  }
+
+  private ByteBuffer writeHeader(
+      final byte[] pDocument,
+      final int pSize,
+      final int pN,
+      final int pDataLength) {
+    final ByteBuffer buffer = ByteBuffer.wrap(pDocument, 0, pSize).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(pSize);
+    buffer.put(_filesIdElement);
+
+    buffer.put((byte) BsonType.INT32.getValue());
+    buffer.put(N_NAME);
+    buffer.putInt(pN);
+
+    buffer.put((byte) BsonType.BINARY.getValue());
+    buffer.put(DATA_NAME);
+    buffer.putInt(pDataLength);
+    _dataBytes.add(pDataLength);
+    buffer.put(BsonBinarySubType.BINARY.getValue());
+    return buffer;
+  }
+
+  private static byte[] encodeFilesIdElement(final BsonValue pFileId) {
+    final BasicOutputBuffer output = new BasicOutputBuffer();
+    try (final BsonBinaryWriter writer = new BsonBinaryWriter(output)) {
+      writer.writeStartDocument();
+      writer.writeName("files_id");
+      new BsonValueCodec().encode(writer, pFileId, EncoderContext.builder().build());
+      writer.writeEndDocument();
+    }
+
+    // Strip the enclosing document's length prefix and terminator
+    final byte[] document = output.toByteArray();
+    return Arrays.copyOfRange(document, 4, document.length - 1);
+  }
+
+  private static byte[] cString(final String pValue) {
+    final byte[] bytes = pValue.getBytes(StandardCharsets.UTF_8);
+    return Arrays.copyOf(bytes, bytes.length + 1);
+  }
+}
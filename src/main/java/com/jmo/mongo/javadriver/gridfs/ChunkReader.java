@@ -0,0 +1,125 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.google.common.io.ByteStreams;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Produces a file's contents one GridFS chunk at a time.
+ */
+interface ChunkReader extends Closeable {
+
+  /**
+   * @return the next chunk, at most one chunk size long and only valid until the following call,
+   *     or {@code null} once the end is reached
+   */
+  ByteBuffer next() throws IOException;
+
+  static ChunkReader ofStream(final InputStream pStream, final int pChunkSizeBytes) {
+    return ofStream(pStream, pChunkSizeBytes, null);
+  }
+
+  /**
+   * @param pPool pool to take the chunk buffer from and hand it back to on close, or {@code null}
+   *     to allocate one
+   */
+  static ChunkReader ofStream(final InputStream pStream, final int pChunkSizeBytes, final ChunkBufferPool pPool) {
+    return new StreamChunkReader(pStream, pChunkSizeBytes, pPool);
+  }
+
+  /**
+   * Fills a single reusable chunk buffer from a stream.
+   */
+  class StreamChunkReader implements ChunkReader {
+    private final InputStream _stream;
+    private final int _chunkSizeBytes;
+    private final ChunkBufferPool _pool;
+    private byte[] _chunk;
+    private boolean _done;
+
+    StreamChunkReader(final InputStream pStream, final int pChunkSizeBytes, final ChunkBufferPool pPool) {
+      _stream = pStream;
+      _chunkSizeBytes = pChunkSizeBytes;
+      _pool = pPool;
+      _chunk = pPool == null ? new byte[pChunkSizeBytes] : pPool.acquire(pChunkSizeBytes);
+    }
+
+    @Override
+    public ByteBuffer next() throws IOException {
+      if (_done) {
+        return null;
+      }
+      final int count = ByteStreams.read(_stream, _chunk, 0, _chunkSizeBytes);
+      if (count < _chunkSizeBytes) {
+        _done = true;
+      }
+      return count == 0 ? null : ByteBuffer.wrap(_chunk, 0, count);
+    }
+
+    @Override
+    public void close() throws IOException {
+      // Released once only, a second close mustn't pool a buffer someone else now holds
+      if (_pool != null && _chunk != null) {
+        _pool.release(_chunk);
+        _chunk = null;
+        _done = true;
+      }
+      _stream.close();
+    }
+  }
+
+  /**
+   * Exposes a chunk reader to code that only accepts streams, such as the driver's upload.
+   */
+  class ChunkReaderInputStream extends InputStream {
+    private final ChunkReader _reader;
+    private ByteBuffer _current;
+
+    ChunkReaderInputStream(final ChunkReader pReader) {
+      _reader = pReader;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return _current.get() & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      final int count = Math.min(len, _current.remaining());
+      _current.get(b, off, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return _current == null ? 0 : _current.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+      _reader.close();
+    }
+
+    private boolean fill() throws IOException {
+      while (_current == null || !_current.hasRemaining()) {
+        _current = _reader.next();
+        if (_current == null) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses every chunk handed out by another reader with a {@link ChunkCodec}.
+ *
+ * <p>The returned buffer is reused by the next call, like {@link ChunkReader.StreamChunkReader}'s.
+ * Its scratch buffers come from a {@link ChunkBufferPool} when given one, and go back to it on
+ * close. Closing this reader doesn't close the wrapped one.
+ */
+class CompressingChunkReader implements ChunkReader {
+  private final ChunkCodec _codec;
+  private final ChunkReader _reader;
+  private final ChunkBufferPool _pool;
+  private byte[] _source = new byte[0];
+  private byte[] _target = new byte[0];
+  private long _originalBytes;
+  private long _compressedBytes;
+
+  CompressingChunkReader(final ChunkCodec pCodec, final ChunkReader pReader) {
+    this(pCodec, pReader, null);
+  }
+
+  /**
+   * @param pPool pool for the scratch buffers, or {@code null} to allocate them
+   */
+  CompressingChunkReader(final ChunkCodec pCodec, final ChunkReader pReader, final ChunkBufferPool pPool) {
+    _codec = pCodec;
+    _reader = pReader;
+    _pool = pPool;
+  }
+
+  @Override
+  public ByteBuffer next() throws IOException {
+    final ByteBuffer chunk = _reader.next();
+    if (chunk == null) {
+      return null;
+    }
+
+    final int length = chunk.remaining();
+    final byte[] source;
+    final int offset;
+    if (chunk.hasArray()) {
+      source = chunk.array();
+      offset = chunk.arrayOffset() + chunk.position();
+    } else {
+      // Mapped and direct buffers are copied out once, the codecs work on arrays
+      _source = ensureCapacity(_source, length);
+      chunk.duplicate().get(_source, 0, length);
+      source = _source;
+      offset = 0;
+    }
+
+    final int maxLength = _codec.maxCompressedLength(length);
+    _target = ensureCapacity(_target, maxLength);
+    final int compressed = _codec.compress(source, offset, length, _target);
+
+    _originalBytes += length;
+    _compressedBytes += compressed;
+    Metrics.recordCompressed(length, compressed);
+    return ByteBuffer.wrap(_target, 0, compressed);
+  }
+
+  long getOriginalBytes() {
+    return _originalBytes;
+  }
+
+  long getCompressedBytes() {
+    return _compressedBytes;
+  }
+
+  @Override
+  public void close() {
+    if (_pool != null) {
+      _pool.release(_source);
+      _pool.release(_target);
+    }
+    _source = new byte[0];
+    _target = new byte[0];
+  }
+
+  private byte[] ensureCapacity(final byte[] pBuffer, final int pLength) {
+    if (pBuffer.length >= pLength) {
+      return pBuffer;
+    }
+    if (_pool == null) {
+      return new byte[pLength];
+    }
+    _pool.release(pBuffer);
+    return _pool.acquire(pLength);
+  }
+}
@@ -0,0 +1,450 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jmo.mongo.javadriver.gridfs.FileCatalog.StoredFile;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonBinarySubType;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Content addressed bucket layout: every distinct chunk payload is stored once in
+ * {@code <bucket>.blobs}, keyed by its SHA-256, and every file is a document in
+ * {@code <bucket>.manifests} listing its chunk hashes in order.
+ *
+ * <p>Manifests have the same {@code filename}, {@code length}, {@code chunkSize} and
+ * {@code metadata} fields as GridFS files documents, so {@link FileCatalog} can load them. Hashes
+ * of blobs known to exist are kept in a bounded local index, which lets repeated chunks skip the
+ * server entirely; anything the index has evicted or never seen is inserted and its duplicate key
+ * error ignored. The manifest is written last, so a failed upload leaves no manifest, but it may
+ * leave blobs behind, which can't be removed safely since other files may share them.
+ *
+ * <p>A manifest is a single document, so it can list at most {@link #MAX_MANIFEST_CHUNKS} hashes.
+ * Larger files are refused before any of their blobs are written.
+ *
+ * <p>Blob documents are encoded straight from the chunk buffer into their final BSON bytes, in
+ * buffers from a {@link ChunkBufferPool} that go back to it once their batch has been sent.
+ */
+class DedupStore {
+  private static final Logger LOG = LoggerFactory.getLogger(DedupStore.class);
+
+  static final long DEFAULT_INDEX_ENTRIES = 1000000L;
+  // Hashes per blob lookup when reassembling a file
+  private static final int READ_BATCH_CHUNKS = 64;
+  private static final int MAX_DOCUMENT_BYTES = 16 * 1024 * 1024;
+  // Room for the other manifest fields and metadata, other than chunk checksums
+  private static final int MANIFEST_HEADROOM_BYTES = 1 << 16;
+  // A chunks array entry: type, index key of up to 7 digits, binary length, subtype and SHA-256,
+  // plus the file's CRC32C of the chunk in metadata.checksum
+  private static final int MANIFEST_BYTES_PER_CHUNK = 1 + 8 + 4 + 1 + 32 + 4;
+  static final int MAX_MANIFEST_CHUNKS =
+      (MAX_DOCUMENT_BYTES - MANIFEST_HEADROOM_BYTES) / MANIFEST_BYTES_PER_CHUNK;
+
+  private static final byte[] ID_NAME = "_id\0".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] DATA_NAME = "data\0".getBytes(StandardCharsets.UTF_8);
+  private static final int HASH_BYTES = 32;
+  // Length, _id and data elements without the payload, and the terminator
+  private static final int BLOB_DOCUMENT_OVERHEAD = 4
+      + 1 + ID_NAME.length + 4 + 1 + HASH_BYTES
+      + 1 + DATA_NAME.length + 4 + 1
+      + 1;
+
+  /**
+   * Fetches the blobs for a batch of hashes, keyed by hash, leaving out any that don't exist.
+   */
+  interface BlobLookup {
+    Map<BsonValue, byte[]> find(List<BsonValue> pHashes);
+  }
+
+  private final MongoCollection<RawBsonDocument> _blobs;
+  private final MongoCollection<BsonDocument> _manifests;
+  private final int _chunkSizeBytes;
+  private final int _batchBytes;
+  private final int _batchesInFlight;
+  private final Cache<HashCode, Boolean> _index;
+  private final ExecutorService _batchExecutor;
+  private final ChunkBufferPool _pool;
+
+  private final LongAdder _logicalBytes = new LongAdder();
+  private final LongAdder _storedBytes = new LongAdder();
+  private final LongAdder _indexHits = new LongAdder();
+  private final LongAdder _serverDuplicates = new LongAdder();
+
+  /**
+   * Opens the store for reading only.
+   */
+  DedupStore(final MongoDatabase pDatabase, final String pBucket) {
+    this(pDatabase, pBucket, 0, 0, 0, 1L, 0);
+  }
+
+  DedupStore(
+      final MongoDatabase pDatabase,
+      final String pBucket,
+      final int pChunkSizeBytes,
+      final int pBatchBytes,
+      final int pBatchesInFlight,
+      final long pIndexEntries,
+      final int pThreads) {
+    this(pDatabase.getCollection(pBucket + ".blobs", RawBsonDocument.class),
+        pDatabase.getCollection(manifestsCollection(pBucket), BsonDocument.class),
+        pChunkSizeBytes, pBatchBytes, pBatchesInFlight, pIndexEntries, pThreads,
+        pThreads * pBatchesInFlight == 0 ? null
+            : ChunkBufferPool.fromSystemProperties(
+                pChunkSizeBytes, pThreads, pBatchBytes, pBatchesInFlight));
+  }
+
+  /**
+   * @param pPool pool to encode blob documents into, may be {@code null} to allocate each one
+   */
+  DedupStore(
+      final MongoCollection<RawBsonDocument> pBlobs,
+      final MongoCollection<BsonDocument> pManifests,
+      final int pChunkSizeBytes,
+      final int pBatchBytes,
+      final int pBatchesInFlight,
+      final long pIndexEntries,
+      final int pThreads,
+      final ChunkBufferPool pPool) {
+    _blobs = pBlobs;
+    _manifests = pManifests;
+    _pool = pPool;
+    _chunkSizeBytes = pChunkSizeBytes;
+    _batchBytes = pBatchBytes;
+    _batchesInFlight = pBatchesInFlight;
+    _index = CacheBuilder.newBuilder().maximumSize(pIndexEntries).build();
+    _batchExecutor = pThreads * pBatchesInFlight == 0 ? null
+        : Executors.newFixedThreadPool(pThreads * pBatchesInFlight,
+            new ThreadFactoryBuilder().setNameFormat("BlobWriter-%d").setDaemon(true).build());
+  }
+
+  /**
+   * @return the longest file whose manifest fits in one document
+   */
+  static long maxFileBytes(final int pChunkSizeBytes) {
+    return (long) MAX_MANIFEST_CHUNKS * pChunkSizeBytes;
+  }
+
+  static String manifestsCollection(final String pBucket) {
+    return pBucket + ".manifests";
+  }
+
+  void ensureIndexes() {
+    _manifests.createIndex(new Document("filename", 1).append("uploadDate", 1));
+  }
+
+  /**
+   * Stores every chunk of {@code pReader} not already present, then the file's manifest.
+   *
+   * @return the file length
+   */
+  long upload(
+      final BsonValue pFileId,
+      final String pFilename,
+      final ChunkReader pReader,
+      final Document pMetadata) throws IOException {
+    final BsonArray hashes = new BsonArray();
+    final Deque<Future<?>> inFlight = new ArrayDeque<>();
+    List<RawBsonDocument> batch = new ArrayList<>();
+    int batchSize = 0;
+    long length = 0L;
+
+    try {
+      ByteBuffer chunk;
+      while ((chunk = pReader.next()) != null) {
+        // A file that grew past the limit after it was checked, fail before storing more blobs
+        if (hashes.size() >= MAX_MANIFEST_CHUNKS) {
+          throw new IOException(String.format("File %s has more than the %,d chunks a manifest can list",
+              pFilename, MAX_MANIFEST_CHUNKS));
+        }
+        final int chunkLength = chunk.remaining();
+        final HashCode hash = Hashing.sha256().hashBytes(chunk.duplicate());
+        hashes.add(new BsonBinary(hash.asBytes()));
+        length += chunkLength;
+        _logicalBytes.add(chunkLength);
+
+        if (_index.getIfPresent(hash) != null) {
+          _indexHits.increment();
+          continue;
+        }
+
+        if (!batch.isEmpty() && batchSize + chunkLength > _batchBytes) {
+          final List<RawBsonDocument> full = batch;
+          batch = new ArrayList<>();
+          batchSize = 0;
+          submit(full, inFlight);
+        }
+        batch.add(encodeBlob(hash, chunk, _pool));
+        batchSize += chunkLength;
+      }
+      if (!batch.isEmpty()) {
+        final List<RawBsonDocument> last = batch;
+        batch = new ArrayList<>();
+        submit(last, inFlight);
+      }
+      while (!inFlight.isEmpty()) {
+        waitFor(inFlight.removeFirst());
+      }
+    } finally {
+      inFlight.forEach(future -> future.cancel(false));
+      // Batches never handed to a writer
+      release(batch);
+    }
+
+    _manifests.insertOne(manifest(pFileId, pFilename, length, _chunkSizeBytes, pMetadata, hashes));
+    return length;
+  }
+
+  static BsonDocument manifest(
+      final BsonValue pFileId,
+      final String pFilename,
+      final long pLength,
+      final int pChunkSizeBytes,
+      final Document pMetadata,
+      final BsonArray pHashes) {
+    return new BsonDocument()
+        .append("_id", pFileId)
+        .append("filename", new BsonString(pFilename))
+        .append("length", new BsonInt64(pLength))
+        .append("chunkSize", new BsonInt32(pChunkSizeBytes))
+        .append("uploadDate", new BsonDateTime(System.currentTimeMillis()))
+        .append("metadata", pMetadata.toBsonDocument())
+        .append("chunks", pHashes);
+  }
+
+  /**
+   * Reassembles a file from its manifest into {@code pSink}, adding bytes to {@code pCount} as
+   * they arrive.
+   *
+   * @return the number of bytes read
+   */
+  long read(
+      final StoredFile pFile,
+      final OutputStream pSink,
+      final ByteRateLimiter pLimiter,
+      final AtomicLong pCount) throws IOException {
+    final BsonDocument manifest = _manifests.find(Filters.eq("_id", pFile.getId()))
+        .projection(Projections.include("chunks"))
+        .first();
+    if (manifest == null) {
+      throw new IOException("No manifest for " + pFile);
+    }
+
+    return reassemble(pFile, manifest.getArray("chunks").getValues(), this::findBlobs,
+        pSink, pLimiter, pCount);
+  }
+
+  /**
+   * Writes the blobs listed by a manifest to {@code pSink} in manifest order, looking them up
+   * {@link #READ_BATCH_CHUNKS} at a time, and checks they add up to the file's length.
+   *
+   * @return the number of bytes written
+   */
+  static long reassemble(
+      final StoredFile pFile,
+      final List<BsonValue> pHashes,
+      final BlobLookup pLookup,
+      final OutputStream pSink,
+      final ByteRateLimiter pLimiter,
+      final AtomicLong pCount) throws IOException {
+    long length = 0L;
+    for (int from = 0; from < pHashes.size(); from += READ_BATCH_CHUNKS) {
+      final List<BsonValue> wanted =
+          pHashes.subList(from, Math.min(pHashes.size(), from + READ_BATCH_CHUNKS));
+      final Map<BsonValue, byte[]> blobs = pLookup.find(wanted);
+
+      for (final BsonValue hash : wanted) {
+        final byte[] data = blobs.get(hash);
+        if (data == null) {
+          throw new IOException(String.format("Missing blob %s of %s",
+              HashCode.fromBytes(hash.asBinary().getData()), pFile));
+        }
+        if (length + data.length > pFile.getLength()) {
+          throw new IOException(String.format("Blobs of %s run past its %,d bytes",
+              pFile, pFile.getLength()));
+        }
+        pLimiter.acquire(data.length);
+        pSink.write(data);
+        pCount.addAndGet(data.length);
+        length += data.length;
+      }
+    }
+    if (length != pFile.getLength()) {
+      throw new IOException(String.format("Blobs of %s add up to %,d of its %,d bytes",
+          pFile, length, pFile.getLength()));
+    }
+    return length;
+  }
+
+  /**
+   * Encodes a blob document {@code {_id: hash, data}} from the remaining bytes of {@code pData},
+   * without changing its position.
+   *
+   * @param pPool pool to take the document buffer from, may be {@code null} to allocate one
+   */
+  static RawBsonDocument encodeBlob(
+      final HashCode pHash,
+      final ByteBuffer pData,
+      final ChunkBufferPool pPool) {
+    final int length = pData.remaining();
+    final int size = BLOB_DOCUMENT_OVERHEAD + length;
+    final byte[] document = pPool == null ? new byte[size] : pPool.acquire(size);
+    final ByteBuffer buffer = ByteBuffer.wrap(document, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(size);
+
+    buffer.put((byte) BsonType.BINARY.getValue());
+    buffer.put(ID_NAME);
+    buffer.putInt(HASH_BYTES);
+    buffer.put(BsonBinarySubType.BINARY.getValue());
+    pHash.writeBytesTo(document, buffer.position(), HASH_BYTES);
+    buffer.position(buffer.position() + HASH_BYTES);
+
+    buffer.put((byte) BsonType.BINARY.getValue());
+    buffer.put(DATA_NAME);
+    buffer.putInt(length);
+    buffer.put(BsonBinarySubType.BINARY.getValue());
+    buffer.put(pData.duplicate());
+    buffer.put((byte) 0);
+    return new RawBsonDocument(document, 0, size);
+  }
+
+  private Map<BsonValue, byte[]> findBlobs(final List<BsonValue> pHashes) {
+    final Map<BsonValue, byte[]> blobs = new HashMap<>();
+    try (final MongoCursor<RawBsonDocument> cursor =
+        _blobs.find(Filters.in("_id", pHashes)).iterator()) {
+      while (cursor.hasNext()) {
+        final RawBsonDocument blob = cursor.next();
+        blobs.put(blob.get("_id"), blob.getBinary("data").getData());
+      }
+    }
+    return blobs;
+  }
+
+  void logInterval() {
+    final long logical = _logicalBytes.sum();
+    final long stored = _storedBytes.sum();
+    LOG.info("Dedup: {} bytes uploaded, {} stored ({}% saved), {} index hit(s), {} server duplicate(s)",
+        String.format("%,d", logical),
+        String.format("%,d", stored),
+        String.format("%.1f", logical == 0 ? 0.0 : 100.0 * (logical - stored) / logical),
+        _indexHits.sum(),
+        _serverDuplicates.sum());
+    if (_pool != null) {
+      _pool.logInterval();
+    }
+  }
+
+  void shutdown() {
+    if (_batchExecutor != null) {
+      _batchExecutor.shutdownNow();
+    }
+  }
+
+  /**
+   * Hands {@code pBatch} to a writer, which releases its buffers once it has been sent.
+   */
+  private void submit(final List<RawBsonDocument> pBatch, final Deque<Future<?>> pInFlight)
+      throws IOException {
+    try {
+      if (pInFlight.size() >= _batchesInFlight) {
+        waitFor(pInFlight.removeFirst());
+      }
+    } catch (IOException pE) {
+      release(pBatch);
+      throw pE;
+    }
+    pInFlight.addLast(_batchExecutor.submit(() -> {
+      try {
+        insert(pBatch);
+      } finally {
+        release(pBatch);
+      }
+    }));
+  }
+
+  /**
+   * Inserts a batch of blobs, treating ones that already exist as stored, and indexes them all.
+   */
+  private void insert(final List<RawBsonDocument> pBatch) {
+    final boolean[] duplicate = new boolean[pBatch.size()];
+    try {
+      _blobs.insertMany(pBatch, new InsertManyOptions().ordered(false));
+    } catch (MongoBulkWriteException pE) {
+      for (final BulkWriteError error : pE.getWriteErrors()) {
+        if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+          throw pE;
+        }
+        duplicate[error.getIndex()] = true;
+      }
+      if (pE.getWriteConcernError() != null) {
+        throw pE;
+      }
+    }
+
+    for (int i = 0; i < pBatch.size(); i++) {
+      final RawBsonDocument blob = pBatch.get(i);
+      if (duplicate[i]) {
+        _serverDuplicates.increment();
+      } else {
+        _storedBytes.add(blob.getByteBuffer().remaining() - BLOB_DOCUMENT_OVERHEAD);
+      }
+      _index.put(HashCode.fromBytes(blob.getBinary("_id").getData()), Boolean.TRUE);
+    }
+  }
+
+  private void release(final List<RawBsonDocument> pBatch) {
+    if (_pool != null) {
+      pBatch.forEach(blob -> _pool.release(blob.getByteBuffer().array()));
+    }
+  }
+
+  private static void waitFor(final Future<?> pFuture) throws IOException {
+    try {
+      pFuture.get();
+    } catch (InterruptedException pE) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting on blob batch", pE);
+    } catch (ExecutionException pE) {
+      throw new IOException("Blob batch insert failed", pE.getCause());
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Projections;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+
+/**
+ * Snapshot of the files already stored in a bucket, used to pick files for read workloads.
+ */
+class FileCatalog {
+  static final int DEFAULT_MAX_FILES = 100000;
+  static final double DEFAULT_ZIPF_EXPONENT = 0.99;
+
+  enum Selection {
+    RANDOM,
+    /** Skewed towards the first files of the catalog, like a hot working set */
+    ZIPFIAN,
+    SEQUENTIAL;
+
+    static Selection parse(final String pValue) {
+      return valueOf(pValue.toUpperCase(Locale.ROOT));
+    }
+  }
+
+  private final List<StoredFile> _files;
+
+  FileCatalog(final List<StoredFile> pFiles) {
+    _files = Collections.unmodifiableList(pFiles);
+  }
+
+  static FileCatalog load(final MongoCollection<BsonDocument> pFiles, final int pMaxFiles) {
+    final List<StoredFile> files = new ArrayList<>();
+    for (final BsonDocument document : pFiles.find()
+        .projection(StoredFile.PROJECTION)
+        .limit(pMaxFiles)) {
+      files.add(StoredFile.of(document));
+    }
+    return new FileCatalog(files);
+  }
+
+  List<StoredFile> getFiles() {
+    return _files;
+  }
+
+  boolean isEmpty() {
+    return _files.isEmpty();
+  }
+
+  FileSelector newSelector(final Selection pSelection, final double pZipfExponent) {
+    switch (pSelection) {
+      case RANDOM:
+        return () -> _files.get(ThreadLocalRandom.current().nextInt(_files.size()));
+      case ZIPFIAN:
+        final double[] cdf = zipfCdf(_files.size(), pZipfExponent);
+        return () -> _files.get(zipfIndex(cdf, ThreadLocalRandom.current().nextDouble()));
+      case SEQUENTIAL:
+        final AtomicLong next = new AtomicLong(0L);
+        return () -> _files.get((int) (next.getAndIncrement() % _files.size()));
+      default:
+        throw new IllegalArgumentException("Unknown selection " + pSelection);
+    }
+  }
+
+  static double[] zipfCdf(final int pSize, final double pExponent) {
+    final double[] cdf = new double[pSize];
+    double sum = 0.0;
+    for (int i = 0; i < pSize; i++) {
+      sum += 1.0 / Math.pow(i + 1, pExponent);
+      cdf[i] = sum;
+    }
+    for (int i = 0; i < pSize; i++) {
+      cdf[i] /= sum;
+    }
+    return cdf;
+  }
+
+  static int zipfIndex(final double[] pCdf, final double pUniform) {
+    final int index = Arrays.binarySearch(pCdf, pUniform);
+    return Math.min(pCdf.length - 1, index >= 0 ? index : -index - 1);
+  }
+
+  @FunctionalInterface
+  interface FileSelector {
+    StoredFile next();
+  }
+
+  static class StoredFile {
+    static final Bson PROJECTION = Projections.include("filename", "length", "chunkSize", "metadata");
+
+    private final BsonValue _id;
+    private final String _filename;
+    private final long _length;
+    private final int _chunkSize;
+    private final BsonDocument _metadata;
+
+    StoredFile(
+        final BsonValue pId,
+        final String pFilename,
+        final long pLength,
+        final int pChunkSize,
+        final BsonDocument pMetadata) {
+      _id = pId;
+      _filename = pFilename;
+      _length = pLength;
+      _chunkSize = pChunkSize;
+      _metadata = pMetadata;
+    }
+
+    /**
+     * @param pDocument a {@code files} document with at least the fields of {@link #PROJECTION}
+     */
+    static StoredFile of(final BsonDocument pDocument) {
+      return new StoredFile(
+          pDocument.get("_id"),
+          pDocument.getString("filename").getValue(),
+          pDocument.getNumber("length").longValue(),
+          pDocument.getNumber("chunkSize").intValue(),
+          pDocument.getDocument("metadata", new BsonDocument()));
+    }
+
+    BsonValue getId() {
+      return _id;
+    }
+
+    String getFilename() {
+      return _filename;
+    }
+
+    long getLength() {
+      return _length;
+    }
+
+    int getChunkSize() {
+      return _chunkSize;
+    }
+
+    BsonDocument getMetadata() {
+      return _metadata;
+    }
+
+    /**
+     * @return the id in the form it is usually displayed, without BSON type wrappers
+     */
+    String getIdString() {
+      if (_id.isString()) {
+        return _id.asString().getValue();
+      }
+      if (_id.isObjectId()) {
+        return _id.asObjectId().getValue().toHexString();
+      }
+      return _id.toString();
+    }
+
+    int getChunkCount() {
+      return (int) ((_length + _chunkSize - 1) / _chunkSize);
+    }
+
+    @Override
+    public String toString() {
+      return _filename + " (" + getIdString() + ")";
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import org.bson.BsonBinary;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.types.ObjectId;
+
+/**
+ * How new files' ids are generated. The id is repeated in every chunk's {@code files_id} and in
+ * the {@code {files_id, n}} index, so its encoded size is paid once per chunk:
+ * <pre>
+ * STRING    random UUID as a 36 character string, 41 bytes
+ * BINARY    random UUID as binary subtype 4, 21 bytes
+ * OBJECTID  ObjectId, 12 bytes, ordered by creation second
+ * UUIDV7    time ordered UUID as binary subtype 4, 21 bytes, ordered by creation millisecond
+ * </pre>
+ * Random ids spread inserts across the whole index; time ordered ones keep them at its right
+ * edge, which caches better but concentrates a sharded collection's writes on one chunk at a time.
+ */
+enum FileIdStrategy {
+  STRING {
+    @Override
+    BsonValue next() {
+      return new BsonString(UUID.randomUUID().toString());
+    }
+
+    @Override
+    BsonValue parse(final String pId) {
+      return new BsonString(pId);
+    }
+
+    @Override
+    List<BsonValue> boundaries(final int pChunks, final long pNowMillis, final long pSpanMillis) {
+      final List<BsonValue> boundaries = new ArrayList<>(pChunks);
+      for (final String uuid : GridFS.getUUIDBuckets(pChunks)) {
+        boundaries.add(new BsonString(uuid));
+      }
+      return boundaries;
+    }
+  },
+
+  BINARY {
+    @Override
+    BsonValue next() {
+      return new BsonBinary(UUID.randomUUID());
+    }
+
+    @Override
+    BsonValue parse(final String pId) {
+      return new BsonBinary(UUID.fromString(pId));
+    }
+
+    @Override
+    List<BsonValue> boundaries(final int pChunks, final long pNowMillis, final long pSpanMillis) {
+      // Random UUIDs are uniform in their leading 32 bits, as in GridFS.getUUIDBuckets
+      final List<BsonValue> boundaries = new ArrayList<>(pChunks);
+      final long increment = (1L << 32) / pChunks;
+      for (long i = 0; i < pChunks; i++) {
+        boundaries.add(new BsonBinary(new UUID((i * increment) << 32, 0L)));
+      }
+      return boundaries;
+    }
+
+    @Override
+    String toString(final BsonValue pId) {
+      return pId.asBinary().asUuid().toString();
+    }
+  },
+
+  OBJECTID {
+    @Override
+    BsonValue next() {
+      return new BsonObjectId(new ObjectId());
+    }
+
+    @Override
+    BsonValue parse(final String pId) {
+      return new BsonObjectId(new ObjectId(pId));
+    }
+
+    @Override
+    List<BsonValue> boundaries(final int pChunks, final long pNowMillis, final long pSpanMillis) {
+      final List<BsonValue> boundaries = new ArrayList<>(pChunks);
+      for (final long millis : timeBoundaries(pChunks, pNowMillis, pSpanMillis)) {
+        boundaries.add(new BsonObjectId(new ObjectId(
+            ByteBuffer.allocate(12).putInt((int) (millis / 1000L)).array())));
+      }
+      return boundaries;
+    }
+
+    @Override
+    String toString(final BsonValue pId) {
+      return pId.asObjectId().getValue().toHexString();
+    }
+  },
+
+  UUIDV7 {
+    @Override
+    BsonValue next() {
+      return new BsonBinary(uuidV7(System.currentTimeMillis()));
+    }
+
+    @Override
+    BsonValue parse(final String pId) {
+      return new BsonBinary(UUID.fromString(pId));
+    }
+
+    @Override
+    List<BsonValue> boundaries(final int pChunks, final long pNowMillis, final long pSpanMillis) {
+      final List<BsonValue> boundaries = new ArrayList<>(pChunks);
+      for (final long millis : timeBoundaries(pChunks, pNowMillis, pSpanMillis)) {
+        boundaries.add(new BsonBinary(new UUID(millis << 16, 0L)));
+      }
+      return boundaries;
+    }
+
+    @Override
+    String toString(final BsonValue pId) {
+      return pId.asBinary().asUuid().toString();
+    }
+  };
+
+  static final String DEFAULT_STRATEGY = "string";
+  static final long DEFAULT_PRESPLIT_SPAN_SECONDS = 3600L;
+
+  abstract BsonValue next();
+
+  /**
+   * Reads back an id from {@link #toString(BsonValue)}.
+   */
+  abstract BsonValue parse(String pId);
+
+  /**
+   * Splits the range of ids into {@code pChunks} pieces. Random ids are split evenly, time
+   * ordered ones into equal slices of the {@code pSpanMillis} starting at {@code pNowMillis}.
+   */
+  abstract List<BsonValue> boundaries(int pChunks, long pNowMillis, long pSpanMillis);
+
+  /**
+   * @return {@code pId} as text for logs, status and the journal
+   */
+  String toString(final BsonValue pId) {
+    return pId.asString().getValue();
+  }
+
+  boolean isTimeOrdered() {
+    return this == OBJECTID || this == UUIDV7;
+  }
+
+  static FileIdStrategy parseStrategy(final String pValue) {
+    return valueOf(pValue.toUpperCase(Locale.ROOT));
+  }
+
+  static FileIdStrategy fromSystemProperties() {
+    return parseStrategy(System.getProperty("gridfs.fileId", DEFAULT_STRATEGY));
+  }
+
+  /**
+   * Builds a version 7 UUID: 48 bits of Unix milliseconds, then random bits around the version
+   * and variant.
+   */
+  static UUID uuidV7(final long pMillis) {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    final long most = (pMillis << 16) | 0x7000L | (random.nextLong() & 0x0FFFL);
+    final long least = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+    return new UUID(most, least);
+  }
+
+  private static long[] timeBoundaries(final int pChunks, final long pNowMillis, final long pSpanMillis) {
+    final long[] boundaries = new long[pChunks];
+    for (int i = 0; i < pChunks; i++) {
+      boundaries[i] = pNowMillis + pSpanMillis * i / pChunks;
+    }
+    return boundaries;
+  }
+}
@@ -0,0 +1,78 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.jmo.mongo.javadriver.gridfs.ChunkReader.ChunkReaderInputStream;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Local file read either through a {@link BufferedInputStream}, or memory mapped and sliced
+ * directly into chunks by {@link MappedFileReader}.
+ */
+class FileUploadSource implements UploadSource {
+  private final File _file;
+  private final int _bufferSize;
+  private final boolean _mapped;
+
+  FileUploadSource(final String pPath, final int pBufferSize, final boolean pMapped) {
+    _file = new File(pPath);
+    _bufferSize = pBufferSize;
+    _mapped = pMapped;
+  }
+
+  File getFile() {
+    return _file;
+  }
+
+  @Override
+  public String getName() {
+    return _file.getName();
+  }
+
+  @Override
+  public long length() {
+    return _file.length();
+  }
+
+  @Override
+  public long lastModified() {
+    return _file.lastModified();
+  }
+
+  @Override
+  public InputStream openStream() throws IOException {
+    if (_mapped) {
+      return new ChunkReaderInputStream(new MappedFileReader(_file.toPath(), _bufferSize));
+    }
+    return new BufferedInputStream(new FileInputStream(_file), _bufferSize);
+  }
+
+  @Override
+  public ChunkReader openChunkReader(final int pChunkSizeBytes, final ChunkBufferPool pPool)
+      throws IOException {
+    if (_mapped) {
+      return new MappedFileReader(_file.toPath(), pChunkSizeBytes);
+    }
+    // Whole chunks are read at a time, buffering underneath would only copy them twice
+    return ChunkReader.ofStream(new FileInputStream(_file), pChunkSizeBytes, pPool);
+  }
+
+  @Override
+  public ChunkReader openChunkReader(
+      final int pChunkSizeBytes,
+      final ChunkBufferPool pPool,
+      final long pStart,
+      final long pEnd) throws IOException {
+    if (_mapped) {
+      return new MappedFileReader(_file.toPath(), pChunkSizeBytes, pStart, pEnd);
+    }
+    return UploadSource.super.openChunkReader(pChunkSizeBytes, pPool, pStart, pEnd);
+  }
+
+  @Override
+  public String toString() {
+    return _file.getPath();
+  }
+}
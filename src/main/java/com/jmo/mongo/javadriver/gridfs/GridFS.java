@@ -2,34 +2,49 @@ package com.jmo.mongo.javadriver.gridfs;
 
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.core.util.StatusPrinter;
-import com.google.common.io.CountingInputStream;
-import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.jmo.mongo.javadriver.gridfs.FileCatalog.FileSelector;
+import com.jmo.mongo.javadriver.gridfs.FileCatalog.StoredFile;
+import com.jmo.mongo.javadriver.gridfs.OpenLoopScheduler.Operation;
+import com.jmo.mongo.javadriver.gridfs.SmallFileBatcher.SmallFile;
+import com.jmo.mongo.javadriver.gridfs.StorageBackend.GridFSStorage;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
 import com.mongodb.MongoClientURI;
 import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.gridfs.GridFSBucket;
 import com.mongodb.client.gridfs.GridFSBuckets;
-import com.mongodb.client.gridfs.model.GridFSUploadOptions;
 
 import java.io.*;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Phaser;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import java.util.concurrent.atomic.AtomicLong;
-import org.bson.BsonString;
+import java.util.function.LongSupplier;
+import org.HdrHistogram.Histogram;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.bridge.SLF4JBridgeHandler;
@@ -48,31 +63,149 @@ public class GridFS {
   private static final long DEFAULT_MAX_BYTES_PER_SECOND = Long.MAX_VALUE;
   private static final long DEFAULT_LOG_INTERVAL_MILLIS = 10000L;
   private static final int DEFAULT_THREADS = 8;
+  private static final int DEFAULT_CLIENT_MAX_POOL_SIZE = 100;
+  private static final int DEFAULT_STATUS_MAX_ENTRIES = 100;
+  private static final String DEFAULT_SOURCE = "files";
+  private static final String DEFAULT_UPLOAD_ENGINE = "driver";
+  private static final String DEFAULT_READER = "stream";
+  private static final String DEFAULT_INFINITE_FEED = "passes";
+  private static final String DEFAULT_SHARD_KEY = "range";
+  private static final String DEFAULT_WORKLOAD = "ingest";
+  private static final String DEFAULT_DOWNLOAD_SELECTION = "random";
+  private static final String DEFAULT_DOWNLOAD_METHOD = "stream";
+  private static final double DEFAULT_MIXED_OPS_PER_SECOND = 100.0;
+  private static final long DEFAULT_MIXED_DURATION_SECONDS = 60L;
+  private static final Map<Operation, Double> DEFAULT_MIXED_RATIOS = new EnumMap<>(Map.of(
+      Operation.UPLOAD, 1.0,
+      Operation.DOWNLOAD, 4.0,
+      Operation.DELETE, 1.0,
+      Operation.LOOKUP, 4.0));
 
   private static void gridfsIngest(final String[] args) throws InterruptedException {
-    if (args.length < 2) {
+    final boolean syntheticSource =
+        "synthetic".equalsIgnoreCase(System.getProperty("gridfs.source", DEFAULT_SOURCE));
+    if (args.length < (syntheticSource ? 1 : 2)) {
       LOG.error("Required parameters missing for {}", GridFS.class.getName());
       LOG.error("Usage: "
           + "-Dgridfs.infiniteModeEnabled=false "
           + "-Dgridfs.num.threads={} "
+          + "-Dgridfs.executor={}|virtual "
+          + "-Dgridfs.concurrency=[num.threads] "
+          + "-Dgridfs.concurrency.adaptive=false "
+          + "-Dgridfs.concurrency.min={} "
+          + "-Dgridfs.concurrency.sloMillis={} "
+          + "-Dgridfs.concurrency.backoff={} "
+          + "-Dgridfs.concurrency.minGain={} "
+          + "-Dgridfs.client.maxPoolSize={} "
           + "-Dgridfs.database={} "
           + "-Dgridfs.bucket={} "
           + "-Dgridfs.chunksSizeBytes={} "
           + "-Dgridfs.status.logIntervalMS={} "
+          + "-Dgridfs.status.maxEntries={} "
           + "-Dgridfs.maxBytesPerSecond={} "
+          + "-Dgridfs.rate.profile=flat|ramp|step|sine|burst "
+          + "-Dgridfs.rate.batchBytes={} "
           + "-Dgridfs.sharding.enabled=false "
           + "-Dgridfs.sharding.presplit.enabled=false "
           + "-Dgridfs.sharding.presplit.files.chunks={} "
           + "-Dgridfs.sharding.presplit.chunks.chunks={} "
-          + "{} [mongoUri] [file1] [file2] ...",
+          + "-Dgridfs.sharding.presplit.threads={} "
+          + "-Dgridfs.sharding.presplit.distribute=true "
+          + "-Dgridfs.sharding.key={}|hashed "
+          + "-Dgridfs.sharding.presplit.spanSeconds={} "
+          + "-Dgridfs.fileId={}|binary|objectid|uuidv7 "
+          + "-Dgridfs.source={} "
+          + "-Dgridfs.synthetic.files={} "
+          + "-Dgridfs.synthetic.size.distribution=fixed|uniform|lognormal "
+          + "-Dgridfs.synthetic.size.bytes={} "
+          + "-Dgridfs.synthetic.size.min=1 "
+          + "-Dgridfs.synthetic.size.max=[2 x size.bytes] "
+          + "-Dgridfs.synthetic.size.sigma={} "
+          + "-Dgridfs.synthetic.compressibility={} "
+          + "-Dgridfs.synthetic.poolBytes={} "
+          + "-Dgridfs.storage={}|null|local|fake "
+          + "-Dgridfs.storage.local.dir={} "
+          + "-Dgridfs.storage.fake.latencyMicros={} "
+          + "-Dgridfs.storage.fake.errorRate={} "
+          + "-Dgridfs.upload.engine={}|batched|dedup "
+          + "-Dgridfs.upload.batchBytes={} "
+          + "-Dgridfs.upload.batchesInFlight={} "
+          + "-Dgridfs.dedup.indexEntries={} "
+          + "-Dgridfs.pool.enabled=true "
+          + "-Dgridfs.compression={}|snappy|zstd "
+          + "-Dgridfs.compression.zstd.level={} "
+          + "-Dgridfs.pool.maxBytes=[in-flight batches, at most 1/4 heap] "
+          + "-Dgridfs.reader={}|mmap "
+          + "-Dgridfs.checksum.enabled=true "
+          + "-Dgridfs.upload.smallFile.thresholdBytes={} "
+          + "-Dgridfs.upload.smallFile.batchFiles={} "
+          + "-Dgridfs.upload.split.thresholdBytes={} "
+          + "-Dgridfs.upload.split.rangeChunks={} "
+          + "-Dgridfs.journal.file= "
+          + "-Dgridfs.input.window={} "
+          + "-Dgridfs.input.order={}|arrival "
+          + "-Dgridfs.infinite.feed={}|continuous "
+          + "-Dgridfs.run.durationSeconds=0 "
+          + "-Dgridfs.run.maxBytes=0 "
+          + "-Dgridfs.run.maxFiles=0 "
+          + "-Dgridfs.run.drainSeconds={} "
+          + "-Dgridfs.retention.maxBytes=0 "
+          + "-Dgridfs.retention.maxFiles=0 "
+          + "-Dgridfs.retention.filesPerSecond=0 "
+          + "-Dgridfs.retention.batchFiles={} "
+          + "-Dgridfs.retention.threads={} "
+          + "-Dgridfs.metrics.file= "
+          + "-Dgridfs.metrics.format={}|json "
+          + "-Dgridfs.metrics.http.port=0 "
+          + "{} [mongoUri] [file|directory|glob|@manifest] ...",
           DEFAULT_THREADS,
+          UploadExecutor.DEFAULT_MODE,
+          AdaptiveConcurrency.DEFAULT_MIN,
+          AdaptiveConcurrency.DEFAULT_SLO_MILLIS,
+          AdaptiveConcurrency.DEFAULT_BACKOFF,
+          AdaptiveConcurrency.DEFAULT_MIN_GAIN,
+          DEFAULT_CLIENT_MAX_POOL_SIZE,
           DEFAULT_DATABASE_NAME,
           DEFAULT_BUCKET_NAME,
           DEFAULT_CHUNK_SIZE_BYTES,
           DEFAULT_LOG_INTERVAL_MILLIS,
+          DEFAULT_STATUS_MAX_ENTRIES,
           DEFAULT_MAX_BYTES_PER_SECOND,
+          ByteRateLimiter.DEFAULT_BATCH_BYTES,
           DEFAULT_FILES_CHUNKS,
           DEFAULT_CHUNKS_CHUNKS,
+          ShardPresplitter.DEFAULT_THREADS,
+          DEFAULT_SHARD_KEY,
+          FileIdStrategy.DEFAULT_PRESPLIT_SPAN_SECONDS,
+          FileIdStrategy.DEFAULT_STRATEGY,
+          DEFAULT_SOURCE,
+          SyntheticSource.DEFAULT_FILES,
+          SyntheticSource.DEFAULT_SIZE_BYTES,
+          SyntheticSource.DEFAULT_SIZE_SIGMA,
+          SyntheticSource.DEFAULT_COMPRESSIBILITY,
+          SyntheticSource.DEFAULT_POOL_BYTES,
+          StorageBackend.DEFAULT_STORAGE,
+          StorageBackend.DEFAULT_LOCAL_DIR,
+          StorageBackend.DEFAULT_FAKE_LATENCY_MICROS,
+          StorageBackend.DEFAULT_FAKE_ERROR_RATE,
+          DEFAULT_UPLOAD_ENGINE,
+          BatchedChunkWriter.DEFAULT_BATCH_BYTES,
+          BatchedChunkWriter.DEFAULT_BATCHES_IN_FLIGHT,
+          DedupStore.DEFAULT_INDEX_ENTRIES,
+          ChunkCodec.DEFAULT_CODEC,
+          ChunkCodec.DEFAULT_ZSTD_LEVEL,
+          DEFAULT_READER,
+          SmallFileBatcher.DEFAULT_THRESHOLD_BYTES,
+          SmallFileBatcher.DEFAULT_BATCH_FILES,
+          RangedUpload.DEFAULT_SPLIT_THRESHOLD_BYTES,
+          RangedUpload.DEFAULT_RANGE_CHUNKS,
+          UploadQueue.DEFAULT_WINDOW,
+          UploadQueue.DEFAULT_ORDER,
+          DEFAULT_INFINITE_FEED,
+          RunBudget.DEFAULT_DRAIN_SECONDS,
+          RetentionReaper.DEFAULT_BATCH_FILES,
+          RetentionReaper.DEFAULT_THREADS,
+          MetricsExporter.DEFAULT_FORMAT,
           GridFS.class.getName());
       System.exit(1);
     }
@@ -95,108 +228,1031 @@ public class GridFS {
         Integer.getInteger("gridfs.sharding.presplit.files.chunks", DEFAULT_FILES_CHUNKS);
     final int shardingPresplitChunksChunks =
         Integer.getInteger("gridfs.sharding.presplit.chunks.chunks", DEFAULT_CHUNKS_CHUNKS);
-    final ExecutorService executorService = Executors.newFixedThreadPool(threads);
-
-    LOG.info("Connecting to client at '{}' with {} thread(s) with collection '{}.{}.*' @ max {} B/s",
-        args[0], threads, database, bucket, maxBytesPerSecond);
-
-    final RateLimiter limiter = RateLimiter.create(maxBytesPerSecond);
+    final String storageType = StorageBackend.typeFromSystemProperties();
+    final boolean gridfsStorage = StorageBackend.DEFAULT_STORAGE.equals(storageType);
+    if (!gridfsStorage && System.getProperty("gridfs.upload.engine") != null) {
+      LOG.warn("Upload engines only apply to gridfs storage, ignoring gridfs.upload.engine");
+    }
+    final String uploadEngine = gridfsStorage
+        ? System.getProperty("gridfs.upload.engine", DEFAULT_UPLOAD_ENGINE)
+        : DEFAULT_UPLOAD_ENGINE;
+    final boolean batchedUploadEngine = "batched".equalsIgnoreCase(uploadEngine);
+    final boolean dedupUploadEngine = "dedup".equalsIgnoreCase(uploadEngine);
+    final long dedupIndexEntries =
+        Long.getLong("gridfs.dedup.indexEntries", DedupStore.DEFAULT_INDEX_ENTRIES);
+    final int uploadBatchBytes =
+        Integer.getInteger("gridfs.upload.batchBytes", BatchedChunkWriter.DEFAULT_BATCH_BYTES);
+    final int uploadBatchesInFlight = Integer.getInteger(
+        "gridfs.upload.batchesInFlight", BatchedChunkWriter.DEFAULT_BATCHES_IN_FLIGHT);
+    final boolean mappedReader =
+        "mmap".equalsIgnoreCase(System.getProperty("gridfs.reader", DEFAULT_READER));
+    final long splitThresholdBytes = Long.getLong(
+        "gridfs.upload.split.thresholdBytes", RangedUpload.DEFAULT_SPLIT_THRESHOLD_BYTES);
+    final int splitRangeChunks =
+        Integer.getInteger("gridfs.upload.split.rangeChunks", RangedUpload.DEFAULT_RANGE_CHUNKS);
+    if (splitThresholdBytes != RangedUpload.DEFAULT_SPLIT_THRESHOLD_BYTES && !batchedUploadEngine) {
+      LOG.warn("Splitting large files requires -Dgridfs.upload.engine=batched, ignoring "
+          + "gridfs.upload.split.thresholdBytes");
+    }
+    final boolean compression =
+        !"none".equalsIgnoreCase(System.getProperty("gridfs.compression", ChunkCodec.DEFAULT_CODEC));
+    if (compression && !batchedUploadEngine) {
+      LOG.warn("Chunk compression requires -Dgridfs.upload.engine=batched, ignoring gridfs.compression");
+    }
+    final long requestedSmallFileThresholdBytes = Long.getLong(
+        "gridfs.upload.smallFile.thresholdBytes", SmallFileBatcher.DEFAULT_THRESHOLD_BYTES);
+    final boolean smallFileBatching = requestedSmallFileThresholdBytes > 0L;
+    if (smallFileBatching && (!gridfsStorage || dedupUploadEngine || compression)) {
+      LOG.warn("Small file batching only applies to gridfs storage without dedup or compression, "
+          + "ignoring gridfs.upload.smallFile.thresholdBytes");
+    }
+    final long smallFileThresholdBytes =
+        smallFileBatching && gridfsStorage && !dedupUploadEngine && !compression
+            ? requestedSmallFileThresholdBytes
+            : 0L;
+    final boolean checksums = Boolean.parseBoolean(System.getProperty("gridfs.checksum.enabled", "true"));
+    final String journalFile = System.getProperty("gridfs.journal.file");
+    if (journalFile != null && dedupUploadEngine) {
+      LOG.warn("The dedup upload engine can't be resumed, ignoring gridfs.journal.file");
+    }
+    final boolean retentionEnabled =
+        Long.getLong("gridfs.retention.maxBytes", RetentionReaper.UNLIMITED) != RetentionReaper.UNLIMITED
+        || Long.getLong("gridfs.retention.maxFiles", RetentionReaper.UNLIMITED) != RetentionReaper.UNLIMITED;
+    if (dedupUploadEngine && retentionEnabled) {
+      LOG.warn("Dedup blobs are shared between files, ignoring gridfs.retention.*");
+    }
+    if (!gridfsStorage && retentionEnabled) {
+      LOG.warn("Retention only applies to gridfs storage, ignoring gridfs.retention.*");
+    }
+    if (journalFile != null && infiniteModeEnabled) {
+      LOG.warn("Only the first pass of infinite mode is journaled to and resumes from gridfs.journal.file");
+    }
+    final boolean continuousFeed = "continuous".equalsIgnoreCase(
+        System.getProperty("gridfs.infinite.feed", DEFAULT_INFINITE_FEED));
+    final long drainSeconds = Long.getLong("gridfs.run.drainSeconds", RunBudget.DEFAULT_DRAIN_SECONDS);
+    final RunBudget budget = RunBudget.fromSystemProperties();
+    final FileIdStrategy idStrategy = FileIdStrategy.fromSystemProperties();
+    final ByteRateLimiter limiter = ByteRateLimiter.fromSystemProperties(maxBytesPerSecond);
+    final UploadExecutor uploads = UploadExecutor.fromSystemProperties(threads, limiter::releaseLease);
+
+    if (gridfsStorage) {
+      LOG.info("Connecting to client at '{}' with {} upload(s) in flight with collection '{}.{}.*' @ max {} B/s",
+          args[0], uploads.getConcurrency(), database, bucket, maxBytesPerSecond);
+    } else {
+      LOG.info("Not connecting to '{}', using {} storage with {} upload(s) in flight @ max {} B/s",
+          args[0], storageType, uploads.getConcurrency(), maxBytesPerSecond);
+    }
 
-    final StatusThread statusThread = new StatusThread(statusIntervalMS);
+    final StatusThread statusThread =
+        new StatusThread(statusIntervalMS, MetricsExporter.fromSystemProperties());
+    // Takes over the number in flight, between gridfs.concurrency.min and gridfs.concurrency
+    final AdaptiveConcurrency adaptive =
+        AdaptiveConcurrency.fromSystemProperties(uploads.getMaxConcurrency(), uploads::setConcurrency);
+    if (adaptive != null) {
+      statusThread.addIntervalListener(adaptive);
+    }
+    // One chunk buffer per upload in flight feeds every engine, so reading a file allocates none
+    final ChunkBufferPool readPool =
+        ChunkBufferPool.forReaders(chunkSizeBytes, uploads.getMaxConcurrency());
+    if (readPool != null) {
+      statusThread.addIntervalListener((now, total, rate) -> readPool.logInterval());
+    }
     statusThread.start();
 
-    final String[] fileList = Arrays.copyOfRange(args, 1, args.length);
-    try (final MongoClient client = new MongoClient(new MongoClientURI(args[0]))) {
-      ensureSharding(client, database, bucket, shardingEnabled,
-          shardingPresplit, shardingPresplitFilesChunks, shardingPresplitChunksChunks);
+    final int inputWindow = Integer.getInteger("gridfs.input.window", UploadQueue.DEFAULT_WINDOW);
+    final UploadQueue.Order inputOrder = UploadQueue.orderFromSystemProperties();
+    final List<UploadSource> syntheticList = syntheticSource
+        ? SyntheticSource.fromSystemProperties().getSources()
+        : null;
+    final List<String> inputs = Arrays.asList(args).subList(1, args.length);
+    final IngestJournal journal = journalFile == null || dedupUploadEngine
+        ? null
+        : openJournal(journalFile);
+
+    // Interrupting the run stops new uploads and gives the ones in flight a chance to finish
+    final CountDownLatch finished = new CountDownLatch(1);
+    final Thread stopHook = new Thread(() -> {
+      budget.stop("shutdown requested");
+      LOG.info("Shutdown requested, waiting up to {}s for uploads in flight", drainSeconds);
+      Uninterruptibles.awaitUninterruptibly(finished, drainSeconds + 1, TimeUnit.SECONDS);
+    }, "IngestShutdown");
+    Runtime.getRuntime().addShutdownHook(stopHook);
+    try (final MongoClient client = gridfsStorage ? newClient(args[0]) : null) {
+      final MongoDatabase gridfs = client == null ? null : client.getDatabase(database);
+      final BatchedChunkWriter batchedWriter;
+      if (batchedUploadEngine) {
+        LOG.info("Using batched upload engine, {} byte batches with {} in flight per file",
+            uploadBatchBytes, uploadBatchesInFlight);
+        batchedWriter = new BatchedChunkWriter(
+            gridfs, bucket, chunkSizeBytes, uploadBatchBytes, uploadBatchesInFlight, threads);
+        logBufferPool(statusThread, batchedWriter);
+      } else {
+        batchedWriter = null;
+      }
+      final DedupStore dedupStore;
+      if (dedupUploadEngine) {
+        LOG.info("Using dedup upload engine into '{}.{}.blobs', indexing up to {} chunk hash(es)",
+            database, bucket, dedupIndexEntries);
+        dedupStore = new DedupStore(gridfs, bucket, chunkSizeBytes, uploadBatchBytes,
+            uploadBatchesInFlight, dedupIndexEntries, threads);
+        statusThread.addIntervalListener((now, total, rate) -> dedupStore.logInterval());
+      } else {
+        dedupStore = null;
+      }
+      final StorageBackend storage = gridfs == null
+          ? StorageBackend.fromSystemProperties(storageType, chunkSizeBytes, idStrategy)
+          : new GridFSStorage(client, database, bucket, GridFSBuckets.create(gridfs, bucket),
+              chunkSizeBytes, batchedWriter, dedupStore);
+      storage.prepare(shardingEnabled, shardingPresplit,
+          shardingPresplitFilesChunks, shardingPresplitChunksChunks, idStrategy);
+
+      final RetentionReaper retention = gridfs == null || dedupUploadEngine
+          ? null
+          : RetentionReaper.fromSystemProperties(gridfs, bucket);
+      if (retention != null) {
+        retention.start();
+        statusThread.addIntervalListener((now, total, rate) -> retention.logInterval());
+      }
+      final SmallFileBatcher smallFiles;
+      final SmallFileBatcher.Listener smallFileListener;
+      if (smallFileThresholdBytes > 0L) {
+        final int batchFiles = Integer.getInteger(
+            "gridfs.upload.smallFile.batchFiles", SmallFileBatcher.DEFAULT_BATCH_FILES);
+        LOG.info("Batching files under {} bytes, up to {} file(s) or {} bytes per batch",
+            smallFileThresholdBytes, batchFiles, uploadBatchBytes);
+        smallFiles = new SmallFileBatcher(
+            gridfs, bucket, chunkSizeBytes, uploadBatchBytes, batchFiles, limiter, readPool, checksums);
+        smallFiles.ensureIndexes();
+        statusThread.addIntervalListener(
+            (now, total, rate) -> smallFiles.logInterval(statusIntervalMS / 1000.0));
+        smallFileListener = new SmallFileBatcher.Listener() {
+          @Override
+          public void onSaved(final SmallFile pFile, final long pLength) {
+            statusThread.addCount(pLength);
+            if (journal != null) {
+              journal.completed(pFile.getFileId());
+            }
+            if (retention != null) {
+              retention.recordSaved(pLength);
+            }
+          }
 
-      final MongoDatabase gridfs = client.getDatabase(database);
-      final GridFSBucket filesBucket = GridFSBuckets.create(gridfs, bucket);
+          @Override
+          public void onFailed(final SmallFile pFile, final Throwable pFailure) {
+            LOG.error("Failed to save small file '{}' fileId {}",
+                pFile.getSource(), pFile.getFileId(), pFailure);
+          }
+        };
+      } else {
+        smallFiles = null;
+        smallFileListener = null;
+      }
+      // Resuming writes the remaining chunks directly, whichever engine wrote the first ones
+      final BatchedChunkWriter resumeWriter;
+      if (journal == null || batchedWriter != null) {
+        resumeWriter = batchedWriter;
+      } else if (gridfs == null) {
+        LOG.warn("Only gridfs storage can resume uploads, restarting the unfinished ones instead");
+        resumeWriter = null;
+      } else if (compression) {
+        LOG.warn("Not resuming driver uploads while gridfs.compression is set, restarting them instead");
+        resumeWriter = null;
+      } else {
+        resumeWriter = new BatchedChunkWriter(
+            gridfs, bucket, chunkSizeBytes, uploadBatchBytes, uploadBatchesInFlight, threads);
+      }
 
+      // Every file started registers until it's saved or has failed
+      final Phaser pending = new Phaser(1);
+      boolean firstPass = true;
       do {
-        final CountDownLatch latch = new CountDownLatch(fileList.length);
+        // Walked afresh every pass, holding at most a window of files
+        final UploadQueue fileQueue = syntheticList != null
+            ? UploadQueue.of(syntheticList, inputWindow, inputOrder)
+            : UploadQueue.walk(inputs, BUFFER_SIZE, mappedReader, inputWindow, inputOrder);
+
+        UploadSource next;
+        long taken = 0L;
+        while ((next = fileQueue.take()) != null) {
+          final long fileIndex = taken++;
+          final UploadSource file = next;
+
+          final IngestJournal.Entry journaled =
+              journal == null || !firstPass ? null : journal.get(file.toString());
+          if (journaled != null && journaled.isDone()) {
+            LOG.info("Skipping file {}/{}: '{}', already saved as fileId {}",
+                fileIndex + 1, fileQueue.getDiscovered(), file, journaled.getFileId());
+            continue;
+          }
+          if (dedupUploadEngine && file.length() > DedupStore.maxFileBytes(chunkSizeBytes)) {
+            LOG.error("Skipping file {}/{}: '{}', {} bytes is more than the {} a dedup manifest "
+                    + "can list at {} byte chunks",
+                fileIndex + 1, fileQueue.getDiscovered(), file,
+                String.format("%,d", file.length()),
+                String.format("%,d", DedupStore.maxFileBytes(chunkSizeBytes)),
+                chunkSizeBytes);
+            continue;
+          }
+          if (!budget.tryStart(file.length())) {
+            break;
+          }
+          if (file.length() < smallFileThresholdBytes) {
+            final BsonValue id = idStrategy.next();
+            final String fileId = idStrategy.toString(id);
+            if (journal != null) {
+              journal.started(file.toString(), fileId, file.length(), chunkSizeBytes);
+            }
+            final List<SmallFile> batch =
+                smallFiles.add(new SmallFile(id, fileId, file, getMetadata(file)));
+            if (batch != null) {
+              writeSmallFiles(uploads, pending, smallFiles, batch, smallFileListener);
+            }
+            continue;
+          }
+          if (journaled != null && resumeWriter != null
+              && journaled.getLength() == file.length() && journaled.getChunkSize() == chunkSizeBytes) {
+            submitPending(uploads, pending, () -> {
+              final long start = System.currentTimeMillis();
+              final String fileId = journaled.getFileId();
+              try {
+                resume(resumeWriter, journal, journaled, idStrategy, file, limiter, readPool, statusThread);
+                if (retention != null) {
+                  retention.recordSaved(file.length());
+                }
+                logSaved(file, fileId, start);
+              } catch (Throwable pE) {
+                LOG.error("Failed to resume file '{}' fileId {}", file, fileId, pE);
+              } finally {
+                statusThread.remove(fileId);
+                pending.arriveAndDeregister();
+              }
+            });
+            continue;
+          }
+
+          if (batchedWriter != null && file.length() >= splitThresholdBytes) {
+            final long start = System.currentTimeMillis();
+            final BsonValue id = idStrategy.next();
+            final String fileId = idStrategy.toString(id);
+            if (journal != null) {
+              journal.started(file.toString(), fileId, file.length(), chunkSizeBytes);
+            }
+            final RangedUpload upload = new RangedUpload(batchedWriter, readPool, limiter, file, id, getMetadata(file),
+                checksums ? new ChunkChecksums(file.length(), chunkSizeBytes) : null,
+                splitRangeChunks, completed -> {
+                  if (completed.getFailure() == null) {
+                    if (journal != null) {
+                      journal.completed(fileId);
+                    }
+                    if (retention != null) {
+                      retention.recordSaved(file.length());
+                    }
+                    logSaved(file, fileId, start);
+                  } else {
+                    LOG.error("Failed to save file '{}' fileId {}", file, fileId);
+                  }
+                  statusThread.remove(fileId);
+                  pending.arriveAndDeregister();
+                });
+
+            LOG.info("Saving file {}/{}: '{}', {} bytes in {} ranges of {} chunks",
+                fileIndex + 1, fileQueue.getDiscovered(), file,
+                String.format("%,.0f", (double) file.length()),
+                upload.getRangeCount(), splitRangeChunks);
+            statusThread.add(fileId, file, upload::getCount);
+            pending.register();
+            try {
+              for (int range = 0; range < upload.getRangeCount(); range++) {
+                final int rangeIndex = range;
+                uploads.submit(() -> upload.uploadRange(rangeIndex));
+              }
+            } catch (InterruptedException | RuntimeException pE) {
+              // Ranges never submitted mean the upload can't complete and arrive by itself
+              statusThread.remove(fileId);
+              pending.arriveAndDeregister();
+              throw pE;
+            }
+            continue;
+          }
 
-        for (int i = 0; i < fileList.length; i++) {
-          final int fileIndex = i;
-          final String filename = fileList[i];
-          executorService.submit(() -> {
+          submitPending(uploads, pending, () -> {
             final long start = System.currentTimeMillis();
-            final String fileId = UUID.randomUUID().toString();
-            final File file = new File(filename);
+            final BsonValue id = idStrategy.next();
+            final String fileId = idStrategy.toString(id);
             final long fileLength = file.length();
             LOG.info("Saving file {}/{}: '{}', {} bytes",
-                fileIndex + 1, fileList.length, filename,
+                fileIndex + 1, fileQueue.getDiscovered(), file,
                 String.format("%,.0f", (double) fileLength));
 
-            try (final CountingInputStream uploadStream = new CountingInputStream(
-                new RateLimitedStream(limiter,
-                    new BufferedInputStream(new FileInputStream(filename), BUFFER_SIZE)))) {
-
-              statusThread.add(fileId, file, uploadStream);
-
-              // Create some custom options
-              GridFSUploadOptions options = new GridFSUploadOptions()
-                  .chunkSizeBytes(chunkSizeBytes)
-                  .metadata(new Document()
-                      .append("type", "iso")
-                      .append("lastModified", new Date(file.lastModified())));
-
-              filesBucket.uploadFromStream(
-                  new BsonString(fileId), file.getName(), uploadStream, options);
-
-              final long durationMillis = System.currentTimeMillis() - start;
-              final double megabytesPerSecond =
-                  fileLength / ((double) durationMillis / 1000.0) / 1e6;
-              LOG.info("Saved filename {} fileId {} size {}, after {} @ {} MB/s",
-                  file.getName(), fileId, fileLength,
-                  Duration.ofMillis(durationMillis), String.format("%.1f", megabytesPerSecond));
+            try {
+              if (journal != null) {
+                journal.started(file.toString(), fileId, fileLength, chunkSizeBytes);
+              }
+              final Document metadata = getMetadata(file);
+              try (final MeteredChunkReader reader = new MeteredChunkReader(limiter, checksums
+                  ? new ChecksummingChunkReader(file.openChunkReader(chunkSizeBytes, readPool),
+                      new ChunkChecksums(fileLength, chunkSizeBytes), metadata, fileId)
+                  : file.openChunkReader(chunkSizeBytes, readPool))) {
+                statusThread.add(fileId, file, reader::getCount);
+                storage.upload(id, file.getName(), reader, metadata, n -> {
+                  if (journal != null) {
+                    journal.acknowledged(fileId, n);
+                  }
+                });
+              }
+
+              if (journal != null) {
+                journal.completed(fileId);
+              }
+              if (retention != null) {
+                retention.recordSaved(fileLength);
+              }
+              logSaved(file, fileId, start);
             } catch (FileNotFoundException pE) {
-              LOG.error("File '{}' wasn't found. Err: {}", filename, pE.getMessage());
+              LOG.error("File '{}' wasn't found. Err: {}", file, pE.getMessage());
             } catch (Throwable pE) {
               LOG.error("Encountered failure", pE);
             } finally {
-              latch.countDown();
+              pending.arriveAndDeregister();
               statusThread.remove(fileId);
             }
           });
         }
-        
-        LOG.info("Awaiting copy to complete for {} files", fileList.length);
-        latch.await();
-      } while (infiniteModeEnabled);
+
+        fileQueue.close();
+        final List<SmallFile> smallFileBatch = smallFiles == null ? null : smallFiles.drain();
+        if (smallFileBatch != null) {
+          writeSmallFiles(uploads, pending, smallFiles, smallFileBatch, smallFileListener);
+        }
+
+        if (taken == 0) {
+          LOG.warn("No input files found");
+          break;
+        }
+        if (infiniteModeEnabled && !continuousFeed && !budget.isStopped()) {
+          LOG.info("Awaiting copy to complete for {} files before the next pass", taken);
+          pending.arriveAndAwaitAdvance();
+        }
+        if (journal != null && infiniteModeEnabled) {
+          journal.freeze();
+        }
+        firstPass = false;
+      } while (infiniteModeEnabled && !budget.isStopped());
+
+      if (budget.isStopped()) {
+        LOG.info("Stopped starting uploads: {}", budget.getStopReason());
+      }
+      LOG.info("Awaiting copy to complete for {} file(s) in flight, {} started in all",
+          pending.getRegisteredParties() - 1, budget.getStartedFiles());
+      if (awaitUploads(pending, pending.arrive(), budget, drainSeconds)) {
+        // Every upload has deregistered, wait for their tasks to return before closing storage
+        uploads.shutdown(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      } else {
+        LOG.warn("Giving up on {} upload(s) still running after {}s",
+            pending.getUnarrivedParties(), drainSeconds);
+        uploads.shutdown(drainSeconds, TimeUnit.SECONDS);
+      }
+
+      if (retention != null) {
+        retention.logInterval();
+        retention.shutdown();
+      }
+      if (resumeWriter != null && resumeWriter != batchedWriter) {
+        resumeWriter.shutdown();
+      }
+      if (batchedWriter != null) {
+        batchedWriter.shutdown();
+      }
+      if (dedupStore != null) {
+        dedupStore.logInterval();
+        dedupStore.shutdown();
+      }
+      try {
+        storage.close();
+      } catch (IOException pE) {
+        LOG.warn("Failed closing {}", storage, pE);
+      }
+      if (dedupStore != null) {
+        logCollectionStats(gridfs, bucket + ".blobs", DedupStore.manifestsCollection(bucket));
+      } else if (gridfs != null) {
+        logCollectionStats(gridfs, bucket + ".files", bucket + ".chunks");
+      }
+    } finally {
+      uploads.shutdownNow();
+      finished.countDown();
+      removeShutdownHook(stopHook);
+      if (journal != null) {
+        try {
+          journal.close();
+        } catch (IOException pE) {
+          LOG.warn("Failed closing journal", pE);
+        }
+      }
+      if (adaptive != null) {
+        adaptive.logSummary();
+      }
+      logOverall(statusThread);
+    }
+  }
+
+  /**
+   * Logs the document count, data size and index sizes {@code collStats} reports for each
+   * collection, to compare what different file id strategies cost.
+   */
+  static void logCollectionStats(final MongoDatabase pDatabase, final String... pCollections) {
+    for (final String collection : pCollections) {
+      try {
+        final Document stats = pDatabase.runCommand(new Document("collStats", collection));
+        final long count = stats.get("count", Number.class).longValue();
+        final long indexBytes = stats.get("totalIndexSize", Number.class).longValue();
+        LOG.info("Collection '{}': {} document(s), {} data bytes, {} index bytes ({} per document), "
+                + "by index {}",
+            collection,
+            String.format("%,d", count),
+            String.format("%,d", stats.get("size", Number.class).longValue()),
+            String.format("%,d", indexBytes),
+            String.format("%.1f", count == 0 ? 0.0 : (double) indexBytes / count),
+            stats.get("indexSizes", Document.class).toJson());
+      } catch (MongoCommandException pE) {
+        LOG.warn("Unable to read collStats for '{}': {}", collection, pE.getErrorMessage());
+      }
+    }
+  }
+
+  /**
+   * Writes a batch of small files as a single upload.
+   */
+  private static void writeSmallFiles(
+      final UploadExecutor pUploads,
+      final Phaser pPending,
+      final SmallFileBatcher pSmallFiles,
+      final List<SmallFile> pBatch,
+      final SmallFileBatcher.Listener pListener) throws InterruptedException {
+    submitPending(pUploads, pPending, () -> {
+      try {
+        pSmallFiles.write(pBatch, pListener);
+      } catch (Throwable pE) {
+        LOG.error("Failed to save batch of {} small file(s)", pBatch.size(), pE);
+      } finally {
+        pPending.arriveAndDeregister();
+      }
+    });
+  }
+
+  /**
+   * Registers an upload with {@code pPending} and submits it, deregistering it again if it never
+   * got submitted. Once submitted the task itself must arrive and deregister when it's done.
+   */
+  private static void submitPending(
+      final UploadExecutor pUploads,
+      final Phaser pPending,
+      final Runnable pTask) throws InterruptedException {
+    pPending.register();
+    try {
+      pUploads.submit(pTask);
+    } catch (InterruptedException | RuntimeException pE) {
+      pPending.arriveAndDeregister();
+      throw pE;
+    }
+  }
+
+  private static void removeShutdownHook(final Thread pHook) {
+    try {
+      Runtime.getRuntime().removeShutdownHook(pHook);
+    } catch (IllegalStateException pE) {
+      // Already shutting down, the hook is what's waiting on us
+    }
+  }
+
+  private static IngestJournal openJournal(final String pFile) {
+    try {
+      return new IngestJournal(Paths.get(pFile));
+    } catch (IOException pE) {
+      throw new IllegalStateException("Unable to open journal '" + pFile + "'", pE);
+    }
+  }
+
+  /**
+   * Waits for every upload in flight to finish, however long that takes, unless the run is
+   * stopped by its budget or a shutdown, which gives them only {@code pDrainSeconds} more.
+   *
+   * @return whether they all finished
+   */
+  private static boolean awaitUploads(
+      final Phaser pPending,
+      final int pPhase,
+      final RunBudget pBudget,
+      final long pDrainSeconds) throws InterruptedException {
+    while (!pBudget.isStopped()) {
+      try {
+        pPending.awaitAdvanceInterruptibly(pPhase, 1L, TimeUnit.SECONDS);
+        return true;
+      } catch (TimeoutException pE) {
+        // Check whether the run was stopped meanwhile
+      }
+    }
+    try {
+      pPending.awaitAdvanceInterruptibly(pPhase, pDrainSeconds, TimeUnit.SECONDS);
+      return true;
+    } catch (TimeoutException pE) {
+      return false;
+    }
+  }
+
+  /**
+   * Finishes an upload the journal shows as started: verifies which chunks the server has, then
+   * writes the rest and the files document.
+   */
+  private static void resume(
+      final BatchedChunkWriter pWriter,
+      final IngestJournal pJournal,
+      final IngestJournal.Entry pEntry,
+      final FileIdStrategy pIdStrategy,
+      final UploadSource pFile,
+      final ByteRateLimiter pLimiter,
+      final ChunkBufferPool pReadPool,
+      final StatusThread pStatusThread) throws IOException {
+    final String fileId = pEntry.getFileId();
+    final BsonValue id = pIdStrategy.parse(fileId);
+    if (pWriter.hasFilesDocument(id)) {
+      LOG.info("File '{}' fileId {} was already saved", pFile, fileId);
+      pJournal.completed(fileId);
+      return;
+    }
+
+    final int startN = pWriter.verifyChunks(id);
+    if (startN <= pEntry.getAcknowledgedN()) {
+      LOG.warn("Server has {} chunk(s) of fileId {} but the journal recorded {} acknowledged",
+          startN, fileId, pEntry.getAcknowledgedN() + 1);
+    }
+    final long offset = Math.min(pFile.length(), (long) startN * pWriter.getChunkSizeBytes());
+    LOG.info("Resuming file '{}' fileId {} from chunk {}, {} of {} bytes remaining",
+        pFile, fileId, startN,
+        String.format("%,d", pFile.length() - offset),
+        String.format("%,d", pFile.length()));
+
+    // Chunks stored before the interruption aren't read again, so the file gets no checksums
+    try (final MeteredChunkReader reader = new MeteredChunkReader(pLimiter,
+        pFile.openChunkReader(pWriter.getChunkSizeBytes(), pReadPool, offset, pFile.length()))) {
+      pStatusThread.add(fileId, pFile, reader::getCount);
+      pWriter.resume(id, pFile.getName(), startN, reader, getMetadata(pFile),
+          n -> pJournal.acknowledged(fileId, n));
+    }
+    pJournal.completed(fileId);
+  }
+
+  private static void gridfsDownload(final String[] args) throws InterruptedException {
+    if (args.length < 1) {
+      LOG.error("Required parameters missing for {}", GridFS.class.getName());
+      LOG.error("Usage: "
+          + "-Dgridfs.workload=download "
+          + "-Dgridfs.infiniteModeEnabled=false "
+          + "-Dgridfs.num.threads={} "
+          + "-Dgridfs.database={} "
+          + "-Dgridfs.bucket={} "
+          + "-Dgridfs.status.logIntervalMS={} "
+          + "-Dgridfs.maxBytesPerSecond={} "
+          + "-Dgridfs.rate.profile=flat|ramp|step|sine|burst "
+          + "-Dgridfs.rate.batchBytes={} "
+          + "-Dgridfs.download.catalog.maxFiles={} "
+          + "-Dgridfs.download.count=[catalog size] "
+          + "-Dgridfs.download.selection={}|zipfian|sequential "
+          + "-Dgridfs.download.zipf.exponent={} "
+          + "-Dgridfs.download.method={}|ranged|dedup "
+          + "-Dgridfs.download.rangeChunks={} "
+          + "-Dgridfs.download.prefetch={} "
+          + "{} [mongoUri]",
+          DEFAULT_THREADS,
+          DEFAULT_DATABASE_NAME,
+          DEFAULT_BUCKET_NAME,
+          DEFAULT_LOG_INTERVAL_MILLIS,
+          DEFAULT_MAX_BYTES_PER_SECOND,
+          ByteRateLimiter.DEFAULT_BATCH_BYTES,
+          FileCatalog.DEFAULT_MAX_FILES,
+          DEFAULT_DOWNLOAD_SELECTION,
+          FileCatalog.DEFAULT_ZIPF_EXPONENT,
+          DEFAULT_DOWNLOAD_METHOD,
+          GridFSDownloader.DEFAULT_RANGE_CHUNKS,
+          GridFSDownloader.DEFAULT_PREFETCH,
+          GridFS.class.getName());
+      System.exit(1);
+    }
+
+    final boolean infiniteModeEnabled = Boolean.getBoolean("gridfs.infiniteModeEnabled");
+    final String database =
+        System.getProperty("gridfs.database", DEFAULT_DATABASE_NAME);
+    final String bucket =
+        System.getProperty("gridfs.bucket", DEFAULT_BUCKET_NAME);
+    final Integer threads = Integer.getInteger("gridfs.num.threads", DEFAULT_THREADS);
+    final Long statusIntervalMS =
+        Long.getLong("gridfs.status.logIntervalMS", DEFAULT_LOG_INTERVAL_MILLIS);
+    final double maxBytesPerSecond =
+        Long.getLong("gridfs.maxBytesPerSecond", DEFAULT_MAX_BYTES_PER_SECOND);
+    final int catalogMaxFiles =
+        Integer.getInteger("gridfs.download.catalog.maxFiles", FileCatalog.DEFAULT_MAX_FILES);
+    final Long downloadCount = Long.getLong("gridfs.download.count");
+    final FileCatalog.Selection selection = FileCatalog.Selection.parse(
+        System.getProperty("gridfs.download.selection", DEFAULT_DOWNLOAD_SELECTION));
+    final double zipfExponent = Double.parseDouble(System.getProperty(
+        "gridfs.download.zipf.exponent", String.valueOf(FileCatalog.DEFAULT_ZIPF_EXPONENT)));
+    final GridFSDownloader.Method method = GridFSDownloader.Method.parse(
+        System.getProperty("gridfs.download.method", DEFAULT_DOWNLOAD_METHOD));
+    final int rangeChunks =
+        Integer.getInteger("gridfs.download.rangeChunks", GridFSDownloader.DEFAULT_RANGE_CHUNKS);
+    final int prefetch =
+        Integer.getInteger("gridfs.download.prefetch", GridFSDownloader.DEFAULT_PREFETCH);
+    final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+
+    LOG.info("Connecting to client at '{}' with {} thread(s) downloading from '{}.{}.*' "
+            + "@ max {} B/s, {} selection, {} reads",
+        args[0], threads, database, bucket, maxBytesPerSecond, selection, method);
+
+    final ByteRateLimiter limiter = ByteRateLimiter.fromSystemProperties(maxBytesPerSecond);
+
+    final StatusThread statusThread =
+        new StatusThread(statusIntervalMS, MetricsExporter.fromSystemProperties());
+    statusThread.start();
+
+    try (final MongoClient client = newClient(args[0])) {
+      final MongoDatabase gridfs = client.getDatabase(database);
+      final DedupStore dedupStore = method == GridFSDownloader.Method.DEDUP
+          ? new DedupStore(gridfs, bucket)
+          : null;
+      final String catalogCollection = dedupStore != null
+          ? DedupStore.manifestsCollection(bucket)
+          : bucket + ".files";
+      final FileCatalog catalog =
+          FileCatalog.load(gridfs.getCollection(catalogCollection, BsonDocument.class), catalogMaxFiles);
+      if (catalog.isEmpty()) {
+        LOG.error("No files found in '{}.{}'", database, catalogCollection);
+        return;
+      }
+      LOG.info("Loaded catalog of {} file(s)", catalog.getFiles().size());
+
+      final FileSelector selector = catalog.newSelector(selection, zipfExponent);
+      final GridFSDownloader downloader = new GridFSDownloader(
+          GridFSBuckets.create(gridfs, bucket),
+          gridfs.getCollection(bucket + ".chunks", RawBsonDocument.class),
+          method, rangeChunks, prefetch, limiter, BUFFER_SIZE, threads, dedupStore);
+      final long downloads = infiniteModeEnabled ? Long.MAX_VALUE
+          : downloadCount != null ? downloadCount : catalog.getFiles().size();
+      final AtomicLong issued = new AtomicLong(0L);
+      final CountDownLatch latch = new CountDownLatch(threads);
+
+      for (int i = 0; i < threads; i++) {
+        executorService.submit(() -> {
+          try {
+            long sequence;
+            while ((sequence = issued.getAndIncrement()) < downloads
+                && !Thread.currentThread().isInterrupted()) {
+              final StoredFile file = selector.next();
+              final String statusId = file.getIdString() + "#" + sequence;
+              final long start = System.currentTimeMillis();
+              final AtomicLong count = new AtomicLong(0L);
+              statusThread.add(statusId, file.getFilename(), file.getLength(), count::get);
+              try {
+                downloader.download(file, count);
+
+                final long durationMillis = System.currentTimeMillis() - start;
+                LOG.info("Read filename {} fileId {} size {}, after {} @ {} MB/s",
+                    file.getFilename(), file.getIdString(), file.getLength(),
+                    Duration.ofMillis(durationMillis),
+                    String.format("%.1f", file.getLength() / ((double) durationMillis / 1000.0) / 1e6));
+              } catch (Throwable pE) {
+                LOG.error("Encountered failure reading {}", file, pE);
+              } finally {
+                statusThread.remove(statusId);
+              }
+            }
+          } finally {
+            latch.countDown();
+          }
+        });
+      }
+
+      LOG.info("Awaiting {} download(s)",
+          downloads == Long.MAX_VALUE ? "unlimited" : String.valueOf(downloads));
+      latch.await();
+      downloader.shutdown();
     } finally {
       executorService.shutdownNow();
+      logOverall(statusThread);
+    }
+  }
+
+  private static void gridfsVerify(final String[] args) throws InterruptedException {
+    if (args.length < 1) {
+      LOG.error("Required parameters missing for {}", GridFS.class.getName());
+      LOG.error("Usage: "
+          + "-Dgridfs.workload=verify "
+          + "-Dgridfs.num.threads={} "
+          + "-Dgridfs.database={} "
+          + "-Dgridfs.bucket={} "
+          + "-Dgridfs.status.logIntervalMS={} "
+          + "-Dgridfs.maxBytesPerSecond={} "
+          + "-Dgridfs.rate.profile=flat|ramp|step|sine|burst "
+          + "-Dgridfs.rate.batchBytes={} "
+          + "-Dgridfs.verify.rangeChunks={} "
+          + "-Dgridfs.verify.orphans=true "
+          + "{} [mongoUri]",
+          DEFAULT_THREADS,
+          DEFAULT_DATABASE_NAME,
+          DEFAULT_BUCKET_NAME,
+          DEFAULT_LOG_INTERVAL_MILLIS,
+          DEFAULT_MAX_BYTES_PER_SECOND,
+          ByteRateLimiter.DEFAULT_BATCH_BYTES,
+          IngestVerifier.DEFAULT_RANGE_CHUNKS,
+          GridFS.class.getName());
+      System.exit(1);
+    }
+
+    final String database =
+        System.getProperty("gridfs.database", DEFAULT_DATABASE_NAME);
+    final String bucket =
+        System.getProperty("gridfs.bucket", DEFAULT_BUCKET_NAME);
+    final Integer threads = Integer.getInteger("gridfs.num.threads", DEFAULT_THREADS);
+    final Long statusIntervalMS =
+        Long.getLong("gridfs.status.logIntervalMS", DEFAULT_LOG_INTERVAL_MILLIS);
+    final double maxBytesPerSecond =
+        Long.getLong("gridfs.maxBytesPerSecond", DEFAULT_MAX_BYTES_PER_SECOND);
+    final int rangeChunks =
+        Integer.getInteger("gridfs.verify.rangeChunks", IngestVerifier.DEFAULT_RANGE_CHUNKS);
+    final boolean orphans = Boolean.parseBoolean(System.getProperty("gridfs.verify.orphans", "true"));
+
+    LOG.info("Connecting to client at '{}' with {} thread(s) verifying '{}.{}.*' "
+            + "in ranges of {} chunks @ max {} B/s",
+        args[0], threads, database, bucket, rangeChunks, maxBytesPerSecond);
+
+    final ByteRateLimiter limiter = ByteRateLimiter.fromSystemProperties(maxBytesPerSecond);
+
+    final StatusThread statusThread =
+        new StatusThread(statusIntervalMS, MetricsExporter.fromSystemProperties());
+    statusThread.start();
+
+    boolean clean = false;
+    try (final MongoClient client = newClient(args[0])) {
+      final MongoDatabase gridfs = client.getDatabase(database);
+      final IngestVerifier verifier = new IngestVerifier(
+          gridfs.getCollection(bucket + ".files", BsonDocument.class),
+          gridfs.getCollection(bucket + ".chunks", RawBsonDocument.class),
+          rangeChunks, threads, limiter, statusThread::addCount);
+      verifier.verifyFiles();
+      if (orphans) {
+        verifier.findOrphans();
+      }
+      verifier.logSummary();
+      clean = verifier.isClean();
+    } finally {
+      logOverall(statusThread);
+    }
+    // Lets a migration script stop on a bucket that didn't verify
+    if (!clean) {
+      System.exit(2);
+    }
+  }
+
+  private static void gridfsMixed(final String[] args) throws InterruptedException {
+    final boolean syntheticSource =
+        "synthetic".equalsIgnoreCase(System.getProperty("gridfs.source", DEFAULT_SOURCE));
+    if (args.length < 1) {
+      LOG.error("Required parameters missing for {}", GridFS.class.getName());
+      LOG.error("Usage: "
+          + "-Dgridfs.workload=mixed "
+          + "-Dgridfs.infiniteModeEnabled=false "
+          + "-Dgridfs.num.threads={} "
+          + "-Dgridfs.database={} "
+          + "-Dgridfs.bucket={} "
+          + "-Dgridfs.chunksSizeBytes={} "
+          + "-Dgridfs.status.logIntervalMS={} "
+          + "-Dgridfs.maxBytesPerSecond={} "
+          + "-Dgridfs.rate.profile=flat|ramp|step|sine|burst "
+          + "-Dgridfs.rate.batchBytes={} "
+          + "-Dgridfs.mixed.opsPerSecond={} "
+          + "-Dgridfs.mixed.durationSeconds={} "
+          + "-Dgridfs.mixed.ratio.upload={} "
+          + "-Dgridfs.mixed.ratio.download={} "
+          + "-Dgridfs.mixed.ratio.delete={} "
+          + "-Dgridfs.mixed.ratio.lookup={} "
+          + "[upload, source and download options] "
+          + "{} [mongoUri] [file|directory|glob|@manifest] ...",
+          DEFAULT_THREADS,
+          DEFAULT_DATABASE_NAME,
+          DEFAULT_BUCKET_NAME,
+          DEFAULT_CHUNK_SIZE_BYTES,
+          DEFAULT_LOG_INTERVAL_MILLIS,
+          DEFAULT_MAX_BYTES_PER_SECOND,
+          ByteRateLimiter.DEFAULT_BATCH_BYTES,
+          DEFAULT_MIXED_OPS_PER_SECOND,
+          DEFAULT_MIXED_DURATION_SECONDS,
+          DEFAULT_MIXED_RATIOS.get(Operation.UPLOAD),
+          DEFAULT_MIXED_RATIOS.get(Operation.DOWNLOAD),
+          DEFAULT_MIXED_RATIOS.get(Operation.DELETE),
+          DEFAULT_MIXED_RATIOS.get(Operation.LOOKUP),
+          GridFS.class.getName());
+      System.exit(1);
+    }
+
+    final boolean infiniteModeEnabled = Boolean.getBoolean("gridfs.infiniteModeEnabled");
+    final String database =
+        System.getProperty("gridfs.database", DEFAULT_DATABASE_NAME);
+    final String bucket =
+        System.getProperty("gridfs.bucket", DEFAULT_BUCKET_NAME);
+    final Integer chunkSizeBytes =
+        Integer.getInteger("gridfs.chunksSizeBytes",DEFAULT_CHUNK_SIZE_BYTES);
+    final Integer threads = Integer.getInteger("gridfs.num.threads", DEFAULT_THREADS);
+    final Long statusIntervalMS =
+        Long.getLong("gridfs.status.logIntervalMS", DEFAULT_LOG_INTERVAL_MILLIS);
+    final double maxBytesPerSecond =
+        Long.getLong("gridfs.maxBytesPerSecond", DEFAULT_MAX_BYTES_PER_SECOND);
+    final boolean batchedUploadEngine =
+        "batched".equalsIgnoreCase(System.getProperty("gridfs.upload.engine", DEFAULT_UPLOAD_ENGINE));
+    final int uploadBatchBytes =
+        Integer.getInteger("gridfs.upload.batchBytes", BatchedChunkWriter.DEFAULT_BATCH_BYTES);
+    final int uploadBatchesInFlight = Integer.getInteger(
+        "gridfs.upload.batchesInFlight", BatchedChunkWriter.DEFAULT_BATCHES_IN_FLIGHT);
+    final boolean mappedReader =
+        "mmap".equalsIgnoreCase(System.getProperty("gridfs.reader", DEFAULT_READER));
+    final int catalogMaxFiles =
+        Integer.getInteger("gridfs.download.catalog.maxFiles", FileCatalog.DEFAULT_MAX_FILES);
+    final GridFSDownloader.Method method = GridFSDownloader.Method.parse(
+        System.getProperty("gridfs.download.method", DEFAULT_DOWNLOAD_METHOD));
+    final int rangeChunks =
+        Integer.getInteger("gridfs.download.rangeChunks", GridFSDownloader.DEFAULT_RANGE_CHUNKS);
+    final int prefetch =
+        Integer.getInteger("gridfs.download.prefetch", GridFSDownloader.DEFAULT_PREFETCH);
+    final double opsPerSecond = Double.parseDouble(System.getProperty(
+        "gridfs.mixed.opsPerSecond", String.valueOf(DEFAULT_MIXED_OPS_PER_SECOND)));
+    final long durationSeconds = infiniteModeEnabled ? Long.MAX_VALUE / 1_000_000_000L
+        : Long.getLong("gridfs.mixed.durationSeconds", DEFAULT_MIXED_DURATION_SECONDS);
+    final Map<Operation, Double> ratios = new EnumMap<>(Operation.class);
+    DEFAULT_MIXED_RATIOS.forEach((operation, ratio) -> ratios.put(operation, Double.parseDouble(
+        System.getProperty("gridfs.mixed.ratio." + operation.name().toLowerCase(Locale.ROOT),
+            String.valueOf(ratio)))));
+
+    LOG.info("Connecting to client at '{}' with {} thread(s) with collection '{}.{}.*' "
+            + "@ {} ops/s, ratios {}",
+        args[0], threads, database, bucket, opsPerSecond, ratios);
+
+    final ByteRateLimiter limiter = ByteRateLimiter.fromSystemProperties(maxBytesPerSecond);
+
+    final StatusThread statusThread =
+        new StatusThread(statusIntervalMS, MetricsExporter.fromSystemProperties());
+    statusThread.start();
+
+    final List<UploadSource> fileList = syntheticSource
+        ? SyntheticSource.fromSystemProperties().getSources()
+        : getFileSources(Arrays.copyOfRange(args, 1, args.length), mappedReader);
+    try (final MongoClient client = newClient(args[0])) {
+      final MongoDatabase gridfs = client.getDatabase(database);
+      final GridFSBucket filesBucket = GridFSBuckets.create(gridfs, bucket);
+      final MongoCollection<BsonDocument> filesCollection =
+          gridfs.getCollection(bucket + ".files", BsonDocument.class);
+      final BatchedChunkWriter batchedWriter = batchedUploadEngine
+          ? new BatchedChunkWriter(
+              gridfs, bucket, chunkSizeBytes, uploadBatchBytes, uploadBatchesInFlight, threads)
+          : null;
+      if (batchedWriter != null) {
+        batchedWriter.ensureIndexes();
+        logBufferPool(statusThread, batchedWriter);
+      }
+      final GridFSDownloader downloader = new GridFSDownloader(filesBucket,
+          gridfs.getCollection(bucket + ".chunks", RawBsonDocument.class),
+          method, rangeChunks, prefetch, limiter, BUFFER_SIZE, threads, null);
+
+      final ChunkBufferPool readPool = batchedWriter == null
+          ? null
+          : ChunkBufferPool.forReaders(chunkSizeBytes, threads);
+      if (readPool != null) {
+        statusThread.addIntervalListener((now, total, rate) -> readPool.logInterval());
+      }
+
+      final FileCatalog catalog = FileCatalog.load(filesCollection, catalogMaxFiles);
+      final MixedWorkload workload = new MixedWorkload(filesBucket, batchedWriter, downloader,
+          filesCollection, fileList, limiter, chunkSizeBytes, readPool, statusThread, catalog,
+          FileIdStrategy.fromSystemProperties());
+      LOG.info("Starting with {} existing file(s) and {} upload source(s)",
+          workload.getLiveFileCount(), fileList.size());
+
+      final OpenLoopScheduler scheduler =
+          new OpenLoopScheduler(opsPerSecond, ratios, workload.getHandlers(), threads);
+      scheduler.getStats().values().forEach(stats -> {
+        Metrics.register(stats.getLatency());
+        Metrics.register(stats.getService());
+      });
+      statusThread.addIntervalListener((now, totalBytes, bytesPerSecond) ->
+          scheduler.logInterval(statusIntervalMS / 1000.0));
+
+      scheduler.run(TimeUnit.SECONDS.toNanos(durationSeconds));
+      scheduler.logSummary();
+
+      downloader.shutdown();
+      if (batchedWriter != null) {
+        batchedWriter.shutdown();
+      }
+      logCollectionStats(gridfs, bucket + ".files", bucket + ".chunks");
+    } finally {
+      logOverall(statusThread);
+    }
+  }
+
+  static MongoClient newClient(final String pUri) {
+    return new MongoClient(new MongoClientURI(pUri, MongoClientOptions.builder()
+        .connectionsPerHost(Integer.getInteger("gridfs.client.maxPoolSize", DEFAULT_CLIENT_MAX_POOL_SIZE))
+        .addCommandListener(new Metrics.ChunkInsertListener())));
+  }
+
+  private static void logBufferPool(final StatusThread pStatusThread, final BatchedChunkWriter pWriter) {
+    final ChunkBufferPool pool = pWriter.getBufferPool();
+    if (pool != null) {
+      pStatusThread.addIntervalListener((now, total, rate) -> pool.logInterval());
+    }
+  }
+
+  private static void logOverall(final StatusThread pStatusThread) {
+    pStatusThread.finish();
+    final long secondsElapsed = pStatusThread.getTotalMillisElapsed() / 1000L;
+    final long minutesElapsed = secondsElapsed / 60;
+    LOG.info("Overall performance {} MB/s, {} bytes read, over {}min {}sec",
+        String.format("%.1f", pStatusThread.getTotalCumulativeRatePerSecond() / 1e6),
+        String.format("%,.0f", (double)pStatusThread.getTotalCumulativeCount()),
+        minutesElapsed,
+        secondsElapsed % 60);
+    LOG.info("Exiting");
+  }
+
+  static Document getMetadata(final UploadSource pFile) {
+    return new Document()
+        .append("type", "iso")
+        .append("lastModified", new Date(pFile.lastModified()));
+  }
 
-      final long secondsElapsed = statusThread.getTotalMillisElapsed() / 1000L;
-      final long minutesElapsed = secondsElapsed / 60;
-      LOG.info("Overall performance {} MB/s, {} bytes read, over {}min {}sec",
-          String.format("%.1f", statusThread.getTotalCumulativeRatePerSecond() / 1e6),
-          String.format("%,.0f", (double)statusThread.getTotalCumulativeCount()),
-          minutesElapsed,
-          secondsElapsed % 60);
-      LOG.info("Exiting");
+  private static void logSaved(final UploadSource pFile, final String pFileId, final long pStartMillis) {
+    final long durationMillis = System.currentTimeMillis() - pStartMillis;
+    Metrics.FILE_COMPLETION.recordNanos(TimeUnit.MILLISECONDS.toNanos(durationMillis));
+    final double megabytesPerSecond =
+        pFile.length() / ((double) durationMillis / 1000.0) / 1e6;
+    LOG.info("Saved filename {} fileId {} size {}, after {} @ {} MB/s",
+        pFile.getName(), pFileId, pFile.length(),
+        Duration.ofMillis(durationMillis), String.format("%.1f", megabytesPerSecond));
+  }
+
+  /**
+   * Expands inputs like {@link UploadQueue} does, but all up front, for workloads that pick files
+   * at random.
+   */
+  static List<UploadSource> getFileSources(final String[] pInputs, final boolean pMapped) {
+    final List<UploadSource> sources = new ArrayList<>(pInputs.length);
+    for (final String input : pInputs) {
+      try {
+        UploadQueue.expand(input, true,
+            path -> sources.add(new FileUploadSource(path, BUFFER_SIZE, pMapped)));
+      } catch (IOException pE) {
+        throw new UncheckedIOException("Failed expanding input '" + input + "'", pE);
+      }
     }
+    return sources;
   }
 
-  private static void ensureSharding(
+  static void ensureSharding(
       final MongoClient pClient,
       final String pDatabase,
       final String pBucket,
       final boolean pShardingEnabled,
       final boolean pShardingPresplit,
       final int pShardingPresplitFilesChunks,
-      final int pShardingPresplitChunksChunks) {
+      final int pShardingPresplitChunksChunks,
+      final FileIdStrategy pIdStrategy) {
     if (!pShardingEnabled) {
       return;
     }
 
     final String filesNamespace = String.format("%s.%s.files", pDatabase, pBucket);
     final String chunksNamespace = String.format("%s.%s.chunks", pDatabase, pBucket);
-    LOG.info("Enabling sharding for '{}', '{}'", filesNamespace, chunksNamespace);
-    
+    final boolean hashed = "hashed".equalsIgnoreCase(
+        System.getProperty("gridfs.sharding.key", DEFAULT_SHARD_KEY));
+    LOG.info("Enabling {} sharding for '{}', '{}'",
+        hashed ? "hashed" : "ranged", filesNamespace, chunksNamespace);
+
     final MongoDatabase admin = pClient.getDatabase("admin");
     admin.runCommand(new Document("enableSharding", pDatabase));
 
+    if (hashed) {
+      // The server pre-splits and spreads empty hashed collections itself
+      final Document files = new Document()
+          .append("shardCollection", filesNamespace)
+          .append("key", new Document("_id", "hashed"));
+      final Document chunks = new Document()
+          .append("shardCollection", chunksNamespace)
+          .append("key", new Document("files_id", "hashed"));
+      if (pShardingPresplit) {
+        files.append("numInitialChunks", pShardingPresplitFilesChunks);
+        chunks.append("numInitialChunks", pShardingPresplitChunksChunks);
+      }
+      admin.runCommand(files);
+      admin.runCommand(chunks);
+      return;
+    }
+
     admin.runCommand(new Document()
         .append("shardCollection", filesNamespace)
         .append("key", new Document()
@@ -214,41 +1270,43 @@ public class GridFS {
       return;
     }
 
-    LOG.info("Pre-splitting '{}' with {} chunks", filesNamespace, pShardingPresplitFilesChunks);
-    for (final String uuidBoundary : getUUIDBuckets(pShardingPresplitFilesChunks)) {
-      retryingSplitAt(admin, filesNamespace, new Document("_id", uuidBoundary));
-    }
-
-    LOG.info("Pre-splitting '{}' with {} chunks", chunksNamespace, pShardingPresplitChunksChunks);
-    for (final String uuidBoundary : getUUIDBuckets(pShardingPresplitChunksChunks)) {
-      final Document middle = new Document()
-          .append("files_id", uuidBoundary)
-          .append("n", 0);
-      retryingSplitAt(admin, chunksNamespace, middle);
+    final boolean distribute = Boolean.parseBoolean(
+        System.getProperty("gridfs.sharding.presplit.distribute", "true"));
+    final long nowMillis = System.currentTimeMillis();
+    final long spanMillis = TimeUnit.SECONDS.toMillis(Long.getLong(
+        "gridfs.sharding.presplit.spanSeconds", FileIdStrategy.DEFAULT_PRESPLIT_SPAN_SECONDS));
+    if (pIdStrategy.isTimeOrdered()) {
+      LOG.warn("{} ids only ever grow, so at any moment writes go to one chunk. Pre-splitting the "
+          + "next {}s into slices that take turns on each shard, use -Dgridfs.sharding.key=hashed "
+          + "to spread writes all the time", pIdStrategy, TimeUnit.MILLISECONDS.toSeconds(spanMillis));
     }
-  }
-
-  static void retryingSplitAt(final MongoDatabase pAdmin, final String pNamespace, final Document pMiddle) {
-    while (true) {
-      try {
-        final Document response = pAdmin.runCommand(new Document()
-            .append("split", pNamespace)
-            .append("middle", pMiddle));
-        LOG.info("{} boundary {} response: {}", pNamespace, pMiddle, response);
-        return;
-      } catch (MongoCommandException pE) {
-        if (!"LockBusy".equalsIgnoreCase(pE.getErrorCodeName())) {
-          throw pE;
-        }
-
-        LOG.warn("Waiting on LockBusy response. Sleeping for 1s before trying again...");
+    final ShardPresplitter presplitter = new ShardPresplitter(admin,
+        Integer.getInteger("gridfs.sharding.presplit.threads", ShardPresplitter.DEFAULT_THREADS));
+    try {
+      final List<Document> filesBoundaries = new ArrayList<>();
+      for (final BsonValue boundary
+          : pIdStrategy.boundaries(pShardingPresplitFilesChunks, nowMillis, spanMillis)) {
+        filesBoundaries.add(new Document("_id", boundary));
+      }
+      LOG.info("Pre-splitting '{}' with {} chunks", filesNamespace, pShardingPresplitFilesChunks);
+      presplitter.split(filesNamespace, filesBoundaries);
+
+      final List<Document> chunksBoundaries = new ArrayList<>();
+      for (final BsonValue boundary
+          : pIdStrategy.boundaries(pShardingPresplitChunksChunks, nowMillis, spanMillis)) {
+        chunksBoundaries.add(new Document()
+            .append("files_id", boundary)
+            .append("n", 0));
       }
+      LOG.info("Pre-splitting '{}' with {} chunks", chunksNamespace, pShardingPresplitChunksChunks);
+      presplitter.split(chunksNamespace, chunksBoundaries);
 
-      try {
-        Thread.sleep(1000);
-      } catch (InterruptedException pE) {
-        throw new IllegalStateException(pE);
+      if (distribute) {
+        presplitter.distribute(filesNamespace, filesBoundaries);
+        presplitter.distribute(chunksNamespace, chunksBoundaries);
       }
+    } finally {
+      presplitter.shutdown();
     }
   }
 
@@ -270,8 +1328,22 @@ public class GridFS {
     private final long _logIntervalMillis;
     private final AtomicLong _totalByteCount;
     private final long _createdMillisEpoch;
+    private final MetricsExporter _exporter;
+    private final List<IntervalListener> _intervalListeners;
+    private final int _maxLoggedEntries;
+    private long _previousTotalCount;
+    private long _previousGcMillis;
+    private long _previousOriginalBytes;
+    private long _previousCompressedBytes;
 
     StatusThread(final long logIntervalMillis) {
+      this(logIntervalMillis, null);
+    }
+
+    /**
+     * @param pExporter receives every interval's metrics, may be {@code null}
+     */
+    StatusThread(final long logIntervalMillis, final MetricsExporter pExporter) {
       super("StatusThread");
       setDaemon(true);
       setUncaughtExceptionHandler((t, e) -> {
@@ -282,20 +1354,46 @@ public class GridFS {
       _logIntervalMillis = logIntervalMillis;
       _totalByteCount = new AtomicLong(0L);
       _createdMillisEpoch = System.currentTimeMillis();
+      _previousGcMillis = Metrics.getGcMillis();
+      _exporter = pExporter;
+      _intervalListeners = new CopyOnWriteArrayList<>();
+      _maxLoggedEntries = Integer.getInteger("gridfs.status.maxEntries", DEFAULT_STATUS_MAX_ENTRIES);
+    }
+
+    /**
+     * Runs {@code pListener} on this thread after every interval's status has been logged and the
+     * {@link Metrics} recorders have been sampled.
+     */
+    void addIntervalListener(final IntervalListener pListener) {
+      _intervalListeners.add(pListener);
+    }
+
+    void add(final String pUUID, final UploadSource pFile, final LongSupplier pCounter) {
+      add(pUUID, pFile.getName(), pFile.length(), pCounter);
     }
 
-    void add(final String pUUID, final File pFile, final CountingInputStream pStream) {
-      _actives.put(pUUID, new StatusEntry(pUUID, pFile.getName(), pFile.length(), pStream));
+    void add(final String pUUID, final String pFilename, final long pFileSize, final LongSupplier pCounter) {
+      _actives.put(pUUID, new StatusEntry(pUUID, pFilename, pFileSize, pCounter));
     }
 
     void remove(final String pUUID) {
       final StatusEntry status = _actives.remove(pUUID);
+      if (status == null) {
+        return;
+      }
       LOG.info("Removing status entry {}", pUUID);
       log(System.currentTimeMillis(), status);
 
       _totalByteCount.addAndGet(status.getCount());
     }
 
+    /**
+     * Counts bytes transferred by operations that aren't tracked with their own status entry.
+     */
+    void addCount(final long pBytes) {
+      _totalByteCount.addAndGet(pBytes);
+    }
+
     long getTotalCumulativeCount() {
       return _totalByteCount.get();
     }
@@ -304,12 +1402,58 @@ public class GridFS {
       return System.currentTimeMillis() - _createdMillisEpoch;
     }
 
+    /**
+     * Stops interval logging, then exports and logs the final metrics for the whole run.
+     */
+    void finish() {
+      interrupt();
+      Metrics.sampleAll();
+      for (final LatencyRecorder recorder : Metrics.getRecorders()) {
+        final Histogram cumulative = recorder.getCumulative();
+        if (cumulative.getTotalCount() > 0) {
+          LOG.info("Latency {}: {}", recorder.getName(), LatencyRecorder.summarize(cumulative));
+        }
+      }
+      if (_exporter != null) {
+        _exporter.export(System.currentTimeMillis(), getTotalCumulativeCount(),
+            getTotalCumulativeRatePerSecond());
+        try {
+          _exporter.close();
+        } catch (IOException pE) {
+          LOG.warn("Failed closing metrics exporter", pE);
+        }
+      }
+    }
+
     double getTotalCumulativeRatePerSecond() {
       final double totalBytes = _totalByteCount.doubleValue();
       final double totalMillisElapsed = getTotalMillisElapsed();
       return totalBytes / (totalMillisElapsed / 1000.0);
     }
 
+    /**
+     * Logs logical and physical rates of compressed chunks over the last interval, if there were
+     * any.
+     */
+    private void logCompression() {
+      final long originalBytes = Metrics.ORIGINAL_BYTES.sum();
+      final long compressedBytes = Metrics.COMPRESSED_BYTES.sum();
+      final long original = originalBytes - _previousOriginalBytes;
+      final long compressed = compressedBytes - _previousCompressedBytes;
+      _previousOriginalBytes = originalBytes;
+      _previousCompressedBytes = compressedBytes;
+      if (compressed == 0) {
+        return;
+      }
+
+      final double intervalSeconds = _logIntervalMillis / 1000.0;
+      LOG.info("Compression: {} MB/s logical, {} MB/s physical, ratio {}x last, {}x cumulative",
+          String.format("%.2f", original / intervalSeconds / 1e6),
+          String.format("%.2f", compressed / intervalSeconds / 1e6),
+          String.format("%.2f", (double) original / compressed),
+          String.format("%.2f", (double) originalBytes / compressedBytes));
+    }
+
     synchronized void log(final long pNow, final StatusEntry pStatus) {
       final double previousCount = pStatus.getPreviousCount();
       final double cumulativeCount = pStatus.getAndSetCount();
@@ -342,17 +1486,39 @@ public class GridFS {
           final List<Entry<String, StatusEntry>> entries = new ArrayList<>(_actives.entrySet());
           entries.sort(Entry.comparingByValue());
 
-          for (final Map.Entry<String, StatusEntry> entry : entries) {
-            final StatusEntry status = entry.getValue();
-            totalCount += status.getCount();
-            log(now, status);
+          // Thousands of small uploads in flight would drown out everything else
+          for (int i = 0; i < entries.size(); i++) {
+            final StatusEntry status = entries.get(i).getValue();
+            if (i < _maxLoggedEntries) {
+              totalCount += status.getCount();
+              log(now, status);
+            } else {
+              totalCount += status.getAndSetCount();
+            }
           }
 
           final double cumulativeElapsedSeconds = (now - _createdMillisEpoch) / 1000.0;
           final double cumulativeRatePerSecond = totalCount / cumulativeElapsedSeconds;
-          LOG.info("Cumulative Status: {} kB/s, Elapsed: {} s",
+          final long gcMillis = Metrics.getGcMillis();
+          LOG.info("Cumulative Status: {} kB/s, Elapsed: {} s, Active: {}, GC: {} ms ({}%)",
               String.format("%,.1f", cumulativeRatePerSecond / 1e3),
-              String.format("%.1f", cumulativeElapsedSeconds));
+              String.format("%.1f", cumulativeElapsedSeconds),
+              entries.size(),
+              gcMillis - _previousGcMillis,
+              String.format("%.1f", 100.0 * (gcMillis - _previousGcMillis) / _logIntervalMillis));
+          _previousGcMillis = gcMillis;
+          logCompression();
+
+          final double lastRatePerSecond =
+              (totalCount - _previousTotalCount) / ((double) _logIntervalMillis / 1000.0);
+          _previousTotalCount = totalCount;
+          Metrics.sampleAll();
+          if (_exporter != null) {
+            _exporter.export(now, totalCount, lastRatePerSecond);
+          }
+          for (final IntervalListener listener : _intervalListeners) {
+            listener.onInterval(now, totalCount, lastRatePerSecond);
+          }
         } catch (InterruptedException e) {
           LOG.info("Interrupted. Exiting.");
           return;
@@ -363,20 +1529,25 @@ public class GridFS {
     }
   }
 
+  @FunctionalInterface
+  interface IntervalListener {
+    void onInterval(long pNowMillis, long pTotalBytes, double pLastBytesPerSecond);
+  }
+
   static class StatusEntry implements Comparable<StatusEntry> {
     private final String _uuid;
     private final String _filename;
     private final long _fileSize;
-    private final CountingInputStream _stream;
+    private final LongSupplier _counter;
     private final Date _startDate;
 
     private long _previousCount;
 
-    StatusEntry(final String pUuid, final String pFilename, final long pFileSize, final CountingInputStream pStream) {
+    StatusEntry(final String pUuid, final String pFilename, final long pFileSize, final LongSupplier pCounter) {
       _uuid = pUuid;
       _filename = pFilename;
       _fileSize = pFileSize;
-      _stream = pStream;
+      _counter = pCounter;
       _startDate = new Date();
       _previousCount = 0L;
     }
@@ -400,7 +1571,7 @@ public class GridFS {
     }
 
     public long getCount() {
-      return _stream.getCount();
+      return _counter.getAsLong();
     }
 
     public Date getStartDate() {
@@ -456,31 +1627,39 @@ public class GridFS {
     }
   }
 
+  /**
+   * Charges the limiter for the bytes each read actually returned, after the read.
+   */
   static class RateLimitedStream extends InputStream {
-    private final RateLimiter _limiter;
+    private final ByteRateLimiter _limiter;
     private final InputStream _stream;
 
-    RateLimitedStream(final RateLimiter pLimiter, final InputStream pStream) {
+    RateLimitedStream(final ByteRateLimiter pLimiter, final InputStream pStream) {
       _limiter = pLimiter;
       _stream = pStream;
     }
 
     @Override
     public int read() throws IOException {
-      _limiter.acquire(1);
-      return _stream.read();
+      final int value = _stream.read();
+      if (value >= 0) {
+        _limiter.acquire(1);
+      }
+      return value;
     }
 
     @Override
     public int read(final byte[] b) throws IOException {
-      _limiter.acquire(b.length);
-      return _stream.read(b);
+      return read(b, 0, b.length);
     }
 
     @Override
     public int read(final byte[] b, final int off, final int len) throws IOException {
-      _limiter.acquire(len);
-      return _stream.read(b, off, len);
+      final int count = _stream.read(b, off, len);
+      if (count > 0) {
+        _limiter.acquire(count);
+      }
+      return count;
     }
 
     @Override
@@ -530,6 +1709,15 @@ public class GridFS {
     // StatusPrinter.print(loggerContext);
     StatusPrinter.printInCaseOfErrorsOrWarnings(loggerContext);
 
-    gridfsIngest(args);
+    final String workload = System.getProperty("gridfs.workload", DEFAULT_WORKLOAD);
+    if ("download".equalsIgnoreCase(workload)) {
+      gridfsDownload(args);
+    } else if ("mixed".equalsIgnoreCase(workload)) {
+      gridfsMixed(args);
+    } else if ("verify".equalsIgnoreCase(workload)) {
+      gridfsVerify(args);
+    } else {
+      gridfsIngest(args);
+    }
   }
 }
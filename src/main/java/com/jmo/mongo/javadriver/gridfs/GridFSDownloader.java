@@ -0,0 +1,213 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jmo.mongo.javadriver.gridfs.FileCatalog.StoredFile;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSDownloadStream;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bson.RawBsonDocument;
+
+/**
+ * Reads stored files into a discarding sink, either through the driver's
+ * {@code openDownloadStream} or with parallel range queries on the chunks collection.
+ *
+ * <p>Range reads split a file into runs of {@link #_rangeChunks} chunk numbers and keep up to
+ * {@link #_prefetch} of those queries in flight, consuming them in order as a streaming reader
+ * would.
+ *
+ * <p>Files uploaded with a {@link ChunkCodec} are always read by range queries, since the driver's
+ * stream expects full size chunks, and every chunk is decompressed before it reaches the sink.
+ */
+class GridFSDownloader {
+  static final int DEFAULT_RANGE_CHUNKS = 32;
+  static final int DEFAULT_PREFETCH = 4;
+
+  enum Method {
+    STREAM,
+    RANGED,
+    /** Reassembles files from {@link DedupStore} manifests */
+    DEDUP;
+
+    static Method parse(final String pValue) {
+      return valueOf(pValue.toUpperCase(Locale.ROOT));
+    }
+  }
+
+  private final GridFSBucket _bucket;
+  private final MongoCollection<RawBsonDocument> _chunks;
+  private final Method _method;
+  private final int _rangeChunks;
+  private final int _prefetch;
+  private final ByteRateLimiter _limiter;
+  private final int _bufferSize;
+  private final OutputStream _sink;
+  private final ExecutorService _rangeExecutor;
+  private final DedupStore _dedup;
+
+  GridFSDownloader(
+      final GridFSBucket pBucket,
+      final MongoCollection<RawBsonDocument> pChunks,
+      final Method pMethod,
+      final int pRangeChunks,
+      final int pPrefetch,
+      final ByteRateLimiter pLimiter,
+      final int pBufferSize,
+      final int pThreads,
+      final DedupStore pDedup) {
+    if (pMethod == Method.DEDUP && pDedup == null) {
+      throw new IllegalArgumentException("Dedup reads need a DedupStore");
+    }
+    _bucket = pBucket;
+    _chunks = pChunks;
+    _method = pMethod;
+    _rangeChunks = pRangeChunks;
+    _prefetch = pPrefetch;
+    _limiter = pLimiter;
+    _bufferSize = pBufferSize;
+    _sink = ByteStreams.nullOutputStream();
+    _rangeExecutor = pMethod == Method.RANGED
+        ? Executors.newFixedThreadPool(pThreads * pPrefetch,
+            new ThreadFactoryBuilder().setNameFormat("RangeReader-%d").setDaemon(true).build())
+        : null;
+    _dedup = pDedup;
+  }
+
+  /**
+   * Reads the whole file, adding bytes to {@code pCount} as they arrive.
+   *
+   * @return the number of bytes read
+   */
+  long download(final StoredFile pFile, final AtomicLong pCount) throws IOException {
+    final long length;
+    if (_method == Method.DEDUP) {
+      length = _dedup.read(pFile, _sink, _limiter, pCount);
+    } else if (_method == Method.RANGED) {
+      length = downloadRanges(pFile, pCount);
+    } else if (ChunkCodec.ofMetadata(pFile.getMetadata()) != ChunkCodec.NONE) {
+      length = readRange(pFile, 0, pFile.getChunkCount(), pCount);
+    } else {
+      length = downloadStream(pFile, pCount);
+    }
+    if (length != pFile.getLength()) {
+      throw new IOException(String.format("Read %d bytes of %s but expected %d",
+          length, pFile, pFile.getLength()));
+    }
+    return length;
+  }
+
+  private long downloadStream(final StoredFile pFile, final AtomicLong pCount) throws IOException {
+    final byte[] buffer = new byte[_bufferSize];
+    long length = 0L;
+    try (final GridFSDownloadStream stream = _bucket.openDownloadStream(pFile.getId())) {
+      int count;
+      while ((count = stream.read(buffer)) > 0) {
+        _limiter.acquire(count);
+        _sink.write(buffer, 0, count);
+        pCount.addAndGet(count);
+        length += count;
+      }
+    }
+    return length;
+  }
+
+  private long downloadRanges(final StoredFile pFile, final AtomicLong pCount) throws IOException {
+    final Deque<Future<Long>> window = new ArrayDeque<>();
+    final int chunkCount = pFile.getChunkCount();
+    long length = 0L;
+
+    try {
+      for (int startN = 0; startN < chunkCount; startN += _rangeChunks) {
+        if (window.size() >= _prefetch) {
+          length += waitFor(window.removeFirst());
+        }
+        final int from = startN;
+        final int to = Math.min(chunkCount, startN + _rangeChunks);
+        window.addLast(_rangeExecutor.submit(() -> readRange(pFile, from, to, pCount)));
+      }
+      while (!window.isEmpty()) {
+        length += waitFor(window.removeFirst());
+      }
+    } finally {
+      window.forEach(future -> future.cancel(true));
+    }
+    return length;
+  }
+
+  /**
+   * Reads chunks {@code [pFrom, pTo)} in order, checking none are missing.
+   */
+  long readRange(final StoredFile pFile, final int pFrom, final int pTo, final AtomicLong pCount)
+      throws IOException {
+    final ChunkCodec codec = ChunkCodec.ofMetadata(pFile.getMetadata());
+    long length = 0L;
+    int expectedN = pFrom;
+    try (final MongoCursor<RawBsonDocument> cursor = _chunks
+        .find(Filters.and(
+            Filters.eq("files_id", pFile.getId()),
+            Filters.gte("n", pFrom),
+            Filters.lt("n", pTo)))
+        .sort(Sorts.ascending("n"))
+        .iterator()) {
+      while (cursor.hasNext()) {
+        final RawBsonDocument chunk = cursor.next();
+        final int n = chunk.getNumber("n").intValue();
+        if (n != expectedN) {
+          throw new IOException(String.format("Missing chunk %d of %s, found %d", expectedN, pFile, n));
+        }
+        expectedN++;
+
+        final byte[] stored = chunk.getBinary("data").getData();
+        final byte[] data;
+        if (codec == ChunkCodec.NONE) {
+          data = stored;
+        } else {
+          final long offset = (long) n * pFile.getChunkSize();
+          data = codec.decompress(
+              stored, (int) Math.min(pFile.getChunkSize(), pFile.getLength() - offset));
+          Metrics.recordCompressed(data.length, stored.length);
+        }
+        if (data.length > 0) {
+          _limiter.acquire(data.length);
+        }
+        _sink.write(data);
+        pCount.addAndGet(data.length);
+        length += data.length;
+      }
+    }
+    if (expectedN != pTo) {
+      throw new IOException(String.format("Missing chunk %d of %s", expectedN, pFile));
+    }
+    return length;
+  }
+
+  void shutdown() {
+    if (_rangeExecutor != null) {
+      _rangeExecutor.shutdownNow();
+    }
+  }
+
+  private static long waitFor(final Future<Long> pFuture) throws IOException {
+    try {
+      return pFuture.get();
+    } catch (InterruptedException pE) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting on chunk range", pE);
+    } catch (ExecutionException pE) {
+      throw new IOException("Chunk range read failed", pE.getCause());
+    }
+  }
+}
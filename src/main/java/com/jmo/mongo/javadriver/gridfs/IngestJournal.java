@@ -0,0 +1,221 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local append-only record of ingest progress, so an interrupted run can pick up where it left off.
+ *
+ * <p>Every line is tab separated, starting with its record type:
+ * <pre>
+ * S  fileId  length  chunkSize  source   upload of source started as fileId
+ * A  fileId  n                           chunks 0 to n are acknowledged
+ * D  fileId                              files document written
+ * </pre>
+ * Lines are flushed as they're written, which survives the process dying but not the machine. A
+ * torn last line from a crash is cut off when the journal is read back, so new records start on a
+ * line of their own.
+ *
+ * <p>Only the first pass over the inputs can be resumed, so infinite runs {@link #freeze} the
+ * journal after it rather than growing it, and its in-memory index, for as long as they run.
+ */
+class IngestJournal implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(IngestJournal.class);
+
+  private static final String STARTED = "S";
+  private static final String ACKNOWLEDGED = "A";
+  private static final String DONE = "D";
+
+  private final Map<String, Entry> _bySource = new HashMap<>();
+  private final Map<String, Entry> _byFileId = new HashMap<>();
+  private final BufferedWriter _writer;
+  private boolean _frozen;
+
+  IngestJournal(final Path pFile) throws IOException {
+    if (Files.exists(pFile)) {
+      load(readWholeLines(pFile));
+    }
+    _writer = Files.newBufferedWriter(pFile, StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    if (!_bySource.isEmpty()) {
+      LOG.info("Read journal '{}' with {} file(s), {} complete", pFile, _bySource.size(),
+          _bySource.values().stream().filter(Entry::isDone).count());
+    }
+  }
+
+  /**
+   * @return the latest upload recorded for {@code pSource}, or {@code null} if there is none
+   */
+  synchronized Entry get(final String pSource) {
+    return _bySource.get(pSource);
+  }
+
+  synchronized void started(
+      final String pSource,
+      final String pFileId,
+      final long pLength,
+      final int pChunkSize) {
+    if (_frozen) {
+      return;
+    }
+    apply(STARTED, pFileId, String.valueOf(pLength), String.valueOf(pChunkSize), pSource);
+    write(STARTED, pFileId, String.valueOf(pLength), String.valueOf(pChunkSize), pSource);
+  }
+
+  synchronized void acknowledged(final String pFileId, final int pN) {
+    if (!_byFileId.containsKey(pFileId)) {
+      return;
+    }
+    apply(ACKNOWLEDGED, pFileId, String.valueOf(pN));
+    write(ACKNOWLEDGED, pFileId, String.valueOf(pN));
+  }
+
+  synchronized void completed(final String pFileId) {
+    if (!_byFileId.containsKey(pFileId)) {
+      return;
+    }
+    apply(DONE, pFileId);
+    write(DONE, pFileId);
+  }
+
+  /**
+   * Stops recording uploads started from now on. Uploads already recorded are still tracked until
+   * they complete, and progress of the ones that weren't is ignored.
+   */
+  synchronized void freeze() {
+    if (!_frozen) {
+      _frozen = true;
+      LOG.info("Journal frozen with {} file(s), later uploads won't be resumable", _bySource.size());
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    _writer.close();
+  }
+
+  /**
+   * Reads every complete line of the journal, truncating it after the last one.
+   */
+  private static List<String> readWholeLines(final Path pFile) throws IOException {
+    final byte[] content = Files.readAllBytes(pFile);
+    int end = content.length;
+    while (end > 0 && content[end - 1] != '\n') {
+      end--;
+    }
+    if (end < content.length) {
+      LOG.warn("Dropping torn journal line '{}'",
+          new String(content, end, content.length - end, StandardCharsets.UTF_8));
+      try (final FileChannel channel = FileChannel.open(pFile, StandardOpenOption.WRITE)) {
+        channel.truncate(end);
+      }
+    }
+    return new String(content, 0, end, StandardCharsets.UTF_8).lines()
+        .collect(Collectors.toList());
+  }
+
+  private void load(final List<String> pLines) {
+    for (final String line : pLines) {
+      final String[] fields = line.split("\t", 5);
+      try {
+        apply(fields);
+      } catch (RuntimeException pE) {
+        LOG.warn("Ignoring malformed journal line '{}': {}", line, pE.getMessage());
+      }
+    }
+  }
+
+  private void apply(final String... pFields) {
+    switch (pFields[0]) {
+      case STARTED:
+        final Entry entry = new Entry(pFields[4], pFields[1],
+            Long.parseLong(pFields[2]), Integer.parseInt(pFields[3]));
+        _bySource.put(entry.getSource(), entry);
+        _byFileId.put(entry.getFileId(), entry);
+        break;
+      case ACKNOWLEDGED:
+        final Entry acknowledged = started(pFields[1]);
+        acknowledged._acknowledgedN = Math.max(acknowledged._acknowledgedN, Integer.parseInt(pFields[2]));
+        break;
+      case DONE:
+        started(pFields[1])._done = true;
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown journal record " + pFields[0]);
+    }
+  }
+
+  private Entry started(final String pFileId) {
+    final Entry entry = _byFileId.get(pFileId);
+    if (entry == null) {
+      throw new IllegalArgumentException("No upload started as fileId " + pFileId);
+    }
+    return entry;
+  }
+
+  private void write(final String... pFields) {
+    try {
+      _writer.write(String.join("\t", pFields));
+      _writer.newLine();
+      _writer.flush();
+    } catch (IOException pE) {
+      throw new UncheckedIOException("Failed writing ingest journal", pE);
+    }
+  }
+
+  static class Entry {
+    private final String _source;
+    private final String _fileId;
+    private final long _length;
+    private final int _chunkSize;
+    private int _acknowledgedN = -1;
+    private boolean _done;
+
+    Entry(final String pSource, final String pFileId, final long pLength, final int pChunkSize) {
+      _source = pSource;
+      _fileId = pFileId;
+      _length = pLength;
+      _chunkSize = pChunkSize;
+    }
+
+    String getSource() {
+      return _source;
+    }
+
+    String getFileId() {
+      return _fileId;
+    }
+
+    long getLength() {
+      return _length;
+    }
+
+    int getChunkSize() {
+      return _chunkSize;
+    }
+
+    /**
+     * @return the highest chunk number acknowledged along with every one before it, or -1
+     */
+    int getAcknowledgedN() {
+      return _acknowledgedN;
+    }
+
+    boolean isDone() {
+      return _done;
+    }
+  }
+}
@@ -0,0 +1,306 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jmo.mongo.javadriver.gridfs.FileCatalog.StoredFile;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Variable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks a bucket after ingest: reads every stored file back from its chunks, recomputes the
+ * {@link ChunkChecksums} recorded when it was uploaded and compares them, then looks for chunks
+ * whose {@code files} document doesn't exist.
+ *
+ * <p>Files are split into ranges of {@link #_rangeChunks} chunk numbers that a pool of workers
+ * verifies concurrently, so a single large file is read in parallel as well as many small ones at
+ * once. Each file is also checked for missing chunks, chunks beyond its length and chunks of the
+ * wrong size, whether it has checksums or not.
+ *
+ * <p>Uploads in flight have chunks without a {@code files} document yet, so orphans are only
+ * meaningful on a bucket nothing is writing to.
+ */
+class IngestVerifier {
+  private static final Logger LOG = LoggerFactory.getLogger(IngestVerifier.class);
+
+  static final int DEFAULT_RANGE_CHUNKS = 64;
+  private static final int MAX_LOGGED = 10;
+
+  private final MongoCollection<BsonDocument> _files;
+  private final MongoCollection<RawBsonDocument> _chunks;
+  private final int _rangeChunks;
+  private final int _threads;
+  private final ByteRateLimiter _limiter;
+  private final LongConsumer _onRead;
+
+  private final LongAdder _verifiedFiles = new LongAdder();
+  private final LongAdder _uncheckedFiles = new LongAdder();
+  private final LongAdder _mismatchedFiles = new LongAdder();
+  private final LongAdder _failedFiles = new LongAdder();
+  private final LongAdder _bytes = new LongAdder();
+  private long _orphanedFiles;
+  private long _orphanedChunks;
+
+  /**
+   * @param pOnRead called with the number of bytes of every chunk read
+   */
+  IngestVerifier(
+      final MongoCollection<BsonDocument> pFiles,
+      final MongoCollection<RawBsonDocument> pChunks,
+      final int pRangeChunks,
+      final int pThreads,
+      final ByteRateLimiter pLimiter,
+      final LongConsumer pOnRead) {
+    _files = pFiles;
+    _chunks = pChunks;
+    _rangeChunks = pRangeChunks;
+    _threads = pThreads;
+    _limiter = pLimiter;
+    _onRead = pOnRead;
+  }
+
+  /**
+   * Verifies every file of the bucket, waiting for the last range to finish.
+   */
+  void verifyFiles() throws InterruptedException {
+    final ExecutorService workers = Executors.newFixedThreadPool(_threads,
+        new ThreadFactoryBuilder().setNameFormat("Verifier-%d").setDaemon(true).build());
+    // Enough queued ranges to keep every worker busy without holding the whole bucket in memory
+    final Semaphore queued = new Semaphore(_threads * 2);
+    try {
+      for (final BsonDocument document : _files.find().projection(StoredFile.PROJECTION)) {
+        final FileCheck check = new FileCheck(StoredFile.of(document));
+        for (int range = 0; range < check.getRangeCount(); range++) {
+          final int rangeIndex = range;
+          queued.acquire();
+          workers.submit(() -> {
+            try {
+              verifyRange(check, rangeIndex);
+            } finally {
+              queued.release();
+            }
+          });
+        }
+      }
+      workers.shutdown();
+      while (!workers.awaitTermination(1L, TimeUnit.MINUTES)) {
+        LOG.info("Waiting on {} verified file(s) so far", getCheckedFiles());
+      }
+    } finally {
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+   * Finds the distinct {@code files_id} of the chunks and which of them have no {@code files}
+   * document. Sorting on {@code files_id} ahead of a group without accumulators lets the server
+   * answer from the {@code files_id_1_n} index, skipping over each file's chunks.
+   */
+  void findOrphans() {
+    final List<Bson> pipeline = Arrays.asList(
+        Aggregates.sort(Sorts.ascending("files_id")),
+        Aggregates.group("$files_id"),
+        Aggregates.lookup(_files.getNamespace().getCollectionName(),
+            List.of(new Variable<>("id", "$_id")),
+            List.of(
+                Aggregates.match(Filters.expr(new Document("$eq", Arrays.asList("$_id", "$$id")))),
+                Aggregates.project(Projections.include("_id"))),
+            "file"),
+        Aggregates.match(Filters.size("file", 0)));
+
+    final List<Object> logged = new ArrayList<>();
+    try (final MongoCursor<BsonDocument> cursor =
+        _chunks.aggregate(pipeline, BsonDocument.class).allowDiskUse(true).iterator()) {
+      while (cursor.hasNext()) {
+        final BsonDocument orphan = cursor.next();
+        _orphanedFiles++;
+        _orphanedChunks += _chunks.countDocuments(Filters.eq("files_id", orphan.get("_id")));
+        if (logged.size() < MAX_LOGGED) {
+          logged.add(orphan.get("_id"));
+        }
+      }
+    }
+    if (_orphanedFiles > 0) {
+      LOG.error("Found {} orphaned chunk(s) of {} fileId(s) without a files document, first {}",
+          String.format("%,d", _orphanedChunks), String.format("%,d", _orphanedFiles), logged);
+    } else {
+      LOG.info("Found no orphaned chunks");
+    }
+  }
+
+  long getCheckedFiles() {
+    return _verifiedFiles.sum() + _uncheckedFiles.sum() + _mismatchedFiles.sum() + _failedFiles.sum();
+  }
+
+  /**
+   * @return whether every file checked out and no orphans were found, files without checksums
+   *     included as long as their chunks are all there
+   */
+  boolean isClean() {
+    return _mismatchedFiles.sum() == 0 && _failedFiles.sum() == 0 && _orphanedFiles == 0;
+  }
+
+  void logSummary() {
+    final String summary = String.format(
+        "%,d file(s) verified, %,d without checksums, %,d mismatched, %,d failed, "
+            + "%,d bytes read, %,d orphaned chunk(s)",
+        _verifiedFiles.sum(), _uncheckedFiles.sum(), _mismatchedFiles.sum(), _failedFiles.sum(),
+        _bytes.sum(), _orphanedChunks);
+    if (isClean()) {
+      LOG.info("Verification passed: {}", summary);
+    } else {
+      LOG.error("Verification FAILED: {}", summary);
+    }
+  }
+
+  /**
+   * Reads a range of chunks in order, checking none are missing or the wrong size and recording
+   * their checksums. The last range also picks up any chunk beyond the file's length.
+   */
+  private void verifyRange(final FileCheck pCheck, final int pRange) {
+    final StoredFile file = pCheck._file;
+    final int from = pRange * _rangeChunks;
+    final int to = Math.min(file.getChunkCount(), from + _rangeChunks);
+    final boolean last = pRange == pCheck.getRangeCount() - 1;
+
+    try {
+      final ChunkCodec codec = ChunkCodec.ofMetadata(file.getMetadata());
+      final Bson filter = last
+          ? Filters.and(Filters.eq("files_id", file.getId()), Filters.gte("n", from))
+          : Filters.and(
+              Filters.eq("files_id", file.getId()), Filters.gte("n", from), Filters.lt("n", to));
+      int expectedN = from;
+      try (final MongoCursor<RawBsonDocument> cursor = _chunks.find(filter)
+          .projection(Projections.include("n", "data"))
+          .sort(Sorts.ascending("n"))
+          .iterator()) {
+        while (cursor.hasNext()) {
+          final RawBsonDocument chunk = cursor.next();
+          final int n = chunk.getNumber("n").intValue();
+          if (n >= to) {
+            throw new IOException(String.format("Found chunk %d beyond the last, %d", n, to - 1));
+          }
+          if (n != expectedN) {
+            throw new IOException(String.format("Missing chunk %d, found %d", expectedN, n));
+          }
+          expectedN++;
+
+          final int length =
+              (int) Math.min(file.getChunkSize(), file.getLength() - (long) n * file.getChunkSize());
+          final byte[] stored = chunk.getBinary("data").getData();
+          final byte[] data = codec == ChunkCodec.NONE ? stored : codec.decompress(stored, length);
+          if (data.length != length) {
+            throw new IOException(String.format(
+                "Chunk %d has %d bytes, expected %d", n, data.length, length));
+          }
+          if (length > 0) {
+            _limiter.acquire(length);
+          }
+          pCheck._actual.record(n, ByteBuffer.wrap(data));
+          _bytes.add(length);
+          _onRead.accept(length);
+        }
+      }
+      if (expectedN != to) {
+        throw new IOException(String.format("Missing chunk %d", expectedN));
+      }
+    } catch (Throwable pE) {
+      pCheck._failure.compareAndSet(null, pE);
+    }
+
+    if (pCheck._remainingRanges.decrementAndGet() == 0) {
+      complete(pCheck);
+    }
+  }
+
+  private void complete(final FileCheck pCheck) {
+    final StoredFile file = pCheck._file;
+    final Throwable failure = pCheck._failure.get();
+    if (failure != null) {
+      _failedFiles.increment();
+      LOG.error("Failed to verify {}: {}", file, failure.getMessage(), failure);
+      return;
+    }
+
+    final BsonDocument stored = ChunkChecksums.ofMetadata(file.getMetadata());
+    if (stored == null) {
+      _uncheckedFiles.increment();
+      LOG.debug("Read {}, it has no checksums", file);
+      return;
+    }
+
+    final ChunkChecksums actual = pCheck._actual;
+    final List<Integer> mismatched = new ArrayList<>();
+    if (stored.isBinary("chunks")) {
+      final ByteBuffer chunks = ByteBuffer.wrap(stored.getBinary("chunks").getData());
+      if (chunks.remaining() != actual.getChunkCount() * 4) {
+        _mismatchedFiles.increment();
+        LOG.error("Checksums of {} list {} chunk(s) but it has {}",
+            file, chunks.remaining() / 4, actual.getChunkCount());
+        return;
+      }
+      for (int n = 0; n < actual.getChunkCount(); n++) {
+        if (chunks.getInt(n * 4) != actual.get(n)) {
+          mismatched.add(n);
+        }
+      }
+    }
+    final long fileChecksum = actual.getFileChecksum();
+    if (fileChecksum != stored.getNumber("file").longValue() || !mismatched.isEmpty()) {
+      _mismatchedFiles.increment();
+      LOG.error("Checksum mismatch in {}: file {} stored {}, {} chunk(s) differ{}",
+          file,
+          Long.toHexString(fileChecksum),
+          Long.toHexString(stored.getNumber("file").longValue()),
+          stored.isBinary("chunks") ? String.valueOf(mismatched.size()) : "unknown",
+          mismatched.isEmpty()
+              ? ""
+              : ", first " + mismatched.subList(0, Math.min(MAX_LOGGED, mismatched.size())));
+      return;
+    }
+    _verifiedFiles.increment();
+    LOG.debug("Verified {}, checksum {}", file, Long.toHexString(fileChecksum));
+  }
+
+  private class FileCheck {
+    private final StoredFile _file;
+    private final ChunkChecksums _actual;
+    private final AtomicInteger _remainingRanges;
+    private final AtomicReference<Throwable> _failure = new AtomicReference<>();
+
+    FileCheck(final StoredFile pFile) {
+      _file = pFile;
+      _actual = new ChunkChecksums(pFile.getLength(), pFile.getChunkSize());
+      _remainingRanges = new AtomicInteger(getRangeCount());
+    }
+
+    /**
+     * @return ranges to read, at least one so an empty file is still checked for stray chunks
+     */
+    int getRangeCount() {
+      return Math.max(1, (_file.getChunkCount() + _rangeChunks - 1) / _rangeChunks);
+    }
+  }
+}
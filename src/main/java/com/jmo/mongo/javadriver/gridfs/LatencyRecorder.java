@@ -0,0 +1,72 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Records latencies into an HDR histogram without allocating on the recording path, and keeps
+ * both the latest interval and the cumulative distribution for reporting.
+ */
+class LatencyRecorder {
+  static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+  private static final int SIGNIFICANT_DIGITS = 3;
+
+  private final String _name;
+  private final Recorder _recorder;
+  private final Histogram _cumulative;
+  private Histogram _interval;
+  private Histogram _lastInterval;
+
+  LatencyRecorder(final String pName) {
+    _name = pName;
+    _recorder = new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+    _cumulative = new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+    _lastInterval = new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+  }
+
+  String getName() {
+    return _name;
+  }
+
+  /**
+   * Safe to call concurrently from any number of threads.
+   */
+  void recordNanos(final long pNanos) {
+    final long micros = TimeUnit.NANOSECONDS.toMicros(pNanos);
+    _recorder.recordValue(Math.max(0L, Math.min(HIGHEST_TRACKABLE_MICROS, micros)));
+  }
+
+  /**
+   * Swaps out the values recorded since the previous call and folds them into the cumulative
+   * histogram. The returned histogram is reused by the next call.
+   */
+  synchronized Histogram sampleInterval() {
+    _interval = _recorder.getIntervalHistogram(_interval);
+    _cumulative.add(_interval);
+    _lastInterval.reset();
+    _lastInterval.add(_interval);
+    return _interval;
+  }
+
+  /**
+   * @return a copy of what the most recent {@link #sampleInterval()} returned, for readers that
+   *     don't drive the sampling themselves
+   */
+  synchronized Histogram getLastInterval() {
+    return _lastInterval.copy();
+  }
+
+  synchronized Histogram getCumulative() {
+    return _cumulative.copy();
+  }
+
+  static String summarize(final Histogram pHistogram) {
+    return String.format("count: %,d, p50: %.2f ms, p99: %.2f ms, p99.9: %.2f ms, max: %.2f ms",
+        pHistogram.getTotalCount(),
+        pHistogram.getValueAtPercentile(50.0) / 1e3,
+        pHistogram.getValueAtPercentile(99.0) / 1e3,
+        pHistogram.getValueAtPercentile(99.9) / 1e3,
+        pHistogram.getMaxValue() / 1e3);
+  }
+}
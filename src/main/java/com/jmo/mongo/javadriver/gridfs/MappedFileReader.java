@@ -0,0 +1,69 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory maps a byte range of a file and hands out chunk sized slices of the mapping without
+ * copying them onto the heap.
+ *
+ * <p>The range is mapped in windows of whole chunks, since a single mapping is limited to 2GB.
+ * Mappings are released by the garbage collector once their slices are no longer referenced.
+ */
+class MappedFileReader implements ChunkReader {
+  static final long DEFAULT_WINDOW_BYTES = 1L << 30;
+
+  private final FileChannel _channel;
+  private final int _chunkSizeBytes;
+  private final long _windowBytes;
+  private final long _end;
+
+  private long _windowStart;
+  private MappedByteBuffer _window;
+
+  MappedFileReader(final Path pPath, final int pChunkSizeBytes) throws IOException {
+    this(pPath, pChunkSizeBytes, 0L, Long.MAX_VALUE);
+  }
+
+  /**
+   * @param pStart first byte offset to read, normally a multiple of the chunk size
+   * @param pEnd offset one past the last byte to read, clamped to the file length
+   */
+  MappedFileReader(final Path pPath, final int pChunkSizeBytes, final long pStart, final long pEnd)
+      throws IOException {
+    _channel = FileChannel.open(pPath, StandardOpenOption.READ);
+    _chunkSizeBytes = pChunkSizeBytes;
+    _windowBytes = Math.max(1L, DEFAULT_WINDOW_BYTES / pChunkSizeBytes) * pChunkSizeBytes;
+    _end = Math.min(pEnd, _channel.size());
+    _windowStart = pStart;
+  }
+
+  @Override
+  public ByteBuffer next() throws IOException {
+    if (_window == null || !_window.hasRemaining()) {
+      if (_window != null) {
+        _windowStart += _window.capacity();
+      }
+      if (_windowStart >= _end) {
+        return null;
+      }
+      _window = _channel.map(MapMode.READ_ONLY, _windowStart, Math.min(_windowBytes, _end - _windowStart));
+    }
+
+    final ByteBuffer chunk = _window.slice();
+    chunk.limit(Math.min(_chunkSizeBytes, chunk.remaining()));
+    _window.position(_window.position() + chunk.remaining());
+    return chunk;
+  }
+
+  @Override
+  public void close() throws IOException {
+    _window = null;
+    _channel.close();
+  }
+}
@@ -0,0 +1,47 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies rate limiting and progress counting to every chunk handed out by another reader, the
+ * chunk level counterpart of {@link GridFS.RateLimitedStream} and {@code CountingInputStream}.
+ */
+class MeteredChunkReader implements ChunkReader {
+  private final ByteRateLimiter _limiter;
+  private final ChunkReader _reader;
+  private final AtomicLong _count;
+
+  MeteredChunkReader(final ByteRateLimiter pLimiter, final ChunkReader pReader) {
+    this(pLimiter, pReader, new AtomicLong(0L));
+  }
+
+  /**
+   * @param pCount counter to add read bytes to, which may be shared by several readers
+   */
+  MeteredChunkReader(final ByteRateLimiter pLimiter, final ChunkReader pReader, final AtomicLong pCount) {
+    _limiter = pLimiter;
+    _reader = pReader;
+    _count = pCount;
+  }
+
+  @Override
+  public ByteBuffer next() throws IOException {
+    final ByteBuffer chunk = _reader.next();
+    if (chunk != null && chunk.hasRemaining()) {
+      _limiter.acquire(chunk.remaining());
+      _count.addAndGet(chunk.remaining());
+    }
+    return chunk;
+  }
+
+  long getCount() {
+    return _count.get();
+  }
+
+  @Override
+  public void close() throws IOException {
+    _reader.close();
+  }
+}
@@ -0,0 +1,101 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.bson.BsonValue;
+
+/**
+ * Process wide latency recorders. {@link GridFS.StatusThread} samples every registered recorder
+ * once per status interval; nothing else should call {@link LatencyRecorder#sampleInterval()} on
+ * them while a run is in progress.
+ */
+class Metrics {
+  private static final List<LatencyRecorder> RECORDERS = new CopyOnWriteArrayList<>();
+
+  /** Each {@code insert} command against a chunks collection, one per batch of chunks */
+  static final LatencyRecorder CHUNK_INSERT = register(new LatencyRecorder("chunk_insert"));
+  /** Whole file uploads, from opening the source to writing the files document */
+  static final LatencyRecorder FILE_COMPLETION = register(new LatencyRecorder("file_completion"));
+  /** Time spent blocked on the byte rate limiter */
+  static final LatencyRecorder LIMITER_WAIT = register(new LatencyRecorder("limiter_wait"));
+
+  /** Uncompressed bytes of compressed chunks, uploaded or downloaded */
+  static final LongAdder ORIGINAL_BYTES = new LongAdder();
+  /** Bytes of compressed chunk data actually sent or received */
+  static final LongAdder COMPRESSED_BYTES = new LongAdder();
+
+  static void recordCompressed(final long pOriginalBytes, final long pCompressedBytes) {
+    ORIGINAL_BYTES.add(pOriginalBytes);
+    COMPRESSED_BYTES.add(pCompressedBytes);
+  }
+
+  static LatencyRecorder register(final LatencyRecorder pRecorder) {
+    RECORDERS.add(pRecorder);
+    return pRecorder;
+  }
+
+  static List<LatencyRecorder> getRecorders() {
+    return RECORDERS;
+  }
+
+  static void sampleAll() {
+    RECORDERS.forEach(LatencyRecorder::sampleInterval);
+  }
+
+  /**
+   * @return milliseconds spent in garbage collection by every collector since the JVM started
+   */
+  static long getGcMillis() {
+    long millis = 0L;
+    for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      millis += Math.max(0L, collector.getCollectionTime());
+    }
+    return millis;
+  }
+
+  static void recordLimiterWait(final double pWaitedSeconds) {
+    LIMITER_WAIT.recordNanos((long) (pWaitedSeconds * 1e9));
+  }
+
+  /**
+   * Times chunk inserts through driver command monitoring, so both the driver's upload and the
+   * batched engine are measured the same way.
+   */
+  static class ChunkInsertListener implements CommandListener {
+    private final Set<Integer> _chunkInserts = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void commandStarted(final CommandStartedEvent pEvent) {
+      if (!"insert".equals(pEvent.getCommandName())) {
+        return;
+      }
+      final BsonValue collection = pEvent.getCommand().get("insert");
+      if (collection != null && collection.isString()
+          && collection.asString().getValue().endsWith(".chunks")) {
+        _chunkInserts.add(pEvent.getRequestId());
+      }
+    }
+
+    @Override
+    public void commandSucceeded(final CommandSucceededEvent pEvent) {
+      if (_chunkInserts.remove(pEvent.getRequestId())) {
+        CHUNK_INSERT.recordNanos(pEvent.getElapsedTime(TimeUnit.NANOSECONDS));
+      }
+    }
+
+    @Override
+    public void commandFailed(final CommandFailedEvent pEvent) {
+      _chunkInserts.remove(pEvent.getRequestId());
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Locale;
+import org.HdrHistogram.Histogram;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the {@link Metrics} recorders out once per status interval, as CSV rows or JSON lines to
+ * a local file, and optionally serves their cumulative values in Prometheus text format on a
+ * loopback HTTP port.
+ */
+class MetricsExporter implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(MetricsExporter.class);
+
+  static final String DEFAULT_FORMAT = "csv";
+  private static final String CSV_HEADER =
+      "timestamp,metric,count,mean_ms,p50_ms,p90_ms,p99_ms,p999_ms,max_ms";
+  private static final JsonWriterSettings JSON_SETTINGS =
+      JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+
+  enum Format {
+    CSV,
+    JSON
+  }
+
+  private final BufferedWriter _writer;
+  private final Format _format;
+  private final HttpServer _server;
+  private volatile String _prometheus = "";
+
+  MetricsExporter(final Path pFile, final Format pFormat, final int pHttpPort) throws IOException {
+    _format = pFormat;
+    if (pFile != null) {
+      final boolean existing = Files.exists(pFile) && Files.size(pFile) > 0;
+      _writer = Files.newBufferedWriter(pFile, StandardCharsets.UTF_8,
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      if (pFormat == Format.CSV && !existing) {
+        _writer.write(CSV_HEADER);
+        _writer.newLine();
+      }
+      LOG.info("Exporting metrics as {} to '{}'", pFormat, pFile);
+    } else {
+      _writer = null;
+    }
+
+    if (pHttpPort > 0) {
+      _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), pHttpPort), 0);
+      _server.createContext("/metrics", exchange -> {
+        final byte[] body = _prometheus.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+        exchange.sendResponseHeaders(200, body.length);
+        try (final OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      });
+      _server.start();
+      LOG.info("Serving Prometheus metrics on http://{}:{}/metrics",
+          InetAddress.getLoopbackAddress().getHostAddress(), pHttpPort);
+    } else {
+      _server = null;
+    }
+  }
+
+  /**
+   * @return an exporter configured from {@code gridfs.metrics.*}, or {@code null} if neither a
+   *     file nor an HTTP port is configured
+   */
+  static MetricsExporter fromSystemProperties() {
+    final String file = System.getProperty("gridfs.metrics.file");
+    final int httpPort = Integer.getInteger("gridfs.metrics.http.port", 0);
+    if (file == null && httpPort <= 0) {
+      return null;
+    }
+    final Format format = Format.valueOf(
+        System.getProperty("gridfs.metrics.format", DEFAULT_FORMAT).toUpperCase(Locale.ROOT));
+    try {
+      return new MetricsExporter(file == null ? null : Paths.get(file), format, httpPort);
+    } catch (IOException pE) {
+      throw new IllegalStateException("Unable to start metrics export", pE);
+    }
+  }
+
+  /**
+   * Exports the latest interval of every recorder. Expects {@link Metrics#sampleAll()} to have just
+   * been called.
+   */
+  void export(final long pNowMillis, final long pTotalBytes, final double pBytesPerSecond) {
+    final String timestamp = Instant.ofEpochMilli(pNowMillis).toString();
+    try {
+      if (_writer != null) {
+        if (_format == Format.CSV) {
+          for (final LatencyRecorder recorder : Metrics.getRecorders()) {
+            _writer.write(csvRow(timestamp, recorder.getName(), recorder.getLastInterval()));
+            _writer.newLine();
+          }
+        } else {
+          final Document histograms = new Document();
+          for (final LatencyRecorder recorder : Metrics.getRecorders()) {
+            histograms.append(recorder.getName(), toDocument(recorder.getLastInterval()));
+          }
+          _writer.write(new Document()
+              .append("timestamp", timestamp)
+              .append("bytesTotal", pTotalBytes)
+              .append("bytesPerSecond", pBytesPerSecond)
+              .append("histograms", histograms)
+              .toJson(JSON_SETTINGS));
+          _writer.newLine();
+        }
+        _writer.flush();
+      }
+    } catch (IOException pE) {
+      LOG.warn("Failed writing metrics", pE);
+    }
+
+    if (_server != null) {
+      _prometheus = renderPrometheus(pTotalBytes);
+    }
+  }
+
+  static String renderPrometheus(final long pTotalBytes) {
+    final StringBuilder out = new StringBuilder();
+    out.append("# TYPE gridfs_bytes_total counter\n")
+        .append("gridfs_bytes_total ").append(pTotalBytes).append('\n');
+
+    for (final LatencyRecorder recorder : Metrics.getRecorders()) {
+      final Histogram histogram = recorder.getCumulative();
+      final String name = "gridfs_" + recorder.getName() + "_seconds";
+      out.append("# TYPE ").append(name).append(" summary\n");
+      for (final double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+        out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+            .append(histogram.getValueAtPercentile(quantile * 100.0) / 1e6).append('\n');
+      }
+      out.append(name).append("_sum ")
+          .append(histogram.getMean() * histogram.getTotalCount() / 1e6).append('\n');
+      out.append(name).append("_count ").append(histogram.getTotalCount()).append('\n');
+    }
+    return out.toString();
+  }
+
+  static String csvRow(final String pTimestamp, final String pName, final Histogram pHistogram) {
+    return String.format(Locale.ROOT, "%s,%s,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f",
+        pTimestamp, pName, pHistogram.getTotalCount(),
+        pHistogram.getMean() / 1e3,
+        pHistogram.getValueAtPercentile(50.0) / 1e3,
+        pHistogram.getValueAtPercentile(90.0) / 1e3,
+        pHistogram.getValueAtPercentile(99.0) / 1e3,
+        pHistogram.getValueAtPercentile(99.9) / 1e3,
+        pHistogram.getMaxValue() / 1e3);
+  }
+
+  private static Document toDocument(final Histogram pHistogram) {
+    return new Document()
+        .append("count", pHistogram.getTotalCount())
+        .append("meanMs", pHistogram.getMean() / 1e3)
+        .append("p50Ms", pHistogram.getValueAtPercentile(50.0) / 1e3)
+        .append("p90Ms", pHistogram.getValueAtPercentile(90.0) / 1e3)
+        .append("p99Ms", pHistogram.getValueAtPercentile(99.0) / 1e3)
+        .append("p999Ms", pHistogram.getValueAtPercentile(99.9) / 1e3)
+        .append("maxMs", pHistogram.getMaxValue() / 1e3);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (_server != null) {
+      _server.stop(0);
+    }
+    if (_writer != null) {
+      _writer.close();
+    }
+  }
+}
@@ -0,0 +1,178 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.google.common.io.CountingInputStream;
+import com.jmo.mongo.javadriver.gridfs.FileCatalog.StoredFile;
+import com.jmo.mongo.javadriver.gridfs.GridFS.RateLimitedStream;
+import com.jmo.mongo.javadriver.gridfs.OpenLoopScheduler.Operation;
+import com.jmo.mongo.javadriver.gridfs.OpenLoopScheduler.OperationHandler;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.model.GridFSUploadOptions;
+import com.mongodb.client.model.Filters;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+
+/**
+ * Upload, download, delete and metadata lookup operations against one bucket, for the
+ * {@link OpenLoopScheduler}. Files uploaded during the run join the set of files the other
+ * operations pick from.
+ */
+class MixedWorkload {
+  private final GridFSBucket _bucket;
+  private final BatchedChunkWriter _writer;
+  private final GridFSDownloader _downloader;
+  private final MongoCollection<BsonDocument> _files;
+  private final List<UploadSource> _sources;
+  private final FileIdStrategy _idStrategy;
+  private final ByteRateLimiter _limiter;
+  private final int _chunkSizeBytes;
+  private final ChunkBufferPool _readPool;
+  private final GridFS.StatusThread _statusThread;
+  private final LiveFiles _live;
+
+  MixedWorkload(
+      final GridFSBucket pBucket,
+      final BatchedChunkWriter pWriter,
+      final GridFSDownloader pDownloader,
+      final MongoCollection<BsonDocument> pFiles,
+      final List<UploadSource> pSources,
+      final ByteRateLimiter pLimiter,
+      final int pChunkSizeBytes,
+      final ChunkBufferPool pReadPool,
+      final GridFS.StatusThread pStatusThread,
+      final FileCatalog pCatalog,
+      final FileIdStrategy pIdStrategy) {
+    _bucket = pBucket;
+    _writer = pWriter;
+    _downloader = pDownloader;
+    _files = pFiles;
+    _sources = pSources;
+    _idStrategy = pIdStrategy;
+    _limiter = pLimiter;
+    _chunkSizeBytes = pChunkSizeBytes;
+    _readPool = pReadPool;
+    _statusThread = pStatusThread;
+    _live = new LiveFiles(pCatalog.getFiles());
+  }
+
+  Map<Operation, OperationHandler> getHandlers() {
+    final Map<Operation, OperationHandler> handlers = new EnumMap<>(Operation.class);
+    handlers.put(Operation.UPLOAD, this::upload);
+    handlers.put(Operation.DOWNLOAD, this::download);
+    handlers.put(Operation.DELETE, this::delete);
+    handlers.put(Operation.LOOKUP, this::lookup);
+    return handlers;
+  }
+
+  int getLiveFileCount() {
+    return _live.size();
+  }
+
+  long upload() throws IOException {
+    if (_sources.isEmpty()) {
+      return 0L;
+    }
+    final UploadSource file = _sources.get(ThreadLocalRandom.current().nextInt(_sources.size()));
+    final BsonValue fileId = _idStrategy.next();
+    final Document metadata = GridFS.getMetadata(file);
+
+    // Downloads need what was actually stored, compressed files only read back by their codec
+    final StoredFile stored;
+    if (_writer != null) {
+      try (final MeteredChunkReader reader =
+          new MeteredChunkReader(_limiter, file.openChunkReader(_chunkSizeBytes, _readPool))) {
+        stored = StoredFile.of(toBson(_writer.upload(fileId, file.getName(), reader, metadata)));
+      }
+    } else {
+      try (final CountingInputStream stream =
+          new CountingInputStream(new RateLimitedStream(_limiter, file.openStream()))) {
+        _bucket.uploadFromStream(fileId, file.getName(), stream,
+            new GridFSUploadOptions().chunkSizeBytes(_chunkSizeBytes).metadata(metadata));
+        stored = new StoredFile(fileId, file.getName(), stream.getCount(), _chunkSizeBytes,
+            toBson(metadata));
+      }
+    }
+
+    _live.add(stored);
+    _statusThread.addCount(stored.getLength());
+    return stored.getLength();
+  }
+
+  private static BsonDocument toBson(final Document pDocument) {
+    return pDocument.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+  }
+
+  long download() throws IOException {
+    final StoredFile file = _live.pick();
+    if (file == null) {
+      return 0L;
+    }
+    final long length = _downloader.download(file, new AtomicLong(0L));
+    _statusThread.addCount(length);
+    return length;
+  }
+
+  long delete() {
+    final StoredFile file = _live.take();
+    if (file == null) {
+      return 0L;
+    }
+    _bucket.delete(file.getId());
+    return 0L;
+  }
+
+  long lookup() {
+    final StoredFile file = _live.pick();
+    if (file == null) {
+      return 0L;
+    }
+    _files.find(Filters.eq("_id", file.getId())).first();
+    return 0L;
+  }
+
+  /**
+   * Files available to operate on, supporting uniform random picks and removals.
+   */
+  static class LiveFiles {
+    private final List<StoredFile> _files;
+
+    LiveFiles(final List<StoredFile> pInitial) {
+      _files = new ArrayList<>(pInitial);
+    }
+
+    synchronized int size() {
+      return _files.size();
+    }
+
+    synchronized void add(final StoredFile pFile) {
+      _files.add(pFile);
+    }
+
+    synchronized StoredFile pick() {
+      return _files.isEmpty() ? null : _files.get(ThreadLocalRandom.current().nextInt(_files.size()));
+    }
+
+    /**
+     * Removes and returns a random file, swapping the last file into its slot.
+     */
+    synchronized StoredFile take() {
+      if (_files.isEmpty()) {
+        return null;
+      }
+      final int index = ThreadLocalRandom.current().nextInt(_files.size());
+      final StoredFile file = _files.get(index);
+      _files.set(index, _files.get(_files.size() - 1));
+      _files.remove(_files.size() - 1);
+      return file;
+    }
+  }
+}
@@ -0,0 +1,234 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Issues operations at a fixed target rate regardless of how quickly earlier operations complete.
+ *
+ * <p>Every operation has an intended start time on the schedule {@code start + i / rate}. Latency
+ * is measured from that intended start, so when the cluster slows down and operations queue up
+ * behind busy workers, the queueing time shows up in the latency instead of silently lowering the
+ * offered load (coordinated omission). Service time, measured from when a worker actually began
+ * the operation, is recorded separately for comparison.
+ */
+class OpenLoopScheduler {
+  private static final Logger LOG = LoggerFactory.getLogger(OpenLoopScheduler.class);
+
+  enum Operation {
+    UPLOAD,
+    DOWNLOAD,
+    DELETE,
+    LOOKUP
+  }
+
+  @FunctionalInterface
+  interface OperationHandler {
+    /**
+     * @return the number of payload bytes transferred
+     */
+    long execute() throws Exception;
+  }
+
+  private final double _opsPerSecond;
+  private final Map<Operation, OperationHandler> _handlers;
+  private final Operation[] _operations;
+  private final double[] _cumulativeWeights;
+  private final ThreadPoolExecutor _workers;
+  private final Map<Operation, OperationStats> _stats;
+
+  OpenLoopScheduler(
+      final double pOpsPerSecond,
+      final Map<Operation, Double> pRatios,
+      final Map<Operation, OperationHandler> pHandlers,
+      final int pThreads) {
+    _opsPerSecond = pOpsPerSecond;
+    _handlers = new EnumMap<>(pHandlers);
+    _stats = new EnumMap<>(Operation.class);
+
+    final Map<Operation, Double> ratios = new EnumMap<>(Operation.class);
+    pRatios.forEach((operation, ratio) -> {
+      if (ratio > 0.0) {
+        ratios.put(operation, ratio);
+      }
+    });
+    if (ratios.isEmpty()) {
+      throw new IllegalArgumentException("At least one operation ratio must be positive: " + pRatios);
+    }
+
+    _operations = ratios.keySet().toArray(new Operation[0]);
+    _cumulativeWeights = new double[_operations.length];
+    double total = 0.0;
+    for (int i = 0; i < _operations.length; i++) {
+      total += ratios.get(_operations[i]);
+      _cumulativeWeights[i] = total;
+      _stats.put(_operations[i], new OperationStats(_operations[i]));
+    }
+
+    // Unbounded so the schedule never blocks on busy workers; the backlog is part of the latency
+    _workers = new ThreadPoolExecutor(pThreads, pThreads, 0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>());
+  }
+
+  Map<Operation, OperationStats> getStats() {
+    return _stats;
+  }
+
+  int getBacklog() {
+    return _workers.getQueue().size();
+  }
+
+  /**
+   * Issues operations on schedule for {@code pDurationNanos}, then waits for the backlog to drain.
+   */
+  void run(final long pDurationNanos) throws InterruptedException {
+    final double periodNanos = 1e9 / _opsPerSecond;
+    final long start = System.nanoTime();
+    LOG.info("Starting open loop schedule of {} ops/s over {}", _opsPerSecond, _stats.keySet());
+
+    try {
+      for (long i = 0; !Thread.currentThread().isInterrupted(); i++) {
+        final long offset = (long) (i * periodNanos);
+        if (offset >= pDurationNanos) {
+          break;
+        }
+
+        final long intendedStart = start + offset;
+        long wait;
+        while ((wait = intendedStart - System.nanoTime()) > 0) {
+          LockSupport.parkNanos(wait);
+          if (Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+        }
+
+        final Operation operation = nextOperation();
+        _workers.execute(() -> execute(operation, intendedStart));
+      }
+    } finally {
+      LOG.info("Schedule complete, draining backlog of {} operation(s)", getBacklog());
+      _workers.shutdown();
+      _workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Logs the latest interval of every operation, which must already have been sampled, usually by
+   * {@link Metrics#sampleAll()}.
+   */
+  void logInterval(final double pIntervalSeconds) {
+    for (final OperationStats stats : _stats.values()) {
+      final long completed = stats.sampleCompleted();
+      LOG.info("Open loop {}: {} ops/s, {} error(s), latency {}, service p99: {} ms, backlog: {}",
+          stats.getOperation(),
+          String.format("%.1f", completed / pIntervalSeconds),
+          stats.getErrors(),
+          LatencyRecorder.summarize(stats.getLatency().getLastInterval()),
+          String.format("%.2f", stats.getService().getLastInterval().getValueAtPercentile(99.0) / 1e3),
+          getBacklog());
+    }
+  }
+
+  void logSummary() {
+    for (final OperationStats stats : _stats.values()) {
+      stats.getLatency().sampleInterval();
+      stats.getService().sampleInterval();
+      LOG.info("Open loop {} total: {} error(s), {} bytes, latency {}, service {}",
+          stats.getOperation(),
+          stats.getErrors(),
+          String.format("%,d", stats.getBytes()),
+          LatencyRecorder.summarize(stats.getLatency().getCumulative()),
+          LatencyRecorder.summarize(stats.getService().getCumulative()));
+    }
+  }
+
+  private Operation nextOperation() {
+    final double value = ThreadLocalRandom.current().nextDouble(_cumulativeWeights[_cumulativeWeights.length - 1]);
+    for (int i = 0; i < _cumulativeWeights.length; i++) {
+      if (value < _cumulativeWeights[i]) {
+        return _operations[i];
+      }
+    }
+    return _operations[_operations.length - 1];
+  }
+
+  private void execute(final Operation pOperation, final long pIntendedStart) {
+    final OperationStats stats = _stats.get(pOperation);
+    final long actualStart = System.nanoTime();
+    try {
+      stats.addBytes(_handlers.get(pOperation).execute());
+    } catch (Throwable pE) {
+      stats.addError();
+      LOG.debug("{} failed", pOperation, pE);
+    } finally {
+      final long end = System.nanoTime();
+      stats.getLatency().recordNanos(end - pIntendedStart);
+      stats.getService().recordNanos(end - actualStart);
+      stats.addCompleted();
+    }
+  }
+
+  static class OperationStats {
+    private final Operation _operation;
+    private final LatencyRecorder _latency;
+    private final LatencyRecorder _service;
+    private final AtomicLong _completed = new AtomicLong(0L);
+    private final AtomicLong _errors = new AtomicLong(0L);
+    private final AtomicLong _bytes = new AtomicLong(0L);
+    private long _previousCompleted;
+
+    OperationStats(final Operation pOperation) {
+      _operation = pOperation;
+      _latency = new LatencyRecorder(pOperation.name().toLowerCase(Locale.ROOT) + "_latency");
+      _service = new LatencyRecorder(pOperation.name().toLowerCase(Locale.ROOT) + "_service");
+    }
+
+    Operation getOperation() {
+      return _operation;
+    }
+
+    LatencyRecorder getLatency() {
+      return _latency;
+    }
+
+    LatencyRecorder getService() {
+      return _service;
+    }
+
+    long getErrors() {
+      return _errors.get();
+    }
+
+    long getBytes() {
+      return _bytes.get();
+    }
+
+    void addCompleted() {
+      _completed.incrementAndGet();
+    }
+
+    void addError() {
+      _errors.incrementAndGet();
+    }
+
+    void addBytes(final long pBytes) {
+      _bytes.addAndGet(pBytes);
+    }
+
+    synchronized long sampleCompleted() {
+      final long completed = _completed.get();
+      final long delta = completed - _previousCompleted;
+      _previousCompleted = completed;
+      return delta;
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single large file split into ranges of chunk numbers that separate workers upload
+ * concurrently through a {@link BatchedChunkWriter}.
+ *
+ * <p>Each range writes its chunks at their final {@code n}. Whichever range finishes last writes
+ * the {@code files} document, or removes every chunk if any range failed, then runs the completion
+ * callback. Progress from all ranges is summed into one counter.
+ *
+ * <p>With {@link ChunkChecksums}, each range records the checksums of its own chunks and the last
+ * one adds them to the metadata before writing the {@code files} document.
+ */
+class RangedUpload {
+  private static final Logger LOG = LoggerFactory.getLogger(RangedUpload.class);
+
+  static final long DEFAULT_SPLIT_THRESHOLD_BYTES = Long.MAX_VALUE;
+  static final int DEFAULT_RANGE_CHUNKS = 256;
+
+  private final ChunkWriter _writer;
+  private final ChunkBufferPool _readPool;
+  private final ByteRateLimiter _limiter;
+  private final UploadSource _source;
+  private final BsonValue _fileId;
+  private final Document _metadata;
+  private final ChunkChecksums _checksums;
+  private final int _rangeChunks;
+  private final int _rangeCount;
+  private final Consumer<RangedUpload> _onComplete;
+
+  private final ChunkDocumentEncoder _encoder;
+  private final AtomicInteger _remainingRanges;
+  private final AtomicLong _count;
+  private final AtomicLong _written;
+  private final AtomicReference<Throwable> _failure;
+
+  /**
+   * @param pReadPool pool for the chunk buffers ranges are read into, or {@code null}
+   * @param pChecksums checksums to record, or {@code null} to skip them
+   */
+  RangedUpload(
+      final ChunkWriter pWriter,
+      final ChunkBufferPool pReadPool,
+      final ByteRateLimiter pLimiter,
+      final UploadSource pSource,
+      final BsonValue pFileId,
+      final Document pMetadata,
+      final ChunkChecksums pChecksums,
+      final int pRangeChunks,
+      final Consumer<RangedUpload> pOnComplete) {
+    _writer = pWriter;
+    _readPool = pReadPool;
+    _limiter = pLimiter;
+    _source = pSource;
+    _fileId = pFileId;
+    _metadata = pMetadata;
+    _checksums = pChecksums;
+    _rangeChunks = pRangeChunks;
+    _onComplete = pOnComplete;
+
+    final long rangeBytes = (long) pRangeChunks * pWriter.getChunkSizeBytes();
+    _rangeCount = (int) Math.max(1L, (pSource.length() + rangeBytes - 1) / rangeBytes);
+
+    _encoder = pWriter.newEncoder(pFileId);
+    _remainingRanges = new AtomicInteger(_rangeCount);
+    _count = new AtomicLong(0L);
+    _written = new AtomicLong(0L);
+    _failure = new AtomicReference<>();
+  }
+
+  int getRangeCount() {
+    return _rangeCount;
+  }
+
+  /**
+   * @return bytes read so far across every range
+   */
+  long getCount() {
+    return _count.get();
+  }
+
+  /**
+   * @return the failure of the first range that failed, if any
+   */
+  Throwable getFailure() {
+    return _failure.get();
+  }
+
+  void uploadRange(final int pRange) {
+    final int startN = pRange * _rangeChunks;
+    final long start = (long) startN * _writer.getChunkSizeBytes();
+    final long end = Math.min(_source.length(), start + (long) _rangeChunks * _writer.getChunkSizeBytes());
+
+    try {
+      if (_failure.get() == null) {
+        final ChunkReader source = _source.openChunkReader(_writer.getChunkSizeBytes(), _readPool, start, end);
+        try (final MeteredChunkReader reader = new MeteredChunkReader(_limiter,
+            _checksums == null ? source : new ChecksummingChunkReader(source, _checksums, startN), _count)) {
+          _written.addAndGet(_writer.writeChunks(_encoder, startN, reader));
+        }
+      }
+    } catch (Throwable pE) {
+      LOG.error("Failed range {}/{} of fileId {}", pRange + 1, _rangeCount, _fileId, pE);
+      _failure.compareAndSet(null, pE);
+    }
+
+    if (_remainingRanges.decrementAndGet() == 0) {
+      complete();
+    }
+  }
+
+  private void complete() {
+    try {
+      if (_failure.get() == null && _written.get() != _source.length()) {
+        _failure.compareAndSet(null, new IllegalStateException(String.format(
+            "Wrote %d bytes of fileId %s but expected %d", _written.get(), _fileId, _source.length())));
+      }
+
+      if (_failure.get() == null) {
+        if (_checksums != null) {
+          _checksums.appendTo(_metadata, _fileId);
+        }
+        _writer.writeFilesDocument(_encoder, _source.getName(), _written.get(), _metadata);
+      } else {
+        _writer.abort(_fileId);
+      }
+    } catch (Throwable pE) {
+      _failure.compareAndSet(null, pE);
+      _writer.abort(_fileId);
+    } finally {
+      _onComplete.accept(this);
+    }
+  }
+
+  /**
+   * The part of {@link BatchedChunkWriter} ranges are written through.
+   */
+  interface ChunkWriter {
+
+    int getChunkSizeBytes();
+
+    ChunkDocumentEncoder newEncoder(BsonValue pFileId);
+
+    /**
+     * @return the number of bytes read, before compression
+     */
+    long writeChunks(ChunkDocumentEncoder pEncoder, int pStartN, ChunkReader pReader) throws IOException;
+
+    void writeFilesDocument(ChunkDocumentEncoder pEncoder, String pFilename, long pLength, Document pMetadata);
+
+    void abort(BsonValue pFileId);
+  }
+}
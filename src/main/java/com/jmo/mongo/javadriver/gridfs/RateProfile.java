@@ -0,0 +1,98 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import java.util.Locale;
+
+/**
+ * Target byte rate as a function of time since the start of the run.
+ */
+@FunctionalInterface
+interface RateProfile {
+  double DEFAULT_RAMP_START_FRACTION = 0.0;
+  long DEFAULT_RAMP_SECONDS = 300L;
+  int DEFAULT_STEP_COUNT = 5;
+  long DEFAULT_STEP_SECONDS = 60L;
+  double DEFAULT_SINE_AMPLITUDE = 0.5;
+  long DEFAULT_SINE_PERIOD_SECONDS = 86400L;
+  double DEFAULT_BURST_MULTIPLIER = 4.0;
+  long DEFAULT_BURST_SECONDS = 10L;
+  long DEFAULT_BURST_EVERY_SECONDS = 60L;
+
+  /**
+   * @return bytes per second allowed at {@code pElapsedSeconds} into the run
+   */
+  double rateAt(double pElapsedSeconds);
+
+  static RateProfile flat(final double pRate) {
+    return elapsed -> pRate;
+  }
+
+  /**
+   * Rises linearly from {@code pStartRate} to {@code pRate} over {@code pSeconds}, then holds.
+   */
+  static RateProfile ramp(final double pStartRate, final double pRate, final double pSeconds) {
+    return elapsed -> elapsed >= pSeconds
+        ? pRate
+        : pStartRate + (pRate - pStartRate) * elapsed / pSeconds;
+  }
+
+  /**
+   * Climbs to {@code pRate} in {@code pSteps} equal steps, each held for {@code pStepSeconds}.
+   */
+  static RateProfile step(final double pRate, final int pSteps, final double pStepSeconds) {
+    return elapsed -> pRate * Math.min(pSteps, (long) (elapsed / pStepSeconds) + 1) / pSteps;
+  }
+
+  /**
+   * Oscillates between {@code pRate * (1 - pAmplitude)} and {@code pRate}, starting at the midpoint.
+   */
+  static RateProfile sine(final double pRate, final double pAmplitude, final double pPeriodSeconds) {
+    return elapsed -> pRate * (1.0 - pAmplitude / 2.0
+        + pAmplitude / 2.0 * Math.sin(2.0 * Math.PI * elapsed / pPeriodSeconds));
+  }
+
+  /**
+   * Holds {@code pRate}, except for the first {@code pBurstSeconds} of every
+   * {@code pEverySeconds}, which run at {@code pRate * pMultiplier}.
+   */
+  static RateProfile burst(
+      final double pRate,
+      final double pMultiplier,
+      final double pBurstSeconds,
+      final double pEverySeconds) {
+    return elapsed -> elapsed % pEverySeconds < pBurstSeconds ? pRate * pMultiplier : pRate;
+  }
+
+  /**
+   * Builds the profile named by {@code gridfs.rate.profile}, shaped around {@code pRate}.
+   */
+  static RateProfile fromSystemProperties(final double pRate) {
+    final String profile = System.getProperty("gridfs.rate.profile", "flat").toLowerCase(Locale.ROOT);
+    switch (profile) {
+      case "flat":
+        return flat(pRate);
+      case "ramp":
+        return ramp(
+            pRate * Double.parseDouble(System.getProperty(
+                "gridfs.rate.ramp.startFraction", String.valueOf(DEFAULT_RAMP_START_FRACTION))),
+            pRate,
+            Long.getLong("gridfs.rate.ramp.seconds", DEFAULT_RAMP_SECONDS));
+      case "step":
+        return step(pRate,
+            Integer.getInteger("gridfs.rate.step.count", DEFAULT_STEP_COUNT),
+            Long.getLong("gridfs.rate.step.seconds", DEFAULT_STEP_SECONDS));
+      case "sine":
+        return sine(pRate,
+            Double.parseDouble(System.getProperty(
+                "gridfs.rate.sine.amplitude", String.valueOf(DEFAULT_SINE_AMPLITUDE))),
+            Long.getLong("gridfs.rate.sine.periodSeconds", DEFAULT_SINE_PERIOD_SECONDS));
+      case "burst":
+        return burst(pRate,
+            Double.parseDouble(System.getProperty(
+                "gridfs.rate.burst.multiplier", String.valueOf(DEFAULT_BURST_MULTIPLIER))),
+            Long.getLong("gridfs.rate.burst.seconds", DEFAULT_BURST_SECONDS),
+            Long.getLong("gridfs.rate.burst.everySeconds", DEFAULT_BURST_EVERY_SECONDS));
+      default:
+        throw new IllegalArgumentException("Unknown rate profile '" + profile + "'");
+    }
+  }
+}
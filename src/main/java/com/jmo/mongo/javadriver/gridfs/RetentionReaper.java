@@ -0,0 +1,293 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a bucket within a total file length or file count by deleting its oldest files in the
+ * background, so long runs hold steady on disk and put delete load alongside the writes.
+ *
+ * <p>The bucket's totals are read once at start and then kept locally: uploads report what they
+ * saved, and the reaper subtracts what it deletes. Whenever either limit is exceeded it takes the
+ * oldest files by {@code uploadDate} a batch at a time, deletes their files documents first so
+ * they stop being visible, then their chunks with one {@code files_id $in} delete per thread.
+ * Deletes can be paced to a number of files per second. The totals drop as soon as the files
+ * documents are gone; if a chunk delete fails after that, those chunks are left behind.
+ */
+class RetentionReaper {
+  private static final Logger LOG = LoggerFactory.getLogger(RetentionReaper.class);
+
+  static final long UNLIMITED = 0L;
+  static final int DEFAULT_BATCH_FILES = 100;
+  static final int DEFAULT_THREADS = 4;
+  // How often an idle reaper rechecks the limits
+  private static final long IDLE_MILLIS = 100L;
+
+  private final MongoCollection<BsonDocument> _files;
+  private final MongoCollection<BsonDocument> _chunks;
+  private final long _maxBytes;
+  private final long _maxFiles;
+  private final double _filesPerSecond;
+  private final int _batchFiles;
+  private final int _threads;
+  private final ExecutorService _deleteExecutor;
+  private final Thread _thread;
+
+  private final Object _lock = new Object();
+  private long _storedBytes;
+  private long _storedFiles;
+  private volatile boolean _running = true;
+
+  private final LongAdder _deletedFiles = new LongAdder();
+  private final LongAdder _deletedBytes = new LongAdder();
+  private final LongAdder _deletedChunks = new LongAdder();
+
+  /**
+   * @param pMaxBytes total file length to keep, or {@link #UNLIMITED}
+   * @param pMaxFiles number of files to keep, or {@link #UNLIMITED}
+   * @param pFilesPerSecond files deleted per second at most, or {@code 0} for no pacing
+   */
+  RetentionReaper(
+      final MongoDatabase pDatabase,
+      final String pBucket,
+      final long pMaxBytes,
+      final long pMaxFiles,
+      final double pFilesPerSecond,
+      final int pBatchFiles,
+      final int pThreads) {
+    _files = pDatabase.getCollection(pBucket + ".files", BsonDocument.class);
+    _chunks = pDatabase.getCollection(pBucket + ".chunks", BsonDocument.class);
+    _maxBytes = pMaxBytes == UNLIMITED ? Long.MAX_VALUE : pMaxBytes;
+    _maxFiles = pMaxFiles == UNLIMITED ? Long.MAX_VALUE : pMaxFiles;
+    _filesPerSecond = pFilesPerSecond;
+    _batchFiles = pBatchFiles;
+    _threads = pThreads;
+    _deleteExecutor = Executors.newFixedThreadPool(pThreads,
+        new ThreadFactoryBuilder().setNameFormat("ChunkReaper-%d").setDaemon(true).build());
+    _thread = new Thread(this::run, "RetentionReaper");
+    _thread.setDaemon(true);
+  }
+
+  /**
+   * @return a reaper configured by {@code gridfs.retention.*}, or {@code null} if neither limit
+   * is set
+   */
+  static RetentionReaper fromSystemProperties(final MongoDatabase pDatabase, final String pBucket) {
+    final long maxBytes = Long.getLong("gridfs.retention.maxBytes", UNLIMITED);
+    final long maxFiles = Long.getLong("gridfs.retention.maxFiles", UNLIMITED);
+    if (maxBytes == UNLIMITED && maxFiles == UNLIMITED) {
+      return null;
+    }
+    return new RetentionReaper(pDatabase, pBucket, maxBytes, maxFiles,
+        Double.parseDouble(System.getProperty("gridfs.retention.filesPerSecond", "0")),
+        Integer.getInteger("gridfs.retention.batchFiles", DEFAULT_BATCH_FILES),
+        Integer.getInteger("gridfs.retention.threads", DEFAULT_THREADS));
+  }
+
+  /**
+   * Reads the bucket's current totals and starts deleting in the background.
+   */
+  void start() {
+    _files.createIndex(new Document("uploadDate", 1));
+    final Document totals = _files.aggregate(Collections.singletonList(Aggregates.group(null,
+        Accumulators.sum("files", 1), Accumulators.sum("bytes", "$length"))), Document.class).first();
+    synchronized (_lock) {
+      _storedFiles = totals == null ? 0L : totals.get("files", Number.class).longValue();
+      _storedBytes = totals == null ? 0L : totals.get("bytes", Number.class).longValue();
+    }
+    LOG.info("Retaining at most {} bytes and {} file(s), starting from {} bytes in {} file(s)",
+        _maxBytes == Long.MAX_VALUE ? "unlimited" : String.format("%,d", _maxBytes),
+        _maxFiles == Long.MAX_VALUE ? "unlimited" : String.format("%,d", _maxFiles),
+        String.format("%,d", _storedBytes), String.format("%,d", _storedFiles));
+    _thread.start();
+  }
+
+  /**
+   * Counts a file the upload has just finished saving.
+   */
+  void recordSaved(final long pLength) {
+    synchronized (_lock) {
+      _storedBytes += pLength;
+      _storedFiles++;
+      _lock.notifyAll();
+    }
+  }
+
+  void logInterval() {
+    final long storedBytes;
+    final long storedFiles;
+    synchronized (_lock) {
+      storedBytes = _storedBytes;
+      storedFiles = _storedFiles;
+    }
+    LOG.info("Retention: {} bytes in {} file(s) stored, {} bytes in {} file(s) and {} chunk(s) deleted",
+        String.format("%,d", storedBytes), String.format("%,d", storedFiles),
+        String.format("%,d", _deletedBytes.sum()), String.format("%,d", _deletedFiles.sum()),
+        String.format("%,d", _deletedChunks.sum()));
+  }
+
+  void shutdown() {
+    _running = false;
+    _thread.interrupt();
+    _deleteExecutor.shutdownNow();
+  }
+
+  private void run() {
+    long nextBatchNanos = System.nanoTime();
+    while (_running) {
+      try {
+        final int excessFiles = awaitExcess();
+        final long now = System.nanoTime();
+        if (nextBatchNanos - now > 0) {
+          TimeUnit.NANOSECONDS.sleep(nextBatchNanos - now);
+        }
+
+        final int deleted = deleteOldest(Math.min(_batchFiles, excessFiles));
+        nextBatchNanos = nextBatchNanos(now, nextBatchNanos, deleted, _filesPerSecond);
+      } catch (InterruptedException pE) {
+        return;
+      } catch (RuntimeException pE) {
+        if (!_running) {
+          return;
+        }
+        LOG.warn("Retention delete failed, retrying", pE);
+        sleepQuietly();
+      } catch (ExecutionException pE) {
+        LOG.warn("Retention chunk delete failed, retrying", pE.getCause());
+        sleepQuietly();
+      }
+    }
+  }
+
+  /**
+   * Waits for the bucket to go over either limit.
+   *
+   * @return about how many files need deleting to be back within both, at least 1
+   */
+  private int awaitExcess() throws InterruptedException {
+    synchronized (_lock) {
+      int excess;
+      while ((excess = excessFiles(_storedBytes, _storedFiles, _maxBytes, _maxFiles)) == 0) {
+        _lock.wait(IDLE_MILLIS);
+      }
+      return excess;
+    }
+  }
+
+  /**
+   * @return about how many files need deleting for the totals to be within both limits, assuming
+   *     the oldest files are of average size, at least 1 if either is exceeded and 0 otherwise
+   */
+  static int excessFiles(
+      final long pStoredBytes,
+      final long pStoredFiles,
+      final long pMaxBytes,
+      final long pMaxFiles) {
+    if (pStoredBytes <= pMaxBytes && pStoredFiles <= pMaxFiles) {
+      return 0;
+    }
+    long excess = Math.max(0L, pStoredFiles - pMaxFiles);
+    if (pStoredBytes > pMaxBytes && pStoredFiles > 0) {
+      final double averageBytes = (double) pStoredBytes / pStoredFiles;
+      excess = Math.max(excess, (long) Math.ceil((pStoredBytes - pMaxBytes) / averageBytes));
+    }
+    return (int) Math.min(Integer.MAX_VALUE, Math.max(1L, excess));
+  }
+
+  /**
+   * @return when the batch after one that deleted {@code pDeleted} files may start, spacing
+   *     batches to average {@code pFilesPerSecond} without saving up time spent idle
+   */
+  static long nextBatchNanos(
+      final long pNowNanos,
+      final long pNextBatchNanos,
+      final int pDeleted,
+      final double pFilesPerSecond) {
+    if (pFilesPerSecond <= 0) {
+      return pNextBatchNanos;
+    }
+    return Math.max(pNowNanos, pNextBatchNanos) + (long) (pDeleted * 1e9 / pFilesPerSecond);
+  }
+
+  /**
+   * Deletes up to {@code pCount} of the oldest files and their chunks.
+   *
+   * @return the number of files deleted
+   */
+  private int deleteOldest(final int pCount) throws InterruptedException, ExecutionException {
+    final List<BsonValue> ids = new ArrayList<>(pCount);
+    long bytes = 0L;
+    try (final MongoCursor<BsonDocument> cursor = _files.find()
+        .sort(Sorts.ascending("uploadDate"))
+        .projection(Projections.include("_id", "length"))
+        .limit(pCount)
+        .iterator()) {
+      while (cursor.hasNext()) {
+        final BsonDocument file = cursor.next();
+        ids.add(file.get("_id"));
+        bytes += file.getNumber("length").longValue();
+      }
+    }
+    if (ids.isEmpty()) {
+      // Files we counted were deleted by someone else, start over from what's actually there
+      LOG.warn("Retention expected files to delete but found none, resetting its totals");
+      synchronized (_lock) {
+        _storedBytes = 0L;
+        _storedFiles = 0L;
+      }
+      return 0;
+    }
+
+    _files.deleteMany(Filters.in("_id", ids));
+    // The files are gone whether or not their chunks follow, a failed chunk delete mustn't make
+    // the next batch take more live files
+    synchronized (_lock) {
+      _storedBytes -= bytes;
+      _storedFiles -= ids.size();
+    }
+    _deletedFiles.add(ids.size());
+    _deletedBytes.add(bytes);
+
+    final List<Future<Long>> deletes = new ArrayList<>(_threads);
+    for (final List<BsonValue> slice
+        : Lists.partition(ids, (ids.size() + _threads - 1) / _threads)) {
+      deletes.add(_deleteExecutor.submit(
+          () -> _chunks.deleteMany(Filters.in("files_id", slice)).getDeletedCount()));
+    }
+    for (final Future<Long> delete : deletes) {
+      _deletedChunks.add(delete.get());
+    }
+    return ids.size();
+  }
+
+  private void sleepQuietly() {
+    try {
+      Thread.sleep(IDLE_MILLIS * 10);
+    } catch (InterruptedException pE) {
+      Thread.currentThread().interrupt();
+      _running = false;
+    }
+  }
+}
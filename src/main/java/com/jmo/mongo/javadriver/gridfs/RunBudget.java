@@ -0,0 +1,105 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.google.common.math.LongMath;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides when an ingest run stops handing out new uploads: after a wall clock duration, once a
+ * number of bytes or files have been started, or when {@link #stop(String)} is called, e.g. on
+ * shutdown. Uploads already started are left to finish.
+ *
+ * <p>Only whole files are started, and the byte budget is charged each file's full length when
+ * it's started, so a run stops at the first file that reaches the budget.
+ */
+class RunBudget {
+  static final long UNLIMITED = 0L;
+  static final long DEFAULT_DRAIN_SECONDS = 60L;
+
+  private final long _deadlineNanos;
+  private final long _maxBytes;
+  private final long _maxFiles;
+  private final LongSupplier _nanoTime;
+  private long _bytes;
+  private long _files;
+  private volatile String _stopReason;
+
+  /**
+   * @param pDurationNanos how long to keep starting uploads, or {@link #UNLIMITED}
+   * @param pMaxBytes total length of files to start, or {@link #UNLIMITED}
+   * @param pMaxFiles number of files to start, or {@link #UNLIMITED}
+   */
+  RunBudget(
+      final long pDurationNanos,
+      final long pMaxBytes,
+      final long pMaxFiles,
+      final LongSupplier pNanoTime) {
+    _nanoTime = pNanoTime;
+    _deadlineNanos = pDurationNanos == UNLIMITED ? Long.MAX_VALUE
+        : pNanoTime.getAsLong() + pDurationNanos;
+    _maxBytes = pMaxBytes == UNLIMITED ? Long.MAX_VALUE : pMaxBytes;
+    _maxFiles = pMaxFiles == UNLIMITED ? Long.MAX_VALUE : pMaxFiles;
+  }
+
+  static RunBudget fromSystemProperties() {
+    return new RunBudget(
+        TimeUnit.SECONDS.toNanos(Long.getLong("gridfs.run.durationSeconds", UNLIMITED)),
+        Long.getLong("gridfs.run.maxBytes", UNLIMITED),
+        Long.getLong("gridfs.run.maxFiles", UNLIMITED),
+        System::nanoTime);
+  }
+
+  /**
+   * Charges a file about to be started against the budget.
+   *
+   * @return {@code false} if the run is over and the file shouldn't be started
+   */
+  synchronized boolean tryStart(final long pLength) {
+    if (_stopReason != null) {
+      return false;
+    }
+    if (_deadlineNanos != Long.MAX_VALUE && _nanoTime.getAsLong() - _deadlineNanos >= 0) {
+      stop("duration reached");
+      return false;
+    }
+    if (_files >= _maxFiles) {
+      stop(String.format("%,d file(s) started", _files));
+      return false;
+    }
+    if (_bytes >= _maxBytes) {
+      stop(String.format("%,d byte(s) started", _bytes));
+      return false;
+    }
+    _files++;
+    _bytes = LongMath.saturatedAdd(_bytes, pLength);
+    return true;
+  }
+
+  /**
+   * Ends the run, keeping the first reason given.
+   */
+  synchronized void stop(final String pReason) {
+    if (_stopReason == null) {
+      _stopReason = pReason;
+    }
+  }
+
+  boolean isStopped() {
+    return _stopReason != null;
+  }
+
+  /**
+   * @return why the run stopped, or {@code null} if it hasn't
+   */
+  String getStopReason() {
+    return _stopReason;
+  }
+
+  synchronized long getStartedFiles() {
+    return _files;
+  }
+
+  synchronized long getStartedBytes() {
+    return _bytes;
+  }
+}
@@ -0,0 +1,194 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoDatabase;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits a sharded collection at a set of boundaries and spreads the resulting chunks across the
+ * cluster's shards round-robin, so writes are spread evenly from the start instead of waiting on
+ * the balancer.
+ *
+ * <p>Commands run concurrently. Ones refused because another split or migration holds the
+ * collection or a shard are retried with jittered exponential backoff. Chunks are moved with
+ * {@code moveRange} where the server has it (6.0+), otherwise with {@code moveChunk}.
+ */
+class ShardPresplitter {
+  private static final Logger LOG = LoggerFactory.getLogger(ShardPresplitter.class);
+
+  static final int DEFAULT_THREADS = 8;
+  private static final long INITIAL_BACKOFF_MILLIS = 50L;
+  private static final long MAX_BACKOFF_MILLIS = 5000L;
+  private static final Set<String> RETRYABLE_ERRORS = ImmutableSet.of(
+      "LockBusy", "LockTimeout", "ConflictingOperationInProgress", "StaleConfig", "StaleShardVersion");
+  private static final int COMMAND_NOT_FOUND = 59;
+
+  /**
+   * Runs an admin command, throwing {@link MongoCommandException} if the server refuses it.
+   */
+  interface CommandRunner {
+    Document run(Document pCommand);
+  }
+
+  private final CommandRunner _admin;
+  private final ExecutorService _executor;
+  private volatile boolean _moveRangeSupported = true;
+
+  ShardPresplitter(final MongoDatabase pAdmin, final int pThreads) {
+    this(pAdmin::runCommand, pThreads);
+  }
+
+  ShardPresplitter(final CommandRunner pAdmin, final int pThreads) {
+    _admin = pAdmin;
+    _executor = Executors.newFixedThreadPool(pThreads,
+        new ThreadFactoryBuilder().setNameFormat("Presplit-%d").setDaemon(true).build());
+  }
+
+  /**
+   * Splits {@code pNamespace} at every one of {@code pMiddles}.
+   */
+  void split(final String pNamespace, final List<Document> pMiddles) {
+    final long start = System.nanoTime();
+    runAll(pMiddles, middle -> runWithBackoff(new Document()
+        .append("split", pNamespace)
+        .append("middle", middle), pNamespace + " split at " + middle));
+    LOG.info("Split '{}' at {} boundaries in {} ms", pNamespace, pMiddles.size(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  /**
+   * Moves the chunk starting at each of {@code pMins} to the shards in turn.
+   */
+  void distribute(final String pNamespace, final List<Document> pMins) {
+    final List<String> shards = listShards();
+    if (shards.size() < 2) {
+      LOG.info("Not distributing '{}', the cluster has {} shard(s)", pNamespace, shards.size());
+      return;
+    }
+
+    final long start = System.nanoTime();
+    final List<Document> moves = assignShards(pMins, shards);
+    runAll(moves, move -> moveChunk(pNamespace, move.get("min", Document.class), move.getString("shard")));
+    LOG.info("Distributed {} chunks of '{}' across {} shards in {} ms", pMins.size(), pNamespace,
+        shards.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  List<String> listShards() {
+    final List<String> shards = new ArrayList<>();
+    for (final Document shard : _admin.run(new Document("listShards", 1))
+        .getList("shards", Document.class)) {
+      shards.add(shard.getString("_id"));
+    }
+    return shards;
+  }
+
+  void shutdown() {
+    _executor.shutdownNow();
+  }
+
+  /**
+   * @return a {@code {min, shard}} move for each chunk, handing the chunks to the shards in turn
+   */
+  static List<Document> assignShards(final List<Document> pMins, final List<String> pShards) {
+    final List<Document> moves = new ArrayList<>(pMins.size());
+    for (int i = 0; i < pMins.size(); i++) {
+      moves.add(new Document("min", pMins.get(i)).append("shard", pShards.get(i % pShards.size())));
+    }
+    return moves;
+  }
+
+  /**
+   * @return the most to wait before retry {@code pAttempt}, counting from 0, doubling from
+   *     {@link #INITIAL_BACKOFF_MILLIS} up to {@link #MAX_BACKOFF_MILLIS}
+   */
+  static long backoffMillis(final int pAttempt) {
+    return Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(pAttempt, 20));
+  }
+
+  /**
+   * @return whether the command was refused because another split or migration got in its way
+   */
+  static boolean isRetryable(final MongoCommandException pE) {
+    return RETRYABLE_ERRORS.contains(pE.getErrorCodeName());
+  }
+
+  private void moveChunk(final String pNamespace, final Document pMin, final String pShard) {
+    if (_moveRangeSupported) {
+      try {
+        runWithBackoff(new Document()
+            .append("moveRange", pNamespace)
+            .append("min", pMin)
+            .append("toShard", pShard), pNamespace + " move " + pMin + " to " + pShard);
+        return;
+      } catch (MongoCommandException pE) {
+        if (pE.getErrorCode() != COMMAND_NOT_FOUND) {
+          throw pE;
+        }
+        LOG.info("Server has no moveRange, using moveChunk");
+        _moveRangeSupported = false;
+      }
+    }
+    runWithBackoff(new Document()
+        .append("moveChunk", pNamespace)
+        .append("find", pMin)
+        .append("to", pShard), pNamespace + " move " + pMin + " to " + pShard);
+  }
+
+  private Document runWithBackoff(final Document pCommand, final String pDescription) {
+    for (int attempt = 0; ; attempt++) {
+      final long backoffMillis = backoffMillis(attempt);
+      try {
+        final Document response = _admin.run(pCommand);
+        LOG.debug("{} response: {}", pDescription, response);
+        return response;
+      } catch (MongoCommandException pE) {
+        if (!isRetryable(pE)) {
+          throw pE;
+        }
+        LOG.debug("{} got {}, retrying in up to {} ms", pDescription, pE.getErrorCodeName(), backoffMillis);
+      }
+
+      try {
+        Thread.sleep(ThreadLocalRandom.current().nextLong(backoffMillis / 2, backoffMillis + 1));
+      } catch (InterruptedException pE) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted during " + pDescription, pE);
+      }
+    }
+  }
+
+  private <T> void runAll(final List<T> pItems, final Consumer<T> pCommand) {
+    final List<Future<?>> futures = new ArrayList<>(pItems.size());
+    for (final T item : pItems) {
+      futures.add(_executor.submit(() -> pCommand.accept(item)));
+    }
+    try {
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException pE) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(pE);
+    } catch (ExecutionException pE) {
+      futures.forEach(future -> future.cancel(true));
+      if (pE.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) pE.getCause();
+      }
+      throw new IllegalStateException(pE.getCause());
+    }
+  }
+}
@@ -0,0 +1,352 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertManyOptions;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Uploads files below a size threshold many at a time: the chunk documents of a whole batch of
+ * files go out in one unordered {@code insertMany}, followed by their {@code files} documents in
+ * another, so a file costs a share of two round trips instead of at least two of its own.
+ *
+ * <p>Progress is counted per batch rather than with a status entry per file, and logged as
+ * aggregate counts every interval. A file whose chunks or {@code files} document fail to insert
+ * has whatever was stored of it removed, without affecting the rest of its batch.
+ */
+class SmallFileBatcher {
+  private static final Logger LOG = LoggerFactory.getLogger(SmallFileBatcher.class);
+
+  static final long DEFAULT_THRESHOLD_BYTES = 0L;
+  static final int DEFAULT_BATCH_FILES = 1000;
+
+  private final MongoCollection<Document> _files;
+  private final MongoCollection<RawBsonDocument> _chunks;
+  private final int _chunkSizeBytes;
+  private final int _batchBytes;
+  private final int _batchFiles;
+  private final ByteRateLimiter _limiter;
+  private final ChunkBufferPool _readPool;
+  private final boolean _checksums;
+  private final LongAdder _savedFiles = new LongAdder();
+  private final LongAdder _savedBytes = new LongAdder();
+  private final LongAdder _failedFiles = new LongAdder();
+  private final LongAdder _batches = new LongAdder();
+
+  private List<SmallFile> _gathering = new ArrayList<>();
+  private long _gatheringBytes;
+  private long _previousSavedFiles;
+
+  /**
+   * @param pBatchBytes how many file bytes to gather before writing a batch, the driver splits
+   *     the inserts into as many messages as they need
+   * @param pBatchFiles how many files to gather before writing a batch
+   * @param pReadPool pool for the chunk buffer files are read into, or {@code null}
+   * @param pChecksums whether to add {@link ChunkChecksums} to every file's metadata
+   */
+  SmallFileBatcher(
+      final MongoDatabase pDatabase,
+      final String pBucket,
+      final int pChunkSizeBytes,
+      final int pBatchBytes,
+      final int pBatchFiles,
+      final ByteRateLimiter pLimiter,
+      final ChunkBufferPool pReadPool,
+      final boolean pChecksums) {
+    this(pDatabase.getCollection(pBucket + ".files"),
+        pDatabase.getCollection(pBucket + ".chunks", RawBsonDocument.class),
+        pChunkSizeBytes, pBatchBytes, pBatchFiles, pLimiter, pReadPool, pChecksums);
+  }
+
+  SmallFileBatcher(
+      final MongoCollection<Document> pFiles,
+      final MongoCollection<RawBsonDocument> pChunks,
+      final int pChunkSizeBytes,
+      final int pBatchBytes,
+      final int pBatchFiles,
+      final ByteRateLimiter pLimiter,
+      final ChunkBufferPool pReadPool,
+      final boolean pChecksums) {
+    _files = pFiles;
+    _chunks = pChunks;
+    _chunkSizeBytes = pChunkSizeBytes;
+    _batchBytes = pBatchBytes;
+    _batchFiles = pBatchFiles;
+    _limiter = pLimiter;
+    _readPool = pReadPool;
+    _checksums = pChecksums;
+  }
+
+  void ensureIndexes() {
+    BatchedChunkWriter.ensureIndexes(_files, _chunks);
+  }
+
+  /**
+   * Gathers a file into the current batch. Not thread safe, files are expected to be added by
+   * the single thread feeding uploads.
+   *
+   * @return the batch, ready for {@link #write}, once it holds enough files or bytes, otherwise
+   *     {@code null}
+   */
+  List<SmallFile> add(final SmallFile pFile) {
+    _gathering.add(pFile);
+    _gatheringBytes += pFile.getSource().length();
+    if (_gathering.size() < _batchFiles && _gatheringBytes < _batchBytes) {
+      return null;
+    }
+    return drain();
+  }
+
+  /**
+   * @return whatever has been gathered so far, or {@code null} if nothing has
+   */
+  List<SmallFile> drain() {
+    if (_gathering.isEmpty()) {
+      return null;
+    }
+    final List<SmallFile> batch = _gathering;
+    _gathering = new ArrayList<>();
+    _gatheringBytes = 0L;
+    return batch;
+  }
+
+  /**
+   * Reads every file of a batch through the rate limiter and inserts them, telling
+   * {@code pListener} about each file's outcome.
+   */
+  void write(final List<SmallFile> pBatch, final Listener pListener) {
+    final long start = System.currentTimeMillis();
+    final List<SmallFile> read = new ArrayList<>(pBatch.size());
+    final List<Long> lengths = new ArrayList<>(pBatch.size());
+    final List<RawBsonDocument> chunks = new ArrayList<>();
+    // Index into read of the file each chunk belongs to
+    final List<Integer> owners = new ArrayList<>();
+
+    for (final SmallFile file : pBatch) {
+      final ChunkDocumentEncoder encoder = new ChunkDocumentEncoder(file.getId());
+      final List<RawBsonDocument> fileChunks = new ArrayList<>();
+      long length = 0L;
+      try (final MeteredChunkReader reader = new MeteredChunkReader(_limiter, open(file))) {
+        int n = 0;
+        ByteBuffer chunk;
+        while ((chunk = reader.next()) != null) {
+          length += chunk.remaining();
+          fileChunks.add(encoder.encode(n++, chunk));
+        }
+      } catch (IOException | RuntimeException pE) {
+        failed(file, pE, pListener);
+        continue;
+      }
+      for (int i = 0; i < fileChunks.size(); i++) {
+        owners.add(read.size());
+      }
+      chunks.addAll(fileChunks);
+      read.add(file);
+      lengths.add(length);
+    }
+
+    final Set<Integer> failed = new HashSet<>();
+    if (!chunks.isEmpty()) {
+      try {
+        _chunks.insertMany(chunks, new InsertManyOptions().ordered(false));
+      } catch (MongoBulkWriteException pE) {
+        if (pE.getWriteErrors().isEmpty()) {
+          abort(read, pE, pListener);
+          return;
+        }
+        failed.addAll(failedFiles(pE.getWriteErrors(), owners));
+        LOG.warn("{} chunk insert(s) of a {} file batch failed, first: {}",
+            pE.getWriteErrors().size(), read.size(), pE.getWriteErrors().get(0).getMessage());
+      } catch (RuntimeException pE) {
+        abort(read, pE, pListener);
+        return;
+      }
+    }
+
+    final List<Integer> committing = new ArrayList<>(read.size());
+    final List<Document> filesDocuments = new ArrayList<>(read.size());
+    for (int i = 0; i < read.size(); i++) {
+      if (failed.contains(i)) {
+        continue;
+      }
+      final SmallFile file = read.get(i);
+      committing.add(i);
+      filesDocuments.add(new Document()
+          .append("_id", file.getId())
+          .append("filename", file.getSource().getName())
+          .append("length", lengths.get(i))
+          .append("chunkSize", _chunkSizeBytes)
+          .append("uploadDate", new Date())
+          .append("metadata", file.getMetadata()));
+    }
+    if (!filesDocuments.isEmpty()) {
+      try {
+        _files.insertMany(filesDocuments, new InsertManyOptions().ordered(false));
+      } catch (MongoBulkWriteException pE) {
+        if (pE.getWriteErrors().isEmpty()) {
+          abort(read, pE, pListener);
+          return;
+        }
+        failed.addAll(failedFiles(pE.getWriteErrors(), committing));
+        LOG.warn("{} files document insert(s) of a {} file batch failed, first: {}",
+            pE.getWriteErrors().size(), read.size(), pE.getWriteErrors().get(0).getMessage());
+      } catch (RuntimeException pE) {
+        abort(read, pE, pListener);
+        return;
+      }
+    }
+
+    final List<BsonValue> failedIds = new ArrayList<>(failed.size());
+    long savedBytes = 0L;
+    for (int i = 0; i < read.size(); i++) {
+      final SmallFile file = read.get(i);
+      if (failed.contains(i)) {
+        failedIds.add(file.getId());
+        failed(file, new IOException("Insert failed as part of a batch"), pListener);
+      } else {
+        savedBytes += lengths.get(i);
+        _savedFiles.increment();
+        _savedBytes.add(lengths.get(i));
+        pListener.onSaved(file, lengths.get(i));
+      }
+    }
+    remove(failedIds);
+    _batches.increment();
+
+    final long durationMillis = Math.max(1L, System.currentTimeMillis() - start);
+    LOG.info("Saved batch of {} small file(s), {} bytes, {} failed, after {} ms @ {} files/s",
+        read.size() - failed.size(),
+        String.format("%,d", savedBytes),
+        pBatch.size() - read.size() + failed.size(),
+        durationMillis,
+        String.format("%,.0f", (read.size() - failed.size()) * 1000.0 / durationMillis));
+  }
+
+  /**
+   * @param pOwners index into the batch's read files of each document the insert was given
+   * @return the read files with a document among those the unordered insert reported failing
+   */
+  static Set<Integer> failedFiles(final List<BulkWriteError> pErrors, final List<Integer> pOwners) {
+    final Set<Integer> failed = new HashSet<>();
+    for (final BulkWriteError error : pErrors) {
+      failed.add(pOwners.get(error.getIndex()));
+    }
+    return failed;
+  }
+
+  private ChunkReader open(final SmallFile pFile) throws IOException {
+    final ChunkReader reader = pFile.getSource().openChunkReader(_chunkSizeBytes, _readPool);
+    if (!_checksums) {
+      return reader;
+    }
+    return new ChecksummingChunkReader(reader,
+        new ChunkChecksums(pFile.getSource().length(), _chunkSizeBytes), pFile.getMetadata(), pFile.getFileId());
+  }
+
+  /**
+   * Logs the files saved and failed so far and the rate since the previous call.
+   */
+  void logInterval(final double pIntervalSeconds) {
+    final long saved = _savedFiles.sum();
+    LOG.info("Small files: {} saved ({} files/s), {} bytes, {} failed, in {} batch(es)",
+        String.format("%,d", saved),
+        String.format("%,.1f", (saved - _previousSavedFiles) / pIntervalSeconds),
+        String.format("%,d", _savedBytes.sum()),
+        String.format("%,d", _failedFiles.sum()),
+        String.format("%,d", _batches.sum()));
+    _previousSavedFiles = saved;
+  }
+
+  /**
+   * Fails a whole batch whose insert didn't report which documents failed, such as on a network
+   * or write concern error.
+   */
+  private void abort(final List<SmallFile> pRead, final RuntimeException pFailure, final Listener pListener) {
+    final List<BsonValue> ids = new ArrayList<>(pRead.size());
+    for (final SmallFile file : pRead) {
+      ids.add(file.getId());
+      failed(file, pFailure, pListener);
+    }
+    remove(ids);
+  }
+
+  private void failed(final SmallFile pFile, final Throwable pFailure, final Listener pListener) {
+    _failedFiles.increment();
+    pListener.onFailed(pFile, pFailure);
+  }
+
+  /**
+   * Removes whatever was stored of failed files, {@code files} document first so no reader sees
+   * a file without its chunks.
+   */
+  private void remove(final List<BsonValue> pFileIds) {
+    if (pFileIds.isEmpty()) {
+      return;
+    }
+    try {
+      _files.deleteMany(Filters.in("_id", pFileIds));
+      final long deleted = _chunks.deleteMany(Filters.in("files_id", pFileIds)).getDeletedCount();
+      LOG.warn("Removed {} chunk(s) of {} failed small file(s)", deleted, pFileIds.size());
+    } catch (RuntimeException pE) {
+      LOG.warn("Failed to remove {} failed small file(s)", pFileIds.size(), pE);
+    }
+  }
+
+  /**
+   * Outcome of each file in a batch, called on the thread writing the batch.
+   */
+  interface Listener {
+
+    void onSaved(SmallFile pFile, long pLength);
+
+    void onFailed(SmallFile pFile, Throwable pFailure);
+  }
+
+  static class SmallFile {
+    private final BsonValue _id;
+    private final String _fileId;
+    private final UploadSource _source;
+    private final Document _metadata;
+
+    SmallFile(final BsonValue pId, final String pFileId, final UploadSource pSource, final Document pMetadata) {
+      _id = pId;
+      _fileId = pFileId;
+      _source = pSource;
+      _metadata = pMetadata;
+    }
+
+    BsonValue getId() {
+      return _id;
+    }
+
+    /**
+     * @return the id as the journal and logs show it
+     */
+    String getFileId() {
+      return _fileId;
+    }
+
+    UploadSource getSource() {
+      return _source;
+    }
+
+    Document getMetadata() {
+      return _metadata;
+    }
+  }
+}
@@ -0,0 +1,466 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.jmo.mongo.javadriver.gridfs.ChunkReader.ChunkReaderInputStream;
+import com.mongodb.MongoClient;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.model.GridFSUploadOptions;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Where ingest writes each file's chunks. Callers hand every backend the same rate limited and
+ * counted {@link ChunkReader}, so throttling and status reporting behave identically whether
+ * chunks reach a cluster, a local directory or nowhere at all, and the difference in throughput
+ * between them is the cost of the storage alone.
+ */
+interface StorageBackend extends Closeable {
+  String DEFAULT_STORAGE = "gridfs";
+  String DEFAULT_LOCAL_DIR = "gridfs-storage";
+  long DEFAULT_FAKE_LATENCY_MICROS = 1000L;
+  double DEFAULT_FAKE_ERROR_RATE = 0.0;
+
+  /**
+   * Readies the bucket before the first upload: its indexes, and with sharding enabled its shard
+   * keys and presplit points.
+   */
+  void prepare(
+      boolean pShardingEnabled,
+      boolean pShardingPresplit,
+      int pShardingPresplitFilesChunks,
+      int pShardingPresplitChunksChunks,
+      FileIdStrategy pIdStrategy);
+
+  /**
+   * Stores every chunk {@code pReader} hands out followed by the file's {@code files} document.
+   *
+   * @param pOnAcknowledged called with the highest chunk number stored so far, along with every
+   *     chunk before it, where the backend tracks that
+   */
+  void upload(
+      BsonValue pFileId,
+      String pFilename,
+      ChunkReader pReader,
+      Document pMetadata,
+      IntConsumer pOnAcknowledged) throws IOException;
+
+  /**
+   * @return {@code gridfs.storage}, lower cased
+   */
+  static String typeFromSystemProperties() {
+    return System.getProperty("gridfs.storage", DEFAULT_STORAGE).toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Creates one of the backends that don't need a cluster, from {@code gridfs.storage.*}.
+   */
+  static StorageBackend fromSystemProperties(
+      final String pType, final int pChunkSizeBytes, final FileIdStrategy pIdStrategy) {
+    switch (pType) {
+      case "null":
+        return new NullStorage(pChunkSizeBytes);
+      case "local":
+        return new LocalStorage(
+            Paths.get(System.getProperty("gridfs.storage.local.dir", DEFAULT_LOCAL_DIR)),
+            pChunkSizeBytes, pIdStrategy);
+      case "fake":
+        return new FakeStorage(pChunkSizeBytes,
+            Long.getLong("gridfs.storage.fake.latencyMicros", DEFAULT_FAKE_LATENCY_MICROS),
+            Double.parseDouble(System.getProperty(
+                "gridfs.storage.fake.errorRate", String.valueOf(DEFAULT_FAKE_ERROR_RATE))));
+      default:
+        throw new IllegalArgumentException("Unknown storage '" + pType
+            + "', expected gridfs, null, local or fake");
+    }
+  }
+
+  /**
+   * The real thing: a GridFS bucket written through whichever upload engine is configured.
+   */
+  class GridFSStorage implements StorageBackend {
+    private final MongoClient _client;
+    private final String _database;
+    private final String _bucket;
+    private final GridFSBucket _filesBucket;
+    private final int _chunkSizeBytes;
+    private final BatchedChunkWriter _batchedWriter;
+    private final DedupStore _dedupStore;
+
+    /**
+     * @param pBatchedWriter the batched engine, or {@code null}
+     * @param pDedupStore the dedup engine, or {@code null}; with neither, uploads go through the
+     *     driver's {@code GridFSBucket}
+     */
+    GridFSStorage(
+        final MongoClient pClient,
+        final String pDatabase,
+        final String pBucket,
+        final GridFSBucket pFilesBucket,
+        final int pChunkSizeBytes,
+        final BatchedChunkWriter pBatchedWriter,
+        final DedupStore pDedupStore) {
+      _client = pClient;
+      _database = pDatabase;
+      _bucket = pBucket;
+      _filesBucket = pFilesBucket;
+      _chunkSizeBytes = pChunkSizeBytes;
+      _batchedWriter = pBatchedWriter;
+      _dedupStore = pDedupStore;
+    }
+
+    @Override
+    public void prepare(
+        final boolean pShardingEnabled,
+        final boolean pShardingPresplit,
+        final int pShardingPresplitFilesChunks,
+        final int pShardingPresplitChunksChunks,
+        final FileIdStrategy pIdStrategy) {
+      GridFS.ensureSharding(_client, _database, _bucket, pShardingEnabled, pShardingPresplit,
+          pShardingPresplitFilesChunks, pShardingPresplitChunksChunks, pIdStrategy);
+      if (_batchedWriter != null) {
+        _batchedWriter.ensureIndexes();
+      }
+      if (_dedupStore != null) {
+        _dedupStore.ensureIndexes();
+      }
+    }
+
+    @Override
+    public void upload(
+        final BsonValue pFileId,
+        final String pFilename,
+        final ChunkReader pReader,
+        final Document pMetadata,
+        final IntConsumer pOnAcknowledged) throws IOException {
+      if (_dedupStore != null) {
+        _dedupStore.upload(pFileId, pFilename, pReader, pMetadata);
+      } else if (_batchedWriter != null) {
+        _batchedWriter.upload(pFileId, pFilename, pReader, pMetadata, pOnAcknowledged);
+      } else {
+        // Not closed here, the reader belongs to the caller
+        _filesBucket.uploadFromStream(pFileId, pFilename, new ChunkReaderInputStream(pReader),
+            new GridFSUploadOptions().chunkSizeBytes(_chunkSizeBytes).metadata(pMetadata));
+      }
+    }
+
+    @Override
+    public void close() {
+      // The engines are shared with resumed and ranged uploads, their owner shuts them down
+    }
+
+    @Override
+    public String toString() {
+      return String.format("GridFS bucket '%s.%s'", _database, _bucket);
+    }
+  }
+
+  /**
+   * Base for backends without a cluster behind them. Sharding setup computes the same presplit
+   * points GridFS would use, so id strategies can be compared. Chunk writes are timed as
+   * {@code chunk_insert}s, and closing logs what was stored and how much of it each CPU second of
+   * this process moved.
+   */
+  abstract class SimulatedStorage implements StorageBackend {
+    private static final Logger LOG = LoggerFactory.getLogger(SimulatedStorage.class);
+
+    private final int _chunkSizeBytes;
+    private final AtomicLong _files = new AtomicLong(0L);
+    private final AtomicLong _chunks = new AtomicLong(0L);
+    private final AtomicLong _bytes = new AtomicLong(0L);
+    private final long _startCpuNanos = processCpuNanos();
+
+    SimulatedStorage(final int pChunkSizeBytes) {
+      _chunkSizeBytes = pChunkSizeBytes;
+    }
+
+    @Override
+    public void prepare(
+        final boolean pShardingEnabled,
+        final boolean pShardingPresplit,
+        final int pShardingPresplitFilesChunks,
+        final int pShardingPresplitChunksChunks,
+        final FileIdStrategy pIdStrategy) {
+      if (!pShardingEnabled || !pShardingPresplit) {
+        return;
+      }
+      final long nowMillis = System.currentTimeMillis();
+      final long spanMillis = TimeUnit.SECONDS.toMillis(Long.getLong(
+          "gridfs.sharding.presplit.spanSeconds", FileIdStrategy.DEFAULT_PRESPLIT_SPAN_SECONDS));
+      final List<BsonValue> files =
+          pIdStrategy.boundaries(pShardingPresplitFilesChunks, nowMillis, spanMillis);
+      final List<BsonValue> chunks =
+          pIdStrategy.boundaries(pShardingPresplitChunksChunks, nowMillis, spanMillis);
+      for (int i = 0; i < files.size() + chunks.size(); i++) {
+        split();
+      }
+      LOG.info("{} isn't sharded, {} ids would presplit files at {} and chunks at {} point(s)",
+          this, pIdStrategy, files.size(), chunks.size());
+      LOG.debug("Presplit points for files {}, chunks {}", files, chunks);
+    }
+
+    @Override
+    public void upload(
+        final BsonValue pFileId,
+        final String pFilename,
+        final ChunkReader pReader,
+        final Document pMetadata,
+        final IntConsumer pOnAcknowledged) throws IOException {
+      try (final ChunkSink sink = open(pFileId)) {
+        int n = 0;
+        long length = 0L;
+        ByteBuffer chunk;
+        while ((chunk = pReader.next()) != null) {
+          length += chunk.remaining();
+          final long start = System.nanoTime();
+          sink.write(n, chunk);
+          Metrics.CHUNK_INSERT.recordNanos(System.nanoTime() - start);
+          _chunks.incrementAndGet();
+          pOnAcknowledged.accept(n++);
+        }
+        sink.finish(new Document()
+            .append("_id", pFileId)
+            .append("length", length)
+            .append("chunkSize", _chunkSizeBytes)
+            .append("uploadDate", new Date())
+            .append("filename", pFilename)
+            .append("metadata", pMetadata));
+        _files.incrementAndGet();
+        _bytes.addAndGet(length);
+      }
+    }
+
+    /**
+     * Called once for every presplit point, as the cluster would run a split for each.
+     */
+    void split() {
+    }
+
+    /**
+     * Starts storing one file.
+     */
+    abstract ChunkSink open(BsonValue pFileId) throws IOException;
+
+    @Override
+    public void close() throws IOException {
+      final double cpuSeconds = (processCpuNanos() - _startCpuNanos) / 1e9;
+      LOG.info("{} stored {} file(s), {} chunk(s), {} bytes, {} MB per CPU second",
+          this,
+          String.format("%,d", _files.get()),
+          String.format("%,d", _chunks.get()),
+          String.format("%,d", _bytes.get()),
+          cpuSeconds <= 0.0 ? "n/a" : String.format("%.1f", _bytes.get() / cpuSeconds / 1e6));
+    }
+
+    private static long processCpuNanos() {
+      if (ManagementFactory.getOperatingSystemMXBean()
+          instanceof com.sun.management.OperatingSystemMXBean) {
+        return ((com.sun.management.OperatingSystemMXBean)
+            ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+      }
+      return 0L;
+    }
+
+    /**
+     * One file being stored. Closing without {@link #finish} abandons it.
+     */
+    interface ChunkSink extends Closeable {
+
+      /**
+       * Stores chunk {@code pN}, whose bytes are only valid until this returns.
+       */
+      void write(int pN, ByteBuffer pChunk) throws IOException;
+
+      /**
+       * Stores the {@code files} document once every chunk is written.
+       */
+      void finish(Document pFilesDocument) throws IOException;
+    }
+  }
+
+  /**
+   * Discards everything, leaving only the cost of reading, throttling and accounting.
+   */
+  class NullStorage extends SimulatedStorage {
+    private static final ChunkSink DISCARD = new ChunkSink() {
+      @Override
+      public void write(final int pN, final ByteBuffer pChunk) {
+      }
+
+      @Override
+      public void finish(final Document pFilesDocument) {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+
+    NullStorage(final int pChunkSizeBytes) {
+      super(pChunkSizeBytes);
+    }
+
+    @Override
+    ChunkSink open(final BsonValue pFileId) {
+      return DISCARD;
+    }
+
+    @Override
+    public String toString() {
+      return "Null storage";
+    }
+  }
+
+  /**
+   * Appends each file's chunks into {@code <fileId>.chunks} under a local directory, and writes
+   * its {@code files} document next to it as {@code <fileId>.json} once every chunk is written.
+   * An abandoned upload removes its chunk file.
+   */
+  class LocalStorage extends SimulatedStorage {
+    private final Path _directory;
+    private final FileIdStrategy _idStrategy;
+
+    LocalStorage(final Path pDirectory, final int pChunkSizeBytes, final FileIdStrategy pIdStrategy) {
+      super(pChunkSizeBytes);
+      _directory = pDirectory;
+      _idStrategy = pIdStrategy;
+    }
+
+    @Override
+    public void prepare(
+        final boolean pShardingEnabled,
+        final boolean pShardingPresplit,
+        final int pShardingPresplitFilesChunks,
+        final int pShardingPresplitChunksChunks,
+        final FileIdStrategy pIdStrategy) {
+      try {
+        Files.createDirectories(_directory);
+      } catch (IOException pE) {
+        throw new IllegalStateException("Unable to create storage directory '" + _directory + "'", pE);
+      }
+      super.prepare(pShardingEnabled, pShardingPresplit,
+          pShardingPresplitFilesChunks, pShardingPresplitChunksChunks, pIdStrategy);
+    }
+
+    @Override
+    ChunkSink open(final BsonValue pFileId) throws IOException {
+      final String name = _idStrategy.toString(pFileId);
+      final Path chunksFile = _directory.resolve(name + ".chunks");
+      final FileChannel channel = FileChannel.open(chunksFile,
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      return new ChunkSink() {
+        private boolean _finished;
+
+        @Override
+        public void write(final int pN, final ByteBuffer pChunk) throws IOException {
+          while (pChunk.hasRemaining()) {
+            channel.write(pChunk);
+          }
+        }
+
+        @Override
+        public void finish(final Document pFilesDocument) throws IOException {
+          Files.write(_directory.resolve(name + ".json"),
+              pFilesDocument.toJson().getBytes(StandardCharsets.UTF_8));
+          _finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+          channel.close();
+          if (!_finished) {
+            Files.deleteIfExists(chunksFile);
+          }
+        }
+      };
+    }
+
+    @Override
+    public String toString() {
+      return "Local storage '" + _directory + "'";
+    }
+  }
+
+  /**
+   * Stores nothing but takes time doing it: every chunk, {@code files} document and presplit waits
+   * an exponentially distributed latency around a mean, and chunk and {@code files} document
+   * writes fail at a given rate, to see how ingest behaves against a slow or flaky cluster.
+   */
+  class FakeStorage extends SimulatedStorage {
+    private final long _latencyMicros;
+    private final double _errorRate;
+
+    FakeStorage(final int pChunkSizeBytes, final long pLatencyMicros, final double pErrorRate) {
+      super(pChunkSizeBytes);
+      if (pLatencyMicros < 0L || pErrorRate < 0.0 || pErrorRate > 1.0) {
+        throw new IllegalArgumentException("Latency must not be negative and the error rate must be "
+            + "within [0, 1]: " + pLatencyMicros + "us, " + pErrorRate);
+      }
+      _latencyMicros = pLatencyMicros;
+      _errorRate = pErrorRate;
+    }
+
+    @Override
+    void split() {
+      await();
+    }
+
+    @Override
+    ChunkSink open(final BsonValue pFileId) {
+      return new ChunkSink() {
+        @Override
+        public void write(final int pN, final ByteBuffer pChunk) throws IOException {
+          store("chunk " + pN + " of fileId " + pFileId);
+        }
+
+        @Override
+        public void finish(final Document pFilesDocument) throws IOException {
+          store("files document of fileId " + pFileId);
+        }
+
+        @Override
+        public void close() {
+        }
+      };
+    }
+
+    private void store(final String pWhat) throws IOException {
+      await();
+      if (_errorRate > 0.0 && ThreadLocalRandom.current().nextDouble() < _errorRate) {
+        throw new IOException("Simulated failure storing " + pWhat);
+      }
+    }
+
+    private void await() {
+      if (_latencyMicros > 0L) {
+        // Inverse transform sampling, 1 - u keeps log() away from 0
+        final double latencyMicros =
+            -Math.log(1.0 - ThreadLocalRandom.current().nextDouble()) * _latencyMicros;
+        LockSupport.parkNanos((long) (latencyMicros * 1000.0));
+      }
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Fake storage (%dus mean latency, %.4f error rate)", _latencyMicros, _errorRate);
+    }
+  }
+}
@@ -0,0 +1,254 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates in-memory files so load generation isn't bound by local disk or page cache.
+ *
+ * <p>All payload bytes come from a single pool generated up front. Each synthetic file streams a
+ * window of that pool starting at an offset spread by its index, so reads are bulk array copies
+ * with no per-byte work and every open of a file, whole or by range, sees the same bytes.
+ * Compressibility is controlled by how much of every {@link #BLOCK_SIZE} block of the pool is
+ * random versus zero filled.
+ */
+class SyntheticSource {
+  private static final Logger LOG = LoggerFactory.getLogger(SyntheticSource.class);
+
+  static final int BLOCK_SIZE = 1 << 12;
+
+  static final int DEFAULT_FILES = 100;
+  static final long DEFAULT_SIZE_BYTES = 64L << 20;
+  static final double DEFAULT_SIZE_SIGMA = 1.0;
+  static final double DEFAULT_COMPRESSIBILITY = 0.0;
+  static final int DEFAULT_POOL_BYTES = 64 << 20;
+
+  enum SizeDistribution {
+    /** Every file is exactly the configured size */
+    FIXED,
+    /** Uniform between the configured min and max, the max defaulting to twice the size */
+    UNIFORM,
+    /** Log-normal with the configured size as its median, clamped to min and max */
+    LOGNORMAL
+  }
+
+  private final byte[] _pool;
+  private final List<UploadSource> _sources;
+
+  SyntheticSource(
+      final int pFiles,
+      final SizeDistribution pDistribution,
+      final long pSizeBytes,
+      final long pMinBytes,
+      final long pMaxBytes,
+      final double pSigma,
+      final double pCompressibility,
+      final int pPoolBytes,
+      final long pSeed) {
+    if (pCompressibility < 0.0 || pCompressibility > 1.0) {
+      throw new IllegalArgumentException("Compressibility must be within [0.0, 1.0]: " + pCompressibility);
+    }
+    if (pPoolBytes < BLOCK_SIZE) {
+      throw new IllegalArgumentException("Pool must be at least " + BLOCK_SIZE + " bytes: " + pPoolBytes);
+    }
+
+    final Random random = new Random(pSeed);
+    _pool = createPool(pPoolBytes, pCompressibility, random);
+
+    final long lastModified = System.currentTimeMillis();
+    final List<UploadSource> sources = new ArrayList<>(pFiles);
+    for (int i = 0; i < pFiles; i++) {
+      final long size = nextSize(random, pDistribution, pSizeBytes, pMinBytes, pMaxBytes, pSigma);
+      sources.add(new SyntheticFile(String.format("synthetic-%06d", i), size, lastModified,
+          poolOffset(i, _pool.length)));
+    }
+    _sources = Collections.unmodifiableList(sources);
+  }
+
+  static SyntheticSource fromSystemProperties() {
+    final int files = Integer.getInteger("gridfs.synthetic.files", DEFAULT_FILES);
+    final SizeDistribution distribution = SizeDistribution.valueOf(
+        System.getProperty("gridfs.synthetic.size.distribution", SizeDistribution.FIXED.name())
+            .toUpperCase(Locale.ROOT));
+    final long sizeBytes = Long.getLong("gridfs.synthetic.size.bytes", DEFAULT_SIZE_BYTES);
+    final long minBytes = Long.getLong("gridfs.synthetic.size.min", 1L);
+    final long maxBytes = Long.getLong("gridfs.synthetic.size.max", defaultMaxBytes(sizeBytes));
+    final double sigma = Double.parseDouble(
+        System.getProperty("gridfs.synthetic.size.sigma", String.valueOf(DEFAULT_SIZE_SIGMA)));
+    final double compressibility = Double.parseDouble(
+        System.getProperty("gridfs.synthetic.compressibility", String.valueOf(DEFAULT_COMPRESSIBILITY)));
+    final int poolBytes = Integer.getInteger("gridfs.synthetic.poolBytes", DEFAULT_POOL_BYTES);
+    final long seed = Long.getLong("gridfs.synthetic.seed", System.nanoTime());
+
+    LOG.info("Generating {} synthetic file(s), {} distribution around {} bytes, "
+            + "compressibility {} from a {} byte pool",
+        files, distribution, String.format("%,d", sizeBytes), compressibility,
+        String.format("%,d", poolBytes));
+
+    return new SyntheticSource(files, distribution, sizeBytes, minBytes, maxBytes, sigma,
+        compressibility, poolBytes, seed);
+  }
+
+  /**
+   * @return twice the configured size, so a uniform distribution without an explicit max is
+   *     centred near it rather than spread up to {@code Long.MAX_VALUE}
+   */
+  static long defaultMaxBytes(final long pSizeBytes) {
+    return pSizeBytes > Long.MAX_VALUE / 2 ? Long.MAX_VALUE : pSizeBytes * 2;
+  }
+
+  List<UploadSource> getSources() {
+    return _sources;
+  }
+
+  byte[] getPool() {
+    return _pool;
+  }
+
+  /**
+   * @return the block aligned offset the file at {@code pIndex} starts at, consecutive files
+   *     landing far apart in the pool
+   */
+  static int poolOffset(final int pIndex, final int pPoolBytes) {
+    // Fibonacci hashing spreads consecutive indexes across every block
+    return Math.floorMod(pIndex * 0x9E3779B9, pPoolBytes / BLOCK_SIZE) * BLOCK_SIZE;
+  }
+
+  static byte[] createPool(final int pPoolBytes, final double pCompressibility, final Random pRandom) {
+    final byte[] pool = new byte[pPoolBytes];
+    final byte[] block = new byte[BLOCK_SIZE];
+    final int randomBytesPerBlock = (int) Math.round(BLOCK_SIZE * (1.0 - pCompressibility));
+
+    // The tail of every block stays zero filled, which any codec squeezes out
+    for (int offset = 0; offset < pPoolBytes; offset += BLOCK_SIZE) {
+      pRandom.nextBytes(block);
+      System.arraycopy(block, 0, pool, offset, Math.min(randomBytesPerBlock, pPoolBytes - offset));
+    }
+    return pool;
+  }
+
+  static long nextSize(
+      final Random pRandom,
+      final SizeDistribution pDistribution,
+      final long pSizeBytes,
+      final long pMinBytes,
+      final long pMaxBytes,
+      final double pSigma) {
+    final double size;
+    switch (pDistribution) {
+      case FIXED:
+        size = pSizeBytes;
+        break;
+      case UNIFORM:
+        size = pMinBytes + pRandom.nextDouble() * (pMaxBytes - pMinBytes);
+        break;
+      case LOGNORMAL:
+        size = pSizeBytes * Math.exp(pSigma * pRandom.nextGaussian());
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown distribution " + pDistribution);
+    }
+    return Math.max(pMinBytes, Math.min(pMaxBytes, (long) size));
+  }
+
+  class SyntheticFile implements UploadSource {
+    private final String _name;
+    private final long _length;
+    private final long _lastModified;
+    private final int _offset;
+
+    SyntheticFile(final String pName, final long pLength, final long pLastModified, final int pOffset) {
+      _name = pName;
+      _length = pLength;
+      _lastModified = pLastModified;
+      _offset = pOffset;
+    }
+
+    @Override
+    public String getName() {
+      return _name;
+    }
+
+    @Override
+    public long length() {
+      return _length;
+    }
+
+    @Override
+    public long lastModified() {
+      return _lastModified;
+    }
+
+    @Override
+    public InputStream openStream() {
+      return new PooledInputStream(_pool, _offset, _length);
+    }
+
+    @Override
+    public String toString() {
+      return "synthetic:" + _name;
+    }
+  }
+
+  /**
+   * Streams {@code length} bytes out of a shared pool, wrapping around at the end of the pool.
+   */
+  static class PooledInputStream extends InputStream {
+    private final byte[] _pool;
+    private int _position;
+    private long _remaining;
+
+    PooledInputStream(final byte[] pPool, final int pOffset, final long pLength) {
+      _pool = pPool;
+      _position = pOffset;
+      _remaining = pLength;
+    }
+
+    @Override
+    public int read() {
+      if (_remaining <= 0) {
+        return -1;
+      }
+      final int value = _pool[_position] & 0xff;
+      advance(1);
+      return value;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (_remaining <= 0) {
+        return -1;
+      }
+      final int count = (int) Math.min(Math.min(len, _remaining), _pool.length - _position);
+      System.arraycopy(_pool, _position, b, off, count);
+      advance(count);
+      return count;
+    }
+
+    @Override
+    public long skip(final long n) {
+      final long count = Math.max(0L, Math.min(n, _remaining));
+      advance(count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return (int) Math.min(Integer.MAX_VALUE, _remaining);
+    }
+
+    private void advance(final long pCount) {
+      _position = (int) ((_position + pCount) % _pool.length);
+      _remaining -= pCount;
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs upload tasks with a bounded number in flight, on either a fixed pool of platform threads or
+ * one virtual thread per task.
+ *
+ * <p>Virtual threads let a single client keep thousands of blocking sync driver uploads in flight
+ * without an OS thread each. They need JDK 21 or later and are looked up reflectively, so the
+ * build keeps its older target; on an older runtime this falls back to a platform thread per
+ * in-flight upload. Submitting blocks while {@link #_permits} are exhausted, which is what bounds
+ * the virtual thread mode since its executor never queues.
+ *
+ * <p>The number in flight can be changed while running, up to the concurrency the executor was
+ * created with, see {@link AdaptiveConcurrency}.
+ */
+class UploadExecutor {
+  private static final Logger LOG = LoggerFactory.getLogger(UploadExecutor.class);
+
+  static final String DEFAULT_MODE = "platform";
+
+  enum Mode {
+    PLATFORM,
+    VIRTUAL
+  }
+
+  private final ExecutorService _executor;
+  private final ResizableSemaphore _permits;
+  private final int _maxConcurrency;
+  private volatile int _concurrency;
+  private final Runnable _afterTask;
+
+  /**
+   * @param pAfterTask run on the task's thread after every task, e.g. to hand back per-thread state
+   */
+  UploadExecutor(final Mode pMode, final int pConcurrency, final Runnable pAfterTask) {
+    _maxConcurrency = pConcurrency;
+    _concurrency = pConcurrency;
+    _permits = new ResizableSemaphore(pConcurrency);
+    _afterTask = pAfterTask;
+    _executor = pMode == Mode.VIRTUAL ? newVirtualThreadExecutor(pConcurrency)
+        : Executors.newFixedThreadPool(pConcurrency);
+  }
+
+  /**
+   * Builds an executor from {@code gridfs.executor} and {@code gridfs.concurrency}, the latter
+   * defaulting to {@code pThreads}.
+   */
+  static UploadExecutor fromSystemProperties(final int pThreads, final Runnable pAfterTask) {
+    final Mode mode = Mode.valueOf(
+        System.getProperty("gridfs.executor", DEFAULT_MODE).toUpperCase(Locale.ROOT));
+    return new UploadExecutor(mode, Integer.getInteger("gridfs.concurrency", pThreads), pAfterTask);
+  }
+
+  int getConcurrency() {
+    return _concurrency;
+  }
+
+  int getMaxConcurrency() {
+    return _maxConcurrency;
+  }
+
+  /**
+   * Changes how many tasks may be in flight, clamped to between 1 and the concurrency the
+   * executor was created with. Lowering it interrupts nothing, it takes effect as tasks finish.
+   */
+  synchronized void setConcurrency(final int pConcurrency) {
+    final int concurrency = Math.max(1, Math.min(_maxConcurrency, pConcurrency));
+    if (concurrency > _concurrency) {
+      _permits.release(concurrency - _concurrency);
+    } else if (concurrency < _concurrency) {
+      _permits.reducePermits(_concurrency - concurrency);
+    }
+    _concurrency = concurrency;
+  }
+
+  int getInFlight() {
+    return _concurrency - _permits.availablePermits();
+  }
+
+  /**
+   * Runs {@code pTask}, first waiting for one of the in-flight slots to free up.
+   */
+  void submit(final Runnable pTask) throws InterruptedException {
+    _permits.acquire();
+    try {
+      _executor.execute(() -> {
+        try {
+          pTask.run();
+        } finally {
+          _afterTask.run();
+          _permits.release();
+        }
+      });
+    } catch (RuntimeException pE) {
+      _permits.release();
+      throw pE;
+    }
+  }
+
+  /**
+   * Stops taking tasks and waits up to {@code pTimeout} for the ones in flight, interrupting any
+   * still running after that.
+   *
+   * @return whether every task finished in time
+   */
+  boolean shutdown(final long pTimeout, final TimeUnit pUnit) throws InterruptedException {
+    _executor.shutdown();
+    if (_executor.awaitTermination(pTimeout, pUnit)) {
+      return true;
+    }
+    _executor.shutdownNow();
+    return false;
+  }
+
+  void shutdownNow() {
+    _executor.shutdownNow();
+  }
+
+  private static ExecutorService newVirtualThreadExecutor(final int pConcurrency) {
+    try {
+      final ExecutorService executor = (ExecutorService) Executors.class
+          .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      LOG.info("Running up to {} upload(s) on virtual threads", pConcurrency);
+      return executor;
+    } catch (ReflectiveOperationException pE) {
+      LOG.warn("Virtual threads need JDK 21+, running {} upload(s) on platform threads instead "
+          + "(Java {})", pConcurrency, System.getProperty("java.version"));
+      return Executors.newFixedThreadPool(pConcurrency);
+    }
+  }
+
+  /**
+   * Exposes {@link Semaphore#reducePermits}, which takes permits away without waiting for them.
+   */
+  private static class ResizableSemaphore extends Semaphore {
+    private static final long serialVersionUID = 1L;
+
+    ResizableSemaphore(final int pPermits) {
+      super(pPermits);
+    }
+
+    @Override
+    protected void reducePermits(final int pReduction) {
+      super.reducePermits(pReduction);
+    }
+  }
+}
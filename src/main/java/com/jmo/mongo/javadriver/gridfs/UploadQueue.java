@@ -0,0 +1,259 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded queue of files to upload, filled by a background thread walking the inputs lazily.
+ *
+ * <p>An input is a file, a directory (uploaded recursively), a glob such as {@code data/**.bin},
+ * or {@code @manifest} naming a text file listing one input per line. At most {@code window}
+ * files are held at once, so memory stays flat however many the inputs expand to.
+ *
+ * <p>In {@link Order#LARGEST} order, {@link #take()} hands out the largest file in the window once
+ * the window is full, or the walk is over. That's longest-processing-time-first scheduling over a
+ * sliding window: exact when every input fits, approximate otherwise, and either way it keeps the
+ * biggest files from all starting last and stretching the tail of a run. In {@link Order#ARRIVAL}
+ * order files are handed out as soon as they're walked, the window only bounding how far the walk
+ * runs ahead.
+ */
+class UploadQueue {
+  private static final Logger LOG = LoggerFactory.getLogger(UploadQueue.class);
+
+  static final int DEFAULT_WINDOW = 1024;
+  static final String DEFAULT_ORDER = "largest";
+
+  enum Order {
+    /** Largest file in the window first */
+    LARGEST,
+    /** The order the inputs are walked in */
+    ARRIVAL
+  }
+
+  private final int _window;
+  // Files queued before take() hands one out, the whole window only when it picks among them
+  private final int _fill;
+  private final PriorityQueue<Queued> _queue;
+  private final Thread _walker;
+  private long _discovered;
+  private boolean _finished;
+
+  private UploadQueue(final int pWindow, final Order pOrder, final Walk pWalk) {
+    if (pWindow < 1) {
+      throw new IllegalArgumentException("Window must be at least 1: " + pWindow);
+    }
+    _window = pWindow;
+    _fill = pOrder == Order.LARGEST ? pWindow : 1;
+    final Comparator<Queued> arrival = Comparator.comparingLong(queued -> queued._sequence);
+    _queue = new PriorityQueue<>(Math.min(pWindow, DEFAULT_WINDOW), pOrder == Order.LARGEST
+        ? Comparator.<Queued>comparingLong(queued -> queued._length).reversed().thenComparing(arrival)
+        : arrival);
+    _walker = new Thread(() -> {
+      try {
+        pWalk.run(this::put);
+      } catch (InterruptedIOException pE) {
+        LOG.debug("Input walk interrupted");
+      } catch (Throwable pE) {
+        LOG.error("Failed walking inputs", pE);
+      } finally {
+        finish();
+      }
+    }, "InputWalker");
+    _walker.setDaemon(true);
+    _walker.start();
+  }
+
+  /**
+   * Walks files, directories, globs and {@code @manifest} inputs.
+   */
+  static UploadQueue walk(
+      final List<String> pInputs,
+      final int pBufferSize,
+      final boolean pMapped,
+      final int pWindow,
+      final Order pOrder) {
+    return new UploadQueue(pWindow, pOrder, sink -> {
+      for (final String input : pInputs) {
+        expand(input, true, path -> sink.put(new FileUploadSource(path, pBufferSize, pMapped)));
+      }
+    });
+  }
+
+  static UploadQueue of(final List<UploadSource> pSources, final int pWindow, final Order pOrder) {
+    return new UploadQueue(pWindow, pOrder, sink -> {
+      for (final UploadSource source : pSources) {
+        sink.put(source);
+      }
+    });
+  }
+
+  static Order orderFromSystemProperties() {
+    return Order.valueOf(
+        System.getProperty("gridfs.input.order", DEFAULT_ORDER).toUpperCase(Locale.ROOT));
+  }
+
+  /**
+   * Removes the next file to upload, in {@link Order#LARGEST} order waiting for the walk to fill
+   * the window first.
+   *
+   * @return the next file, or {@code null} once every input has been handed out
+   */
+  synchronized UploadSource take() throws InterruptedException {
+    while (!_finished && _queue.size() < _fill) {
+      wait();
+    }
+    final Queued queued = _queue.poll();
+    notifyAll();
+    return queued == null ? null : queued._source;
+  }
+
+  /**
+   * @return how many files the walk has found so far
+   */
+  synchronized long getDiscovered() {
+    return _discovered;
+  }
+
+  /**
+   * Abandons the rest of the walk.
+   */
+  void close() {
+    _walker.interrupt();
+  }
+
+  private void put(final UploadSource pSource) throws InterruptedIOException {
+    // Sizes are read once, outside the lock, since ordering compares them repeatedly
+    final long length = pSource.length();
+    synchronized (this) {
+      try {
+        while (_queue.size() >= _window) {
+          wait();
+        }
+      } catch (InterruptedException pE) {
+        throw new InterruptedIOException("Interrupted queueing " + pSource);
+      }
+      _queue.add(new Queued(pSource, length, _discovered++));
+      notifyAll();
+    }
+  }
+
+  private synchronized void finish() {
+    _finished = true;
+    notifyAll();
+  }
+
+  /**
+   * Hands every regular file {@code pInput} names to {@code pVisitor}, without collecting them.
+   */
+  static void expand(final String pInput, final boolean pManifestAllowed, final PathVisitor pVisitor)
+      throws IOException {
+    if (pManifestAllowed && pInput.startsWith("@")) {
+      try (final BufferedReader reader =
+          Files.newBufferedReader(Paths.get(pInput.substring(1)), StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          line = line.trim();
+          if (!line.isEmpty() && !line.startsWith("#")) {
+            expand(line, false, pVisitor);
+          }
+        }
+      }
+      return;
+    }
+
+    final int globStart = indexOfGlob(pInput);
+    if (globStart >= 0) {
+      // Walk from the deepest directory without wildcards, no deeper than the pattern reaches
+      final int baseEnd = pInput.lastIndexOf('/', globStart);
+      final Path base = Paths.get(baseEnd < 0 ? "." : baseEnd == 0 ? "/" : pInput.substring(0, baseEnd));
+      final String pattern = baseEnd < 0 ? "./" + pInput : pInput;
+      final int depth = pattern.contains("**") ? Integer.MAX_VALUE
+          : (int) pattern.substring(baseEnd < 0 ? 2 : baseEnd + 1).chars().filter(c -> c == '/').count() + 1;
+      walk(base, depth, FileSystems.getDefault().getPathMatcher("glob:" + pattern), pVisitor);
+      return;
+    }
+
+    final Path path = Paths.get(pInput);
+    if (Files.isDirectory(path)) {
+      walk(path, Integer.MAX_VALUE, null, pVisitor);
+    } else {
+      // Missing files are passed along to fail, and be reported, like any other upload
+      pVisitor.visit(pInput);
+    }
+  }
+
+  private static void walk(
+      final Path pBase,
+      final int pDepth,
+      final PathMatcher pMatcher,
+      final PathVisitor pVisitor) throws IOException {
+    Files.walkFileTree(pBase, Collections.<FileVisitOption>emptySet(), pDepth,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(final Path pFile, final BasicFileAttributes pAttributes)
+              throws IOException {
+            if (pAttributes.isRegularFile() && (pMatcher == null || pMatcher.matches(pFile))) {
+              pVisitor.visit(pFile.toString());
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(final Path pFile, final IOException pE) {
+            LOG.warn("Skipping '{}': {}", pFile, pE.toString());
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private static int indexOfGlob(final String pInput) {
+    for (int i = 0; i < pInput.length(); i++) {
+      if ("*?[{".indexOf(pInput.charAt(i)) >= 0) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  interface PathVisitor {
+    void visit(String pPath) throws IOException;
+  }
+
+  private interface Sink {
+    void put(UploadSource pSource) throws IOException;
+  }
+
+  private interface Walk {
+    void run(Sink pSink) throws IOException;
+  }
+
+  private static class Queued {
+    private final UploadSource _source;
+    private final long _length;
+    private final long _sequence;
+
+    Queued(final UploadSource pSource, final long pLength, final long pSequence) {
+      _source = pSource;
+      _length = pLength;
+      _sequence = pSequence;
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A single logical file to be uploaded, independent of where its bytes come from.
+ */
+interface UploadSource {
+
+  /**
+   * @return the short name stored as the GridFS filename
+   */
+  String getName();
+
+  /**
+   * @return the total number of bytes {@link #openStream()} will produce
+   */
+  long length();
+
+  long lastModified();
+
+  /**
+   * Opens a fresh stream positioned at the first byte. Callers own and must close the stream.
+   */
+  InputStream openStream() throws IOException;
+
+  /**
+   * Opens a fresh reader handing out chunks of {@code pChunkSizeBytes}, by default read from
+   * {@link #openStream()}. Callers own and must close the reader.
+   *
+   * @param pPool pool for the reader's chunk buffer, or {@code null}
+   */
+  default ChunkReader openChunkReader(final int pChunkSizeBytes, final ChunkBufferPool pPool)
+      throws IOException {
+    return ChunkReader.ofStream(openStream(), pChunkSizeBytes, pPool);
+  }
+
+  /**
+   * Opens a fresh reader over bytes {@code [pStart, pEnd)} only, by default by skipping ahead in
+   * {@link #openStream()}.
+   */
+  default ChunkReader openChunkReader(
+      final int pChunkSizeBytes,
+      final ChunkBufferPool pPool,
+      final long pStart,
+      final long pEnd) throws IOException {
+    final InputStream stream = openStream();
+    try {
+      ByteStreams.skipFully(stream, pStart);
+    } catch (IOException pE) {
+      stream.close();
+      throw pE;
+    }
+    return ChunkReader.ofStream(ByteStreams.limit(stream, pEnd - pStart), pChunkSizeBytes, pPool);
+  }
+}
@@ -0,0 +1,56 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+public class AdaptiveConcurrencyTest {
+
+  @Test
+  public void findsTheSaturationPoint() {
+    final List<Integer> applied = new ArrayList<>();
+    final AdaptiveConcurrency controller =
+        new AdaptiveConcurrency(1, 64, 1000L, 0.75, 0.05, applied::add);
+    assertEquals(List.of(1), applied);
+
+    // Throughput stops growing past 12 in flight, well before latency reaches the SLO
+    for (int i = 0; i < 40; i++) {
+      final int concurrency = controller.getConcurrency();
+      controller.decide(Math.min(concurrency, 12) * 10e6, latencies(10L * concurrency));
+    }
+
+    assertEquals(120e6, controller.getBestRate(), 0.0);
+    assertEquals(12, controller.getBestConcurrency());
+    for (final int concurrency : applied.subList(applied.size() - 4, applied.size())) {
+      assertTrue(String.valueOf(applied), concurrency == 12 || concurrency == 13);
+    }
+  }
+
+  @Test
+  public void backsOffPastTheSlo() {
+    final AdaptiveConcurrency controller =
+        new AdaptiveConcurrency(1, 64, 105L, 0.5, 0.05, concurrency -> { });
+
+    // Latency grows 10 ms per upload in flight, so only 10 fit in the SLO
+    for (int i = 0; i < 40; i++) {
+      final int concurrency = controller.getConcurrency();
+      controller.decide(concurrency * 10e6, latencies(10L * concurrency));
+      assertTrue("Stays near the SLO: " + concurrency, concurrency <= 16);
+    }
+    assertEquals(10, controller.getBestConcurrency());
+    assertEquals(100e6, controller.getBestRate(), 0.0);
+
+    // Nothing measured, nothing decided
+    final int concurrency = controller.getConcurrency();
+    assertEquals(concurrency, controller.decide(0.0, new Histogram(3)));
+  }
+
+  private static Histogram latencies(final long pMillis) {
+    final Histogram histogram = new Histogram(3);
+    histogram.recordValue(pMillis * 1000L);
+    return histogram;
+  }
+}
@@ -0,0 +1,84 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class ByteRateLimiterTest {
+
+  @Test
+  public void chargesLeasedBatches() {
+    final AtomicLong clock = new AtomicLong(0L);
+    final ByteRateLimiter limiter =
+        new ByteRateLimiter(RateProfile.flat(1000.0), 100, clock::get, clock::addAndGet);
+
+    // First charge leases a whole batch of 100 bytes, which takes 100ms at 1000 B/s
+    assertEquals(0.1, limiter.acquire(50), 1e-9);
+    assertEquals(100_000_000L, clock.get());
+
+    // The rest of the lease is spent without touching the shared bucket
+    assertEquals(0.0, limiter.acquire(50), 0.0);
+    assertEquals(100_000_000L, clock.get());
+
+    assertEquals(0.1, limiter.acquire(100), 1e-9);
+    assertEquals(200_000_000L, clock.get());
+  }
+
+  @Test
+  public void leasesAreLargeEnoughForBigReads() {
+    final AtomicLong clock = new AtomicLong(0L);
+    final ByteRateLimiter limiter =
+        new ByteRateLimiter(RateProfile.flat(1000.0), 100, clock::get, clock::addAndGet);
+
+    assertEquals(1.0, limiter.acquire(1000), 1e-9);
+    assertEquals(0.1, limiter.acquire(1), 1e-9);
+  }
+
+  @Test
+  public void unlimitedNeverWaits() {
+    final ByteRateLimiter limiter = new ByteRateLimiter(
+        RateProfile.flat(Long.MAX_VALUE), 100, () -> 0L, pNanos -> fail("Slept " + pNanos));
+
+    assertEquals(0.0, limiter.acquire(Integer.MAX_VALUE), 0.0);
+  }
+
+  @Test
+  public void followsARampFromZero() {
+    final AtomicLong clock = new AtomicLong(0L);
+    // 10MB/s reached after 300s, so rate(t) = t * 33,333 B/s
+    final ByteRateLimiter limiter = new ByteRateLimiter(
+        RateProfile.ramp(0.0, 10e6, 300.0), 1, clock::get, clock::addAndGet);
+
+    // The first chunk is repaid once t^2 * 33,333 / 2 = 358,400, not at the clamped rate of 1 B/s
+    assertEquals(Math.sqrt(2.0 * 358400 / (10e6 / 300.0)), limiter.acquire(358400), 0.01);
+
+    // Further along, a chunk takes what the rising rate allows, a little less than at the current one
+    final double seconds = limiter.secondsToAllow(30.0, 358400);
+    assertTrue(seconds < 358400 / (10e6 / 300.0 * 30.0));
+    assertEquals(358400, limiter.bytesAllowed(30.0, 30.0 + seconds), 100.0);
+
+    // Half of 300s at an average of 5MB/s
+    assertEquals(1.5e9, limiter.bytesAllowed(0.0, 300.0), 1e3);
+  }
+
+  @Test
+  public void profiles() {
+    assertEquals(100.0, RateProfile.ramp(0.0, 200.0, 10.0).rateAt(5.0), 1e-9);
+    assertEquals(200.0, RateProfile.ramp(0.0, 200.0, 10.0).rateAt(60.0), 1e-9);
+
+    final RateProfile step = RateProfile.step(400.0, 4, 10.0);
+    assertEquals(100.0, step.rateAt(0.0), 1e-9);
+    assertEquals(300.0, step.rateAt(25.0), 1e-9);
+    assertEquals(400.0, step.rateAt(1000.0), 1e-9);
+
+    final RateProfile sine = RateProfile.sine(100.0, 0.5, 40.0);
+    assertEquals(75.0, sine.rateAt(0.0), 1e-9);
+    assertEquals(100.0, sine.rateAt(10.0), 1e-9);
+    assertEquals(50.0, sine.rateAt(30.0), 1e-9);
+
+    final RateProfile burst = RateProfile.burst(100.0, 4.0, 5.0, 60.0);
+    assertEquals(400.0, burst.rateAt(62.0), 1e-9);
+    assertEquals(100.0, burst.rateAt(70.0), 1e-9);
+  }
+}
@@ -0,0 +1,98 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.junit.Test;
+
+public class ChunkBufferPoolTest {
+
+  @Test
+  public void reusesReleasedBuffers() {
+    final ChunkBufferPool pool = new ChunkBufferPool(16, 1);
+
+    final byte[] first = pool.acquire(10);
+    final byte[] second = pool.acquire(16);
+    assertEquals(16, first.length);
+    assertEquals(0, pool.getHits());
+    assertEquals(2, pool.getMisses());
+
+    pool.release(first);
+    pool.release(second);
+    assertEquals(1, pool.getPooled());
+    assertSame(first, pool.acquire(4));
+    assertEquals(1, pool.getHits());
+
+    // Oversized requests are allocated exactly and never pooled
+    final byte[] oversized = pool.acquire(17);
+    assertEquals(17, oversized.length);
+    pool.release(oversized);
+    assertEquals(0, pool.getPooled());
+  }
+
+  @Test
+  public void pooledDocumentsIgnoreBufferSlack() {
+    final ChunkBufferPool pool = new ChunkBufferPool(256, 4);
+    final ChunkDocumentEncoder encoder = new ChunkDocumentEncoder(new BsonString("abc"), pool);
+
+    final RawBsonDocument full = encoder.encode(0, new byte[]{1, 2, 3, 4}, 0, 4);
+    encoder.release(full);
+    final RawBsonDocument partial = encoder.encode(1, new byte[]{5}, 0, 1);
+
+    assertEquals(1, pool.getHits());
+    assertEquals(encoder.documentSize(1), partial.getByteBuffer().remaining());
+    assertEquals(new BsonDocument()
+        .append("files_id", new BsonString("abc"))
+        .append("n", new BsonInt32(1))
+        .append("data", new BsonBinary(new byte[]{5})), partial);
+  }
+
+  @Test
+  public void streamReadersHandTheirChunkBack() throws IOException {
+    final ChunkBufferPool pool = new ChunkBufferPool(16, 2);
+    final byte[] data = new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+
+    for (int file = 0; file < 3; file++) {
+      final ChunkReader reader = ChunkReader.ofStream(new ByteArrayInputStream(data), 4, pool);
+      // Reads stop at the chunk size, not at the larger pooled buffer's
+      assertEquals(4, reader.next().remaining());
+      assertEquals(4, reader.next().remaining());
+      final ByteBuffer last = reader.next();
+      assertEquals(2, last.remaining());
+      assertEquals(9, last.get());
+      assertNull(reader.next());
+      reader.close();
+      reader.close();
+    }
+
+    // Only the first file allocated, and closing twice pooled its buffer once
+    assertEquals(1, pool.getMisses());
+    assertEquals(2, pool.getHits());
+    assertEquals(1, pool.getPooled());
+  }
+
+  @Test
+  public void compressorScratchBuffersComeFromThePool() throws IOException {
+    final ChunkBufferPool pool = new ChunkBufferPool(
+        ChunkCodec.SNAPPY.maxCompressedLength(1000), 2);
+    for (int file = 0; file < 3; file++) {
+      try (final CompressingChunkReader reader = new CompressingChunkReader(ChunkCodec.SNAPPY,
+          ChunkReader.ofStream(new ByteArrayInputStream(new byte[2500]), 1000), pool)) {
+        while (reader.next() != null) {
+          // Compressed into the same scratch buffer every chunk
+        }
+        assertEquals(2500, reader.getOriginalBytes());
+      }
+    }
+
+    assertEquals(1, pool.getMisses());
+    assertEquals(2, pool.getHits());
+  }
+}
@@ -0,0 +1,95 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32C;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.junit.Test;
+
+public class ChunkChecksumsTest {
+  private static final int CHUNK_SIZE = 1000;
+
+  @Test
+  public void addsChecksumsAtTheEnd() throws IOException {
+    final byte[] data = randomBytes(3500);
+    final Document metadata = new Document("type", "iso");
+
+    try (final ChunkReader reader = new ChecksummingChunkReader(
+        ChunkReader.ofStream(new ByteArrayInputStream(data), CHUNK_SIZE),
+        new ChunkChecksums(data.length, CHUNK_SIZE), metadata, "id")) {
+      while (reader.next() != null) {
+        assertFalse(metadata.containsKey(ChunkChecksums.FIELD));
+      }
+    }
+
+    final Document checksum = metadata.get(ChunkChecksums.FIELD, Document.class);
+    final ByteBuffer chunks = ByteBuffer.wrap(checksum.get("chunks", Binary.class).getData());
+    assertEquals(16, chunks.remaining());
+    final ByteBuffer expectedChunks = ByteBuffer.allocate(16);
+    for (int offset = 0; offset < data.length; offset += CHUNK_SIZE) {
+      final CRC32C crc = new CRC32C();
+      crc.update(data, offset, Math.min(CHUNK_SIZE, data.length - offset));
+      expectedChunks.putInt((int) crc.getValue());
+    }
+    final CRC32C file = new CRC32C();
+    file.update(expectedChunks.array());
+
+    assertEquals(ChunkChecksums.ALGORITHM, checksum.getString("algorithm"));
+    assertEquals(file.getValue(), checksum.getLong("file").longValue());
+    assertArrayEquals(expectedChunks.array(), chunks.array());
+    assertNotNull(ChunkChecksums.ofMetadata(metadata.toBsonDocument()));
+    assertNull(ChunkChecksums.ofMetadata(new BsonDocument()));
+  }
+
+  @Test
+  public void rangesInAnyOrderMatchTheWholeFile() throws IOException {
+    final byte[] data = randomBytes(10 * CHUNK_SIZE + 1);
+    final ChunkChecksums whole = new ChunkChecksums(data.length, CHUNK_SIZE);
+    readAll(new ChecksummingChunkReader(
+        ChunkReader.ofStream(new ByteArrayInputStream(data), CHUNK_SIZE), whole, 0));
+
+    final ChunkChecksums ranged = new ChunkChecksums(data.length, CHUNK_SIZE);
+    readAll(new ChecksummingChunkReader(ChunkReader.ofStream(
+        new ByteArrayInputStream(Arrays.copyOfRange(data, 6 * CHUNK_SIZE, data.length)), CHUNK_SIZE), ranged, 6));
+    assertFalse(ranged.isComplete());
+    readAll(new ChecksummingChunkReader(ChunkReader.ofStream(
+        new ByteArrayInputStream(Arrays.copyOf(data, 6 * CHUNK_SIZE)), CHUNK_SIZE), ranged, 0));
+
+    assertTrue(ranged.isComplete());
+    assertEquals(11, ranged.getChunkCount());
+    assertEquals(whole.getFileChecksum(), ranged.getFileChecksum());
+  }
+
+  @Test
+  public void skipsFilesThatChangedWhileRead() throws IOException {
+    final byte[] data = randomBytes(2500);
+    final Document metadata = new Document();
+
+    // The file grew after its length was taken
+    readAll(new ChecksummingChunkReader(ChunkReader.ofStream(new ByteArrayInputStream(data), CHUNK_SIZE),
+        new ChunkChecksums(1500, CHUNK_SIZE), metadata, "id"));
+
+    assertFalse(metadata.containsKey(ChunkChecksums.FIELD));
+  }
+
+  private static void readAll(final ChunkReader pReader) throws IOException {
+    try (final ChunkReader reader = pReader) {
+      while (reader.next() != null) {
+        // Checksums are recorded as chunks pass
+      }
+    }
+  }
+
+  private static byte[] randomBytes(final int pLength) {
+    final byte[] data = new byte[pLength];
+    new Random(pLength).nextBytes(data);
+    return data;
+  }
+}
@@ -0,0 +1,93 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import com.jmo.mongo.javadriver.gridfs.FileCatalog.StoredFile;
+import com.mongodb.MongoClientSettings;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.Test;
+
+public class ChunkCodecTest {
+
+  @Test
+  public void roundTrips() throws Exception {
+    final byte[] data = new byte[10000];
+    Arrays.fill(data, 5000, data.length, (byte) 7);
+
+    for (final ChunkCodec codec : ChunkCodec.values()) {
+      final byte[] target = new byte[codec.maxCompressedLength(data.length - 10)];
+      final int length = codec.compress(data, 10, data.length - 10, target);
+
+      final byte[] restored = codec.decompress(Arrays.copyOf(target, length), data.length - 10);
+      assertArrayEquals(codec.name(), Arrays.copyOfRange(data, 10, data.length), restored);
+      if (codec != ChunkCodec.NONE) {
+        assertTrue(codec.name(), length < data.length / 10);
+      }
+    }
+  }
+
+  @Test
+  public void compressesDirectChunks() throws Exception {
+    final ByteBuffer chunk = ByteBuffer.allocateDirect(4096);
+    chunk.put(new byte[4096]).flip();
+    final CompressingChunkReader reader = new CompressingChunkReader(ChunkCodec.SNAPPY, new ChunkReader() {
+      private boolean _done;
+
+      @Override
+      public ByteBuffer next() {
+        if (_done) {
+          return null;
+        }
+        _done = true;
+        return chunk;
+      }
+
+      @Override
+      public void close() {
+      }
+    });
+
+    final ByteBuffer compressed = reader.next();
+    assertNull(reader.next());
+    assertEquals(0, chunk.position());
+    assertEquals(4096, reader.getOriginalBytes());
+    assertEquals(compressed.remaining(), reader.getCompressedBytes());
+
+    final byte[] stored = new byte[compressed.remaining()];
+    compressed.get(stored);
+    assertArrayEquals(new byte[4096], ChunkCodec.SNAPPY.decompress(stored, 4096));
+  }
+
+  @Test
+  public void readsCodecFromMetadata() {
+    assertEquals(ChunkCodec.NONE, ChunkCodec.ofMetadata(null));
+    assertEquals(ChunkCodec.NONE, ChunkCodec.ofMetadata(new BsonDocument("type", new BsonString("iso"))));
+    assertEquals(ChunkCodec.ZSTD, ChunkCodec.ofMetadata(BsonDocument.parse(
+        "{type: 'iso', compression: {codec: 'zstd', length: 10, storedLength: 4}}")));
+  }
+
+  @Test
+  public void storedFilesRecordTheirCodec() {
+    // What mixed workload registers for download after a batched upload
+    final StoredFile compressed = storedFile(BatchedChunkWriter.filesDocument(new BsonString("a"), "a",
+        1000L, 256, new Document("type", "iso"), ChunkCodec.SNAPPY, 120L));
+    assertEquals(ChunkCodec.SNAPPY, ChunkCodec.ofMetadata(compressed.getMetadata()));
+    assertEquals(1000L, compressed.getLength());
+    assertEquals(256, compressed.getChunkSize());
+    assertEquals("iso", compressed.getMetadata().getString("type").getValue());
+
+    final StoredFile plain = storedFile(BatchedChunkWriter.filesDocument(new BsonString("b"), "b",
+        1000L, 256, new Document(), ChunkCodec.NONE, 1000L));
+    assertEquals(ChunkCodec.NONE, ChunkCodec.ofMetadata(plain.getMetadata()));
+    assertFalse(plain.getMetadata().containsKey("compression"));
+  }
+
+  private static StoredFile storedFile(final Document pFilesDocument) {
+    return StoredFile.of(
+        pFilesDocument.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry()));
+  }
+}
@@ -0,0 +1,46 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+public class ChunkDocumentEncoderTest {
+
+  @Test
+  public void encodeMatchesDriverLayout() throws Exception {
+    final ChunkDocumentEncoder encoder = new ChunkDocumentEncoder(new BsonString("abc"));
+    final byte[] data = new byte[]{9, 1, 2, 3, 9};
+
+    final RawBsonDocument chunk = encoder.encode(7, data, 1, 3);
+
+    final BsonDocument expected = new BsonDocument()
+        .append("files_id", new BsonString("abc"))
+        .append("n", new BsonInt32(7))
+        .append("data", new BsonBinary(new byte[]{1, 2, 3}));
+    assertEquals(expected, chunk);
+    assertEquals(encoder.documentSize(3), chunk.getByteBuffer().remaining());
+    assertEquals(RawBsonDocument.parse(expected.toJson()), chunk);
+  }
+
+  @Test
+  public void encodeByteBufferLeavesPosition() throws Exception {
+    final ObjectId id = new ObjectId();
+    final ChunkDocumentEncoder encoder = new ChunkDocumentEncoder(new BsonObjectId(id));
+    final ByteBuffer data = ByteBuffer.allocateDirect(4);
+    data.put(new byte[]{4, 3, 2, 1}).flip();
+
+    final RawBsonDocument chunk = encoder.encode(0, data);
+
+    assertEquals(0, data.position());
+    assertEquals(new BsonObjectId(id), chunk.get("files_id"));
+    assertArrayEquals(new byte[]{4, 3, 2, 1}, chunk.getBinary("data").getData());
+  }
+}
@@ -0,0 +1,160 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.jmo.mongo.javadriver.gridfs.FileCatalog.StoredFile;
+import com.mongodb.client.MongoCollection;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.Test;
+
+public class DedupStoreTest {
+  private static final int MAX_DOCUMENT_BYTES = 16 * 1024 * 1024;
+
+  @Test
+  public void manifestAtTheChunkLimitFitsInADocument() {
+    final int chunks = DedupStore.MAX_MANIFEST_CHUNKS;
+    final BsonArray hashes = new BsonArray(new ArrayList<>(chunks));
+    final ChunkChecksums checksums = new ChunkChecksums(chunks, 1);
+    for (int n = 0; n < chunks; n++) {
+      hashes.add(new BsonBinary(new byte[32]));
+      checksums.record(n, ByteBuffer.wrap(new byte[]{(byte) n}));
+    }
+    final Document metadata = new Document("source", "/some/where/file.bin");
+    assertTrue(checksums.appendTo(metadata, "id"));
+
+    final char[] name = new char[1024];
+    Arrays.fill(name, 'f');
+    final RawBsonDocument manifest = new RawBsonDocument(DedupStore.manifest(new BsonString("id"),
+        new String(name), DedupStore.maxFileBytes(1 << 20), 1 << 20, metadata, hashes),
+        new BsonDocumentCodec());
+    assertTrue(manifest.getByteBuffer().remaining() <= MAX_DOCUMENT_BYTES);
+    assertEquals((long) chunks << 20, DedupStore.maxFileBytes(1 << 20));
+  }
+
+  @Test
+  public void refusesFilesThatGrowPastTheLimit() throws IOException {
+    // Batches never fill up, so nothing is written before the limit is hit
+    final DedupStore store = new DedupStore((MongoCollection<RawBsonDocument>) null, null,
+        1, Integer.MAX_VALUE, 1, 1L, 1, null);
+    try (final ChunkReader reader = ChunkReader.ofStream(
+        new ByteArrayInputStream(new byte[DedupStore.MAX_MANIFEST_CHUNKS + 1]), 1)) {
+      store.upload(new BsonString("id"), "grown", reader, new Document());
+      fail("Uploaded a file past the manifest limit");
+    } catch (IOException pE) {
+      assertTrue(pE.getMessage(), pE.getMessage().contains("grown"));
+    } finally {
+      store.shutdown();
+    }
+  }
+
+  @Test
+  public void blobsEncodeLikeTheDriver() {
+    final ChunkBufferPool pool = new ChunkBufferPool(256, 1);
+    final ByteBuffer chunk = ByteBuffer.wrap(new byte[]{9, 1, 2, 3, 9}, 1, 3);
+    final HashCode hash = Hashing.sha256().hashBytes(chunk.duplicate());
+
+    final RawBsonDocument first = DedupStore.encodeBlob(hash, chunk, pool);
+    assertEquals(1, chunk.position());
+    assertEquals(new BsonDocument("_id", new BsonBinary(hash.asBytes()))
+        .append("data", new BsonBinary(new byte[]{1, 2, 3})), first);
+
+    pool.release(first.getByteBuffer().array());
+    final RawBsonDocument second = DedupStore.encodeBlob(hash, ByteBuffer.wrap(new byte[1]), pool);
+    assertEquals(1, pool.getHits());
+    assertEquals(new BsonBinary(new byte[1]), second.getBinary("data"));
+  }
+
+  @Test
+  public void reassemblesInManifestOrder() throws IOException {
+    final Map<BsonValue, byte[]> stored = new HashMap<>();
+    final List<BsonValue> hashes = new ArrayList<>();
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (int n = 0; n < 130; n++) {
+      // Every third chunk repeats the first
+      final byte[] data = n % 3 == 0 ? new byte[]{0, 0} : new byte[]{(byte) n, (byte) (n >> 8)};
+      final BsonBinary hash = new BsonBinary(Hashing.sha256().hashBytes(data).asBytes());
+      stored.put(hash, data);
+      hashes.add(hash);
+      expected.write(data);
+    }
+
+    final List<Integer> lookups = new ArrayList<>();
+    final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    final AtomicLong count = new AtomicLong();
+    final long length = DedupStore.reassemble(file(260), hashes, wanted -> {
+      lookups.add(wanted.size());
+      final Map<BsonValue, byte[]> found = new HashMap<>();
+      wanted.forEach(hash -> found.put(hash, stored.get(hash)));
+      return found;
+    }, sink, ByteRateLimiter.create(Double.MAX_VALUE), count);
+
+    assertEquals(260, length);
+    assertEquals(260, count.get());
+    assertArrayEquals(expected.toByteArray(), sink.toByteArray());
+    assertEquals(List.of(64, 64, 2), lookups);
+  }
+
+  @Test
+  public void missingBlobsFail() {
+    final BsonBinary hash = new BsonBinary(new byte[32]);
+    try {
+      reassemble(file(2), List.of(hash), Map.of());
+      fail("Reassembled a file with a missing blob");
+    } catch (IOException pE) {
+      assertTrue(pE.getMessage(), pE.getMessage().startsWith("Missing blob"));
+    }
+  }
+
+  @Test
+  public void blobsMustAddUpToTheFileLength() throws IOException {
+    final BsonBinary hash = new BsonBinary(new byte[32]);
+    final Map<BsonValue, byte[]> blobs = Map.of(hash, new byte[]{1, 2});
+    assertEquals(4, reassemble(file(4), List.of(hash, hash), blobs).length);
+
+    try {
+      reassemble(file(3), List.of(hash, hash), blobs);
+      fail("Reassembled more bytes than the file has");
+    } catch (IOException pE) {
+      assertTrue(pE.getMessage(), pE.getMessage().contains("run past"));
+    }
+    try {
+      reassemble(file(5), List.of(hash, hash), blobs);
+      fail("Reassembled fewer bytes than the file has");
+    } catch (IOException pE) {
+      assertTrue(pE.getMessage(), pE.getMessage().contains("add up to 4"));
+    }
+  }
+
+  private static StoredFile file(final long pLength) {
+    return new StoredFile(new BsonString("id"), "file", pLength, 2, new BsonDocument());
+  }
+
+  private static byte[] reassemble(
+      final StoredFile pFile,
+      final List<BsonValue> pHashes,
+      final Map<BsonValue, byte[]> pBlobs) throws IOException {
+    final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    DedupStore.reassemble(pFile, pHashes, wanted -> pBlobs, sink,
+        ByteRateLimiter.create(Double.MAX_VALUE), new AtomicLong());
+    return sink.toByteArray();
+  }
+}
@@ -0,0 +1,43 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import com.jmo.mongo.javadriver.gridfs.FileCatalog.FileSelector;
+import com.jmo.mongo.javadriver.gridfs.FileCatalog.Selection;
+import com.jmo.mongo.javadriver.gridfs.FileCatalog.StoredFile;
+import java.util.ArrayList;
+import java.util.List;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.junit.Test;
+
+public class FileCatalogTest {
+
+  @Test
+  public void zipfCdf() throws Exception {
+    final double[] cdf = FileCatalog.zipfCdf(4, 1.0);
+
+    assertEquals(1.0, cdf[3], 1e-9);
+    assertEquals(12.0 / 25.0, cdf[0], 1e-9);
+    assertEquals(0, FileCatalog.zipfIndex(cdf, 0.0));
+    assertEquals(0, FileCatalog.zipfIndex(cdf, 0.48));
+    assertEquals(1, FileCatalog.zipfIndex(cdf, 0.5));
+    assertEquals(3, FileCatalog.zipfIndex(cdf, 0.9999));
+  }
+
+  @Test
+  public void sequentialSelection() throws Exception {
+    final List<StoredFile> files = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      files.add(new StoredFile(new BsonString("id" + i), "file" + i, 10L, 4, new BsonDocument()));
+    }
+
+    final FileSelector selector = new FileCatalog(files).newSelector(Selection.SEQUENTIAL, 1.0);
+
+    assertEquals("id0", selector.next().getIdString());
+    assertEquals("id1", selector.next().getIdString());
+    assertEquals("id2", selector.next().getIdString());
+    assertEquals("id0", selector.next().getIdString());
+    assertEquals(3, files.get(0).getChunkCount());
+  }
+}
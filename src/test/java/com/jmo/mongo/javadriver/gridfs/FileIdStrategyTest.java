@@ -0,0 +1,71 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import com.google.common.primitives.UnsignedBytes;
+import java.util.List;
+import java.util.UUID;
+import org.bson.BsonValue;
+import org.junit.Test;
+
+public class FileIdStrategyTest {
+
+  @Test
+  public void idsRoundTripThroughText() {
+    for (final FileIdStrategy strategy : FileIdStrategy.values()) {
+      final BsonValue id = strategy.next();
+      assertEquals(strategy.name(), id, strategy.parse(strategy.toString(id)));
+    }
+    assertEquals(16, FileIdStrategy.BINARY.next().asBinary().getData().length);
+    assertEquals(4, FileIdStrategy.UUIDV7.next().asBinary().getType());
+  }
+
+  @Test
+  public void uuidV7IsTimeOrdered() {
+    final UUID uuid = FileIdStrategy.uuidV7(0x0123456789ABL);
+    assertEquals(7, uuid.version());
+    assertEquals(2, uuid.variant());
+    assertEquals(0x0123456789ABL, uuid.getMostSignificantBits() >>> 16);
+
+    final byte[] earlier = FileIdStrategy.UUIDV7.parse(FileIdStrategy.uuidV7(1000L).toString())
+        .asBinary().getData();
+    final byte[] later = FileIdStrategy.UUIDV7.parse(FileIdStrategy.uuidV7(1001L).toString())
+        .asBinary().getData();
+    assertTrue(UnsignedBytes.lexicographicalComparator().compare(earlier, later) < 0);
+  }
+
+  @Test
+  public void boundariesAscend() {
+    final long now = 1700000000000L;
+    for (final FileIdStrategy strategy : FileIdStrategy.values()) {
+      final List<BsonValue> boundaries = strategy.boundaries(8, now, 8000L);
+      assertEquals(8, boundaries.size());
+      for (int i = 1; i < boundaries.size(); i++) {
+        assertTrue(strategy + " boundary " + i,
+            compare(boundaries.get(i - 1), boundaries.get(i)) < 0);
+      }
+    }
+
+    // Binary boundaries cover the whole unsigned range, time ordered ones start now
+    assertEquals(UUID.fromString("e0000000-0000-0000-0000-000000000000"),
+        FileIdStrategy.BINARY.boundaries(8, now, 8000L).get(7).asBinary().asUuid());
+    assertEquals(now / 1000L + 7L,
+        FileIdStrategy.OBJECTID.boundaries(8, now, 8000L).get(7).asObjectId().getValue().getTimestamp());
+    assertEquals(now, FileIdStrategy.UUIDV7.boundaries(8, now, 8000L).get(0)
+        .asBinary().asUuid().getMostSignificantBits() >>> 16);
+  }
+
+  /**
+   * Orders ids of one type the way the server does.
+   */
+  private static int compare(final BsonValue pLeft, final BsonValue pRight) {
+    if (pLeft.isString()) {
+      return pLeft.asString().getValue().compareTo(pRight.asString().getValue());
+    }
+    if (pLeft.isObjectId()) {
+      return pLeft.asObjectId().getValue().compareTo(pRight.asObjectId().getValue());
+    }
+    return UnsignedBytes.lexicographicalComparator()
+        .compare(pLeft.asBinary().getData(), pRight.asBinary().getData());
+  }
+}
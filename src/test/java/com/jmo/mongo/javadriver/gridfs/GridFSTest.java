@@ -2,9 +2,7 @@ package com.jmo.mongo.javadriver.gridfs;
 
 import static org.junit.Assert.*;
 
-import com.google.common.io.CountingInputStream;
 import com.jmo.mongo.javadriver.gridfs.GridFS.StatusEntry;
-import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -35,11 +33,9 @@ public class GridFSTest {
 
   @Test
   public void statusCompare() throws Exception {
-    final StatusEntry first = new StatusEntry("aa", "filename", 2L,
-        new CountingInputStream(new ByteArrayInputStream(new byte[]{1})));
+    final StatusEntry first = new StatusEntry("aa", "filename", 2L, () -> 0L);
     Thread.sleep(1000);
-    final StatusEntry second = new StatusEntry("bb", "filename", 3L,
-        new CountingInputStream(new ByteArrayInputStream(new byte[]{1})));
+    final StatusEntry second = new StatusEntry("bb", "filename", 3L, () -> 0L);
 
     final List<StatusEntry> list = new ArrayList<>(Arrays.asList(second, first));
     Collections.sort(list);
@@ -0,0 +1,85 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IngestJournalTest {
+  @Rule
+  public final TemporaryFolder _folder = new TemporaryFolder();
+
+  @Test
+  public void reopenedJournalKeepsProgress() throws Exception {
+    final Path file = _folder.getRoot().toPath().resolve("ingest.journal");
+    try (final IngestJournal journal = new IngestJournal(file)) {
+      journal.started("/data/a", "id-a", 1000L, 100);
+      journal.acknowledged("id-a", 3);
+      journal.acknowledged("id-a", 6);
+      journal.started("/data/b", "id-b", 50L, 100);
+      journal.completed("id-b");
+    }
+    // Progress of an upload the journal never saw start, then a torn line from a crash mid-write
+    Files.write(file, "A\tid-z\t4\nA\tid-a".getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.APPEND);
+
+    try (final IngestJournal journal = new IngestJournal(file)) {
+      final IngestJournal.Entry a = journal.get("/data/a");
+      assertEquals("id-a", a.getFileId());
+      assertEquals(1000L, a.getLength());
+      assertEquals(100, a.getChunkSize());
+      assertEquals(6, a.getAcknowledgedN());
+      assertFalse(a.isDone());
+
+      assertTrue(journal.get("/data/b").isDone());
+      assertEquals(-1, journal.get("/data/b").getAcknowledgedN());
+      assertNull(journal.get("/data/c"));
+
+      // Restarting a source replaces its earlier upload
+      journal.started("/data/a", "id-a2", 1000L, 100);
+      assertEquals("id-a2", journal.get("/data/a").getFileId());
+      assertEquals(-1, journal.get("/data/a").getAcknowledgedN());
+      journal.acknowledged("id-a2", 2);
+      journal.completed("id-z");
+    }
+
+    // Records written after the torn line don't run into it
+    try (final IngestJournal journal = new IngestJournal(file)) {
+      final IngestJournal.Entry a2 = journal.get("/data/a");
+      assertEquals("id-a2", a2.getFileId());
+      assertEquals(2, a2.getAcknowledgedN());
+      assertFalse(a2.isDone());
+      assertTrue(journal.get("/data/b").isDone());
+    }
+  }
+
+  @Test
+  public void frozenJournalOnlyTracksEarlierUploads() throws Exception {
+    final Path file = _folder.getRoot().toPath().resolve("ingest.journal");
+    try (final IngestJournal journal = new IngestJournal(file)) {
+      journal.started("/data/a", "id-a", 1000L, 100);
+      journal.freeze();
+
+      // A later pass uploads the same source again, none of which is recorded
+      journal.started("/data/a", "id-a2", 1000L, 100);
+      journal.acknowledged("id-a2", 9);
+      journal.completed("id-a2");
+      journal.acknowledged("id-a", 9);
+      journal.completed("id-a");
+    }
+    final long size = Files.size(file);
+
+    try (final IngestJournal journal = new IngestJournal(file)) {
+      assertEquals("id-a", journal.get("/data/a").getFileId());
+      assertEquals(9, journal.get("/data/a").getAcknowledgedN());
+      assertTrue(journal.get("/data/a").isDone());
+    }
+    assertEquals(3, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+    assertEquals(size, Files.size(file));
+  }
+}
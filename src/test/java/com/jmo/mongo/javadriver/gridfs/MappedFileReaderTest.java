@@ -0,0 +1,68 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import com.google.common.io.ByteStreams;
+import com.jmo.mongo.javadriver.gridfs.ChunkReader.ChunkReaderInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedFileReaderTest {
+
+  @Rule
+  public TemporaryFolder _folder = new TemporaryFolder();
+
+  @Test
+  public void slicesIntoChunks() throws Exception {
+    final File file = writeFile(10);
+
+    try (final MappedFileReader reader = new MappedFileReader(file.toPath(), 4)) {
+      assertChunk(reader.next(), 0, 4);
+      assertChunk(reader.next(), 4, 4);
+      assertChunk(reader.next(), 8, 2);
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void readsRange() throws Exception {
+    final File file = writeFile(10);
+
+    try (final MappedFileReader reader = new MappedFileReader(file.toPath(), 4, 4, 8)) {
+      assertChunk(reader.next(), 4, 4);
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void streamsChunks() throws Exception {
+    final File file = writeFile(10);
+
+    try (final InputStream stream =
+        new ChunkReaderInputStream(new MappedFileReader(file.toPath(), 3))) {
+      assertArrayEquals(Files.readAllBytes(file.toPath()), ByteStreams.toByteArray(stream));
+    }
+  }
+
+  private File writeFile(final int pLength) throws Exception {
+    final byte[] data = new byte[pLength];
+    for (int i = 0; i < pLength; i++) {
+      data[i] = (byte) i;
+    }
+    final File file = _folder.newFile();
+    Files.write(file.toPath(), data);
+    return file;
+  }
+
+  private static void assertChunk(final ByteBuffer pChunk, final int pFirst, final int pLength) {
+    assertEquals(pLength, pChunk.remaining());
+    for (int i = 0; i < pLength; i++) {
+      assertEquals(pFirst + i, pChunk.get(pChunk.position() + i));
+    }
+  }
+}
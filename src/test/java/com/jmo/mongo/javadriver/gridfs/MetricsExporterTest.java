@@ -0,0 +1,48 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MetricsExporterTest {
+
+  @Rule
+  public TemporaryFolder _folder = new TemporaryFolder();
+
+  @Test
+  public void csvRow() throws Exception {
+    final Histogram histogram = new Histogram(LatencyRecorder.HIGHEST_TRACKABLE_MICROS, 3);
+    histogram.recordValue(1500);
+
+    assertEquals("t,chunk_insert,1,1.500,1.500,1.500,1.500,1.500,1.500",
+        MetricsExporter.csvRow("t", "chunk_insert", histogram));
+  }
+
+  @Test
+  public void exportsCsvAndPrometheus() throws Exception {
+    Metrics.FILE_COMPLETION.recordNanos(TimeUnit.MILLISECONDS.toNanos(250));
+    Metrics.sampleAll();
+
+    final File file = new File(_folder.getRoot(), "metrics.csv");
+    try (final MetricsExporter exporter =
+        new MetricsExporter(file.toPath(), MetricsExporter.Format.CSV, 0)) {
+      exporter.export(0L, 42L, 1.0);
+    }
+
+    final List<String> lines = Files.readAllLines(file.toPath());
+    assertTrue(lines.get(0).startsWith("timestamp,metric,count"));
+    assertTrue(lines.stream().anyMatch(line -> line.startsWith("1970-01-01T00:00:00Z,file_completion,1,")));
+
+    final String prometheus = MetricsExporter.renderPrometheus(42L);
+    assertTrue(prometheus.contains("gridfs_bytes_total 42\n"));
+    assertTrue(prometheus.contains("# TYPE gridfs_file_completion_seconds summary\n"));
+    assertTrue(prometheus.contains("gridfs_file_completion_seconds{quantile=\"0.5\"} 0.25"));
+  }
+}
@@ -0,0 +1,37 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import com.jmo.mongo.javadriver.gridfs.OpenLoopScheduler.Operation;
+import com.jmo.mongo.javadriver.gridfs.OpenLoopScheduler.OperationHandler;
+import com.jmo.mongo.javadriver.gridfs.OpenLoopScheduler.OperationStats;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+public class OpenLoopSchedulerTest {
+
+  @Test
+  public void latencyIncludesQueueing() throws Exception {
+    final OperationHandler slow = () -> {
+      Thread.sleep(20);
+      return 1L;
+    };
+    final OpenLoopScheduler scheduler = new OpenLoopScheduler(100.0,
+        Map.of(Operation.LOOKUP, 1.0, Operation.DELETE, 0.0),
+        Map.of(Operation.LOOKUP, slow), 1);
+
+    scheduler.run(TimeUnit.MILLISECONDS.toNanos(200));
+
+    final OperationStats stats = scheduler.getStats().get(Operation.LOOKUP);
+    assertFalse(scheduler.getStats().containsKey(Operation.DELETE));
+    assertEquals(20, stats.getBytes());
+
+    final Histogram latency = stats.getLatency().sampleInterval().copy();
+    final Histogram service = stats.getService().sampleInterval();
+    assertEquals(20, latency.getTotalCount());
+    // A single worker takes 20ms per 10ms slot, so the last operation waits ~200ms to start
+    assertTrue(latency.getMaxValue() > 3 * service.getMaxValue());
+  }
+}
@@ -0,0 +1,162 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.junit.Test;
+
+public class RangedUploadTest {
+  private static final int CHUNK_SIZE = 10;
+  private static final BsonValue FILE_ID = new BsonString("file");
+
+  @Test
+  public void writesEveryChunkAtItsNumber() {
+    final byte[] data = randomBytes(95);
+    final FakeWriter writer = new FakeWriter(-1);
+    final List<RangedUpload> completed = new ArrayList<>();
+    final RangedUpload upload = new RangedUpload(writer, null, ByteRateLimiter.create(Double.MAX_VALUE),
+        new MemorySource(data), FILE_ID, new Document(), new ChunkChecksums(data.length, CHUNK_SIZE),
+        3, completed::add);
+
+    // 10 chunks in ranges of 3, the last one short
+    assertEquals(4, upload.getRangeCount());
+    for (int range = upload.getRangeCount() - 1; range >= 0; range--) {
+      assertNull(writer._filesDocument);
+      assertTrue(completed.isEmpty());
+      upload.uploadRange(range);
+    }
+
+    assertEquals(List.of(upload), completed);
+    assertNull(upload.getFailure());
+    assertEquals(95, upload.getCount());
+    assertEquals(10, writer._chunks.size());
+    for (int n = 0; n < 10; n++) {
+      assertArrayEquals(String.valueOf(n),
+          Arrays.copyOfRange(data, n * CHUNK_SIZE, Math.min(data.length, (n + 1) * CHUNK_SIZE)),
+          writer._chunks.get(n));
+    }
+    assertEquals(95L, writer._filesLength);
+    assertTrue(writer._filesDocument.containsKey(ChunkChecksums.FIELD));
+    assertFalse(writer._aborted);
+  }
+
+  @Test
+  public void abortsIfAnyRangeFails() {
+    final byte[] data = randomBytes(95);
+    final FakeWriter writer = new FakeWriter(3);
+    final List<RangedUpload> completed = new ArrayList<>();
+    final RangedUpload upload = new RangedUpload(writer, null, ByteRateLimiter.create(Double.MAX_VALUE),
+        new MemorySource(data), FILE_ID, new Document(), null, 3, completed::add);
+
+    for (int range = 0; range < upload.getRangeCount(); range++) {
+      upload.uploadRange(range);
+    }
+
+    assertEquals(List.of(upload), completed);
+    assertTrue(upload.getFailure() instanceof IOException);
+    assertNull(writer._filesDocument);
+    assertTrue(writer._aborted);
+  }
+
+  private static byte[] randomBytes(final int pLength) {
+    final byte[] data = new byte[pLength];
+    new Random(pLength).nextBytes(data);
+    return data;
+  }
+
+  /**
+   * Keeps chunks in memory, failing the range starting at a given chunk number.
+   */
+  private static class FakeWriter implements RangedUpload.ChunkWriter {
+    private final int _failStartN;
+    private final Map<Integer, byte[]> _chunks = new ConcurrentHashMap<>();
+    private Document _filesDocument;
+    private long _filesLength;
+    private boolean _aborted;
+
+    FakeWriter(final int pFailStartN) {
+      _failStartN = pFailStartN;
+    }
+
+    @Override
+    public int getChunkSizeBytes() {
+      return CHUNK_SIZE;
+    }
+
+    @Override
+    public ChunkDocumentEncoder newEncoder(final BsonValue pFileId) {
+      return new ChunkDocumentEncoder(pFileId);
+    }
+
+    @Override
+    public long writeChunks(final ChunkDocumentEncoder pEncoder, final int pStartN, final ChunkReader pReader)
+        throws IOException {
+      if (pStartN == _failStartN) {
+        throw new IOException("Simulated failure at chunk " + pStartN);
+      }
+      long length = 0L;
+      int n = pStartN;
+      ByteBuffer chunk;
+      while ((chunk = pReader.next()) != null) {
+        final byte[] copy = new byte[chunk.remaining()];
+        chunk.get(copy);
+        _chunks.put(n++, copy);
+        length += copy.length;
+      }
+      return length;
+    }
+
+    @Override
+    public void writeFilesDocument(
+        final ChunkDocumentEncoder pEncoder, final String pFilename, final long pLength, final Document pMetadata) {
+      assertNull("files document written twice", _filesDocument);
+      _filesDocument = pMetadata;
+      _filesLength = pLength;
+    }
+
+    @Override
+    public void abort(final BsonValue pFileId) {
+      _aborted = true;
+    }
+  }
+
+  private static class MemorySource implements UploadSource {
+    private final byte[] _data;
+
+    MemorySource(final byte[] pData) {
+      _data = pData;
+    }
+
+    @Override
+    public String getName() {
+      return "memory";
+    }
+
+    @Override
+    public long length() {
+      return _data.length;
+    }
+
+    @Override
+    public long lastModified() {
+      return 0L;
+    }
+
+    @Override
+    public InputStream openStream() {
+      return new ByteArrayInputStream(_data);
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class RetentionReaperTest {
+
+  @Test
+  public void excessFiles() {
+    assertEquals(0, RetentionReaper.excessFiles(1000L, 10L, 1000L, 10L));
+    assertEquals(5, RetentionReaper.excessFiles(1000L, 15L, Long.MAX_VALUE, 10L));
+
+    // 130 bytes per file on average, 300 bytes over takes 3 files
+    assertEquals(3, RetentionReaper.excessFiles(1300L, 10L, 1000L, Long.MAX_VALUE));
+    // Whichever limit needs more files wins
+    assertEquals(3, RetentionReaper.excessFiles(1300L, 10L, 1000L, 8L));
+    assertEquals(6, RetentionReaper.excessFiles(1300L, 16L, 1000L, 10L));
+    // Always at least one once over, even by a byte
+    assertEquals(1, RetentionReaper.excessFiles(1001L, 1000L, 1000L, Long.MAX_VALUE));
+    assertEquals(1, RetentionReaper.excessFiles(1L, 0L, 0L, Long.MAX_VALUE));
+  }
+
+  @Test
+  public void pacesBatches() {
+    // Unpaced batches start straight away
+    assertEquals(5L, RetentionReaper.nextBatchNanos(10L, 5L, 100, 0.0));
+
+    // 100 files at 50 files/s is 2s until the next batch
+    assertEquals(2_000_000_000L, RetentionReaper.nextBatchNanos(0L, 0L, 100, 50.0));
+    assertEquals(4_000_000_000L, RetentionReaper.nextBatchNanos(0L, 2_000_000_000L, 100, 50.0));
+    // Time spent idle isn't saved up for a burst later
+    assertEquals(12_000_000_000L,
+        RetentionReaper.nextBatchNanos(10_000_000_000L, 2_000_000_000L, 100, 50.0));
+  }
+}
@@ -0,0 +1,47 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class RunBudgetTest {
+
+  @Test
+  public void stopsAtFirstExhaustedLimit() {
+    final RunBudget bytes = new RunBudget(RunBudget.UNLIMITED, 100L, RunBudget.UNLIMITED, () -> 0L);
+    assertTrue(bytes.tryStart(60L));
+    // The file that reaches the budget still starts, whole
+    assertTrue(bytes.tryStart(60L));
+    assertFalse(bytes.tryStart(1L));
+    assertEquals("120 byte(s) started", bytes.getStopReason());
+    assertEquals(2, bytes.getStartedFiles());
+
+    final RunBudget files = new RunBudget(RunBudget.UNLIMITED, RunBudget.UNLIMITED, 1L, () -> 0L);
+    assertTrue(files.tryStart(1000L));
+    assertFalse(files.tryStart(1L));
+    assertTrue(files.isStopped());
+  }
+
+  @Test
+  public void stopsAfterDurationOrWhenAsked() {
+    final AtomicLong now = new AtomicLong(500L);
+    final RunBudget budget =
+        new RunBudget(1000L, RunBudget.UNLIMITED, RunBudget.UNLIMITED, now::get);
+    assertTrue(budget.tryStart(1L));
+    now.set(1499L);
+    assertTrue(budget.tryStart(1L));
+    now.set(1500L);
+    assertFalse(budget.tryStart(1L));
+    assertEquals("duration reached", budget.getStopReason());
+
+    final RunBudget unlimited =
+        new RunBudget(RunBudget.UNLIMITED, RunBudget.UNLIMITED, RunBudget.UNLIMITED, now::get);
+    now.set(Long.MAX_VALUE);
+    assertTrue(unlimited.tryStart(Long.MAX_VALUE));
+    unlimited.stop("shutdown requested");
+    unlimited.stop("ignored");
+    assertFalse(unlimited.tryStart(1L));
+    assertEquals("shutdown requested", unlimited.getStopReason());
+  }
+}
@@ -0,0 +1,94 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.ServerAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.Test;
+
+public class ShardPresplitterTest {
+
+  @Test
+  public void assignsShardsRoundRobin() {
+    final List<Document> mins = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      mins.add(new Document("files_id", i));
+    }
+
+    final List<Document> moves = ShardPresplitter.assignShards(mins, List.of("a", "b", "c"));
+    assertEquals(5, moves.size());
+    final List<String> shards = new ArrayList<>();
+    for (int i = 0; i < moves.size(); i++) {
+      assertSame(mins.get(i), moves.get(i).get("min"));
+      shards.add(moves.get(i).getString("shard"));
+    }
+    assertEquals(List.of("a", "b", "c", "a", "b"), shards);
+  }
+
+  @Test
+  public void backoffDoublesUpToTheCap() {
+    assertEquals(50L, ShardPresplitter.backoffMillis(0));
+    assertEquals(100L, ShardPresplitter.backoffMillis(1));
+    assertEquals(3200L, ShardPresplitter.backoffMillis(6));
+    assertEquals(5000L, ShardPresplitter.backoffMillis(7));
+    // Long runs of retries don't overflow the shift
+    assertEquals(5000L, ShardPresplitter.backoffMillis(100));
+  }
+
+  @Test
+  public void retriesOnlyConflictingOperations() {
+    assertTrue(ShardPresplitter.isRetryable(error(46, "LockBusy")));
+    assertTrue(ShardPresplitter.isRetryable(error(117, "ConflictingOperationInProgress")));
+    assertTrue(ShardPresplitter.isRetryable(error(13388, "StaleConfig")));
+    assertFalse(ShardPresplitter.isRetryable(error(59, "CommandNotFound")));
+    assertFalse(ShardPresplitter.isRetryable(error(13, "Unauthorized")));
+  }
+
+  @Test
+  public void movesWithMoveChunkWhenMoveRangeIsMissing() {
+    final List<Document> commands = Collections.synchronizedList(new ArrayList<>());
+    final AtomicInteger lockBusy = new AtomicInteger(1);
+    final ShardPresplitter presplitter = new ShardPresplitter(command -> {
+      if (command.containsKey("listShards")) {
+        return new Document("shards",
+            List.of(new Document("_id", "shard0"), new Document("_id", "shard1")));
+      }
+      if (command.containsKey("moveRange")) {
+        throw error(59, "CommandNotFound");
+      }
+      // The first move is refused while another migration holds the collection
+      if (lockBusy.getAndDecrement() > 0) {
+        throw error(46, "LockBusy");
+      }
+      commands.add(command);
+      return new Document("ok", 1);
+    }, 1);
+
+    try {
+      presplitter.distribute("db.fs.chunks",
+          List.of(new Document("files_id", 0), new Document("files_id", 1)));
+    } finally {
+      presplitter.shutdown();
+    }
+
+    assertEquals(List.of(
+        new Document("moveChunk", "db.fs.chunks")
+            .append("find", new Document("files_id", 0))
+            .append("to", "shard0"),
+        new Document("moveChunk", "db.fs.chunks")
+            .append("find", new Document("files_id", 1))
+            .append("to", "shard1")), commands);
+  }
+
+  private static MongoCommandException error(final int pCode, final String pCodeName) {
+    return new MongoCommandException(BsonDocument.parse(String.format(
+        "{ok: 0, code: %d, codeName: '%s', errmsg: 'refused'}", pCode, pCodeName)),
+        new ServerAddress());
+  }
+}
@@ -0,0 +1,94 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import com.jmo.mongo.javadriver.gridfs.SmallFileBatcher.SmallFile;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Set;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.Document;
+import org.junit.Test;
+
+public class SmallFileBatcherTest {
+
+  @Test
+  public void batchesByFileCount() {
+    final SmallFileBatcher batcher = newBatcher(Integer.MAX_VALUE, 3);
+    final SmallFile first = file(0, 10);
+    final SmallFile second = file(1, 10);
+    final SmallFile third = file(2, 10);
+
+    assertNull(batcher.add(first));
+    assertNull(batcher.add(second));
+    assertEquals(List.of(first, second, third), batcher.add(third));
+    // The batch went out, gathering starts over
+    assertNull(batcher.drain());
+  }
+
+  @Test
+  public void batchesByBytes() {
+    final SmallFileBatcher batcher = newBatcher(100, 1000);
+    final SmallFile first = file(0, 60);
+    final SmallFile second = file(1, 40);
+    final SmallFile third = file(2, 99);
+
+    assertNull(batcher.add(first));
+    // Reaching the byte limit is enough, it doesn't need to be exceeded
+    assertEquals(List.of(first, second), batcher.add(second));
+    // Bytes start over with the next batch too
+    assertNull(batcher.add(third));
+    assertEquals(List.of(third), batcher.drain());
+    assertNull(batcher.drain());
+  }
+
+  @Test
+  public void mapsWriteErrorsToTheirFiles() {
+    // Files 0, 1 and 3 were read with 2, 1 and 3 chunks, file 2 failed to read
+    final List<Integer> owners = List.of(0, 0, 1, 3, 3, 3);
+    assertEquals(Set.of(0, 3), SmallFileBatcher.failedFiles(List.of(error(1), error(4), error(5)), owners));
+    assertEquals(Set.of(), SmallFileBatcher.failedFiles(List.of(), owners));
+
+    // The files documents that went out after file 3's chunks failed
+    final List<Integer> committing = List.of(0, 1);
+    assertEquals(Set.of(1), SmallFileBatcher.failedFiles(List.of(error(1)), committing));
+  }
+
+  private static SmallFileBatcher newBatcher(final int pBatchBytes, final int pBatchFiles) {
+    // Gathering never touches the collections
+    return new SmallFileBatcher((MongoCollection<Document>) null, null, 10, pBatchBytes, pBatchFiles,
+        ByteRateLimiter.create(Double.MAX_VALUE), null, false);
+  }
+
+  private static BulkWriteError error(final int pIndex) {
+    return new BulkWriteError(11000, "duplicate key", new BsonDocument(), pIndex);
+  }
+
+  private static SmallFile file(final int pId, final int pLength) {
+    return new SmallFile(new BsonInt32(pId), String.valueOf(pId), new UploadSource() {
+      @Override
+      public String getName() {
+        return "file" + pId;
+      }
+
+      @Override
+      public long length() {
+        return pLength;
+      }
+
+      @Override
+      public long lastModified() {
+        return 0L;
+      }
+
+      @Override
+      public InputStream openStream() {
+        return new ByteArrayInputStream(new byte[pLength]);
+      }
+    }, new Document());
+  }
+}
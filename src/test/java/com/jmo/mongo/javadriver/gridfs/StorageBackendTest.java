@@ -0,0 +1,94 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import com.jmo.mongo.javadriver.gridfs.StorageBackend.FakeStorage;
+import com.jmo.mongo.javadriver.gridfs.StorageBackend.LocalStorage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StorageBackendTest {
+
+  @Rule
+  public final TemporaryFolder _folder = new TemporaryFolder();
+
+  @Test
+  public void localStorageWritesChunksThenFilesDocument() throws IOException {
+    final byte[] data = new byte[2500];
+    new Random(7L).nextBytes(data);
+    final Path directory = _folder.getRoot().toPath().resolve("store");
+    final List<Integer> acknowledged = new ArrayList<>();
+
+    try (final StorageBackend storage = new LocalStorage(directory, 1000, FileIdStrategy.STRING)) {
+      storage.prepare(false, false, 0, 0, FileIdStrategy.STRING);
+      final BsonValue id = FileIdStrategy.STRING.next();
+      storage.upload(id, "file", ChunkReader.ofStream(new ByteArrayInputStream(data), 1000),
+          new Document("source", "test"), acknowledged::add);
+
+      final String name = id.asString().getValue();
+      assertArrayEquals(data, Files.readAllBytes(directory.resolve(name + ".chunks")));
+      final Document files = Document.parse(new String(
+          Files.readAllBytes(directory.resolve(name + ".json")), StandardCharsets.UTF_8));
+      assertEquals(2500L, files.get("length", Number.class).longValue());
+      assertEquals(1000, files.getInteger("chunkSize").intValue());
+      assertEquals("file", files.getString("filename"));
+      assertEquals("test", files.get("metadata", Document.class).getString("source"));
+    }
+    assertEquals(List.of(0, 1, 2), acknowledged);
+  }
+
+  @Test
+  public void failedUploadLeavesNothingBehind() throws IOException {
+    final Path directory = _folder.getRoot().toPath();
+    final LocalStorage storage = new LocalStorage(directory, 1000, FileIdStrategy.STRING);
+    final ChunkReader failing = ChunkReader.ofStream(new ByteArrayInputStream(new byte[1500]) {
+      @Override
+      public synchronized int read(final byte[] b, final int off, final int len) {
+        if (pos > 0) {
+          throw new IllegalStateException("Disk on fire");
+        }
+        return super.read(b, off, len);
+      }
+    }, 1000);
+
+    try {
+      storage.upload(FileIdStrategy.STRING.next(), "file", failing, new Document(), n -> { });
+      fail("Expected the read failure");
+    } catch (IllegalStateException pE) {
+      assertEquals("Disk on fire", pE.getMessage());
+    }
+    try (final Stream<Path> files = Files.list(directory)) {
+      assertEquals(0L, files.count());
+    }
+  }
+
+  @Test
+  public void fakeStorageFailsAtItsErrorRate() throws IOException {
+    final FakeStorage failing = new FakeStorage(1000, 0L, 1.0);
+    try {
+      failing.upload(FileIdStrategy.STRING.next(), "file",
+          ChunkReader.ofStream(new ByteArrayInputStream(new byte[10]), 1000), new Document(), n -> { });
+      fail("Expected a simulated failure");
+    } catch (IOException pE) {
+      assertTrue(pE.getMessage(), pE.getMessage().startsWith("Simulated failure storing chunk 0"));
+    }
+
+    final List<Integer> acknowledged = new ArrayList<>();
+    new FakeStorage(1000, 0L, 0.0).upload(FileIdStrategy.STRING.next(), "file",
+        ChunkReader.ofStream(new ByteArrayInputStream(new byte[2000]), 1000), new Document(),
+        acknowledged::add);
+    assertEquals(List.of(0, 1), acknowledged);
+  }
+}
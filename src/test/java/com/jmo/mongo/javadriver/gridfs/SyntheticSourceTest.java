@@ -0,0 +1,103 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import com.google.common.io.ByteStreams;
+import com.jmo.mongo.javadriver.gridfs.SyntheticSource.PooledInputStream;
+import com.jmo.mongo.javadriver.gridfs.SyntheticSource.SizeDistribution;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+public class SyntheticSourceTest {
+
+  @Test
+  public void poolCompressibility() throws Exception {
+    final byte[] pool = SyntheticSource.createPool(SyntheticSource.BLOCK_SIZE * 4, 0.75, new Random(1));
+
+    for (int block = 0; block < 4; block++) {
+      final int offset = block * SyntheticSource.BLOCK_SIZE;
+      for (int i = SyntheticSource.BLOCK_SIZE / 4; i < SyntheticSource.BLOCK_SIZE; i++) {
+        assertEquals(0, pool[offset + i]);
+      }
+    }
+  }
+
+  @Test
+  public void pooledStreamWrapsAround() throws Exception {
+    final byte[] pool = new byte[]{0, 1, 2, 3};
+    final byte[] buffer = new byte[16];
+
+    try (final InputStream stream = new PooledInputStream(pool, 2, 6)) {
+      int total = 0;
+      int count;
+      while ((count = stream.read(buffer, total, buffer.length - total)) > 0) {
+        total += count;
+      }
+
+      assertEquals(6, total);
+      assertArrayEquals(new byte[]{2, 3, 0, 1, 2, 3}, Arrays.copyOf(buffer, 6));
+      assertEquals(-1, stream.read());
+    }
+  }
+
+  @Test
+  public void sizesClamped() throws Exception {
+    final Random random = new Random(7);
+    for (int i = 0; i < 1000; i++) {
+      final long size = SyntheticSource.nextSize(random, SizeDistribution.LOGNORMAL, 1000, 100, 5000, 2.0);
+      assertTrue(size >= 100 && size <= 5000);
+    }
+    assertEquals(1234, SyntheticSource.nextSize(random, SizeDistribution.FIXED, 1234, 1, 5000, 1.0));
+    assertEquals(10, SyntheticSource.nextSize(random, SizeDistribution.FIXED, 1234, 1, 10, 1.0));
+  }
+
+  @Test
+  public void uniformMaxDefaultsToTwiceTheSize() throws Exception {
+    final long max = SyntheticSource.defaultMaxBytes(1000);
+    assertEquals(2000, max);
+    assertEquals(Long.MAX_VALUE, SyntheticSource.defaultMaxBytes(Long.MAX_VALUE - 1));
+
+    final Random random = new Random(7);
+    for (int i = 0; i < 1000; i++) {
+      final long size = SyntheticSource.nextSize(random, SizeDistribution.UNIFORM, 1000, 1, max, 1.0);
+      assertTrue(size >= 1 && size <= 2000);
+    }
+  }
+
+  @Test
+  public void reopenedFilesReadTheSameBytes() throws Exception {
+    final SyntheticSource source = new SyntheticSource(4, SizeDistribution.FIXED, 10_000, 1, 20_000,
+        1.0, 0.0, SyntheticSource.BLOCK_SIZE * 16, 3);
+
+    final Set<Integer> starts = new HashSet<>();
+    for (final UploadSource file : source.getSources()) {
+      final byte[] first = readAll(file.openStream());
+      assertEquals(10_000, first.length);
+      assertArrayEquals(first, readAll(file.openStream()));
+      // Ranged uploads reopen a file to read from the middle
+      final ByteArrayOutputStream range = new ByteArrayOutputStream();
+      try (final ChunkReader reader = file.openChunkReader(1000, null, 5_000, 10_000)) {
+        ByteBuffer chunk;
+        while ((chunk = reader.next()) != null) {
+          range.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+        }
+      }
+      assertArrayEquals(Arrays.copyOfRange(first, 5_000, 10_000), range.toByteArray());
+      starts.add(Arrays.hashCode(Arrays.copyOf(first, SyntheticSource.BLOCK_SIZE)));
+    }
+    // Files don't all start at the same place in the pool
+    assertEquals(4, starts.size());
+  }
+
+  private static byte[] readAll(final InputStream pStream) throws Exception {
+    try (final InputStream stream = pStream) {
+      return ByteStreams.toByteArray(stream);
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class UploadExecutorTest {
+
+  @Test
+  public void boundsTasksInFlight() throws Exception {
+    final AtomicInteger afterTasks = new AtomicInteger();
+    final UploadExecutor executor =
+        new UploadExecutor(UploadExecutor.Mode.VIRTUAL, 2, afterTasks::incrementAndGet);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(6);
+
+    for (int i = 0; i < 6; i++) {
+      executor.submit(() -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+          Thread.sleep(20);
+        } catch (InterruptedException pE) {
+          Thread.currentThread().interrupt();
+        } finally {
+          running.decrementAndGet();
+          done.countDown();
+        }
+      });
+      assertTrue(executor.getInFlight() <= 2);
+    }
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertTrue(executor.shutdown(10, TimeUnit.SECONDS));
+    assertEquals(2, maxRunning.get());
+    assertEquals(0, executor.getInFlight());
+    assertEquals(6, afterTasks.get());
+  }
+
+  @Test
+  public void resizesWhileRunning() throws Exception {
+    final UploadExecutor executor = new UploadExecutor(UploadExecutor.Mode.PLATFORM, 4, () -> { });
+    final CountDownLatch release = new CountDownLatch(1);
+    // Uploads are drained the way ingest does, through a phaser each one deregisters from
+    final Phaser pending = new Phaser(1);
+    final Runnable blocked = () -> {
+      try {
+        release.await();
+      } catch (InterruptedException pE) {
+        Thread.currentThread().interrupt();
+      } finally {
+        pending.arriveAndDeregister();
+      }
+    };
+    pending.bulkRegister(3);
+
+    executor.setConcurrency(1);
+    executor.submit(blocked);
+    assertEquals(1, executor.getInFlight());
+
+    executor.setConcurrency(100);
+    assertEquals(4, executor.getConcurrency());
+    executor.submit(blocked);
+    executor.submit(blocked);
+    assertEquals(3, executor.getInFlight());
+
+    // Lowering the limit below what's in flight waits for uploads to finish
+    executor.setConcurrency(2);
+    release.countDown();
+    pending.awaitAdvanceInterruptibly(pending.arrive(), 10, TimeUnit.SECONDS);
+    assertTrue(executor.shutdown(10, TimeUnit.SECONDS));
+    assertEquals(0, executor.getInFlight());
+    assertEquals(4, executor.getMaxConcurrency());
+  }
+}
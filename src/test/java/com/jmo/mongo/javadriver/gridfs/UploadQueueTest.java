@@ -0,0 +1,156 @@
+package com.jmo.mongo.javadriver.gridfs;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UploadQueueTest {
+  @Rule
+  public final TemporaryFolder _folder = new TemporaryFolder();
+
+  @Test
+  public void walksDirectoriesGlobsAndManifests() throws Exception {
+    final Path root = _folder.getRoot().toPath();
+    write(root.resolve("a.bin"), 1);
+    write(root.resolve("b.txt"), 2);
+    write(root.resolve("sub/c.bin"), 3);
+    write(root.resolve("sub/deeper/d.bin"), 4);
+    final Path manifest = root.resolve("inputs.txt");
+    Files.write(manifest, Arrays.asList("# comment", "", root.resolve("b.txt").toString()),
+        StandardCharsets.UTF_8);
+
+    assertEquals(Arrays.asList("a.bin", "b.txt", "c.bin", "d.bin", "inputs.txt"),
+        names(expand(root.toString())));
+    // Single wildcards stay within their directory, double ones cross into subdirectories
+    assertEquals(Collections.singletonList("c.bin"), names(expand(root + "/sub/*.bin")));
+    assertEquals(Arrays.asList("c.bin", "d.bin"), names(expand(root + "/sub/**.bin")));
+    assertEquals(Arrays.asList("b.txt", "missing"),
+        names(expand("@" + manifest, root.resolve("missing").toString())));
+  }
+
+  @Test
+  public void takesLargestInWindowFirst() throws Exception {
+    final List<UploadSource> sources = new ArrayList<>();
+    for (final int size : new int[]{3, 1, 4, 1, 5, 9, 2, 6}) {
+      sources.add(sized(size));
+    }
+
+    assertEquals(Arrays.asList(9L, 6L, 5L, 4L, 3L, 2L, 1L, 1L),
+        lengths(UploadQueue.of(sources, 100, UploadQueue.Order.LARGEST)));
+    // With room for three, each take picks the largest of the next three arrivals
+    assertEquals(Arrays.asList(4L, 3L, 5L, 9L, 2L, 6L, 1L, 1L),
+        lengths(UploadQueue.of(sources, 3, UploadQueue.Order.LARGEST)));
+    assertEquals(Arrays.asList(3L, 1L, 4L, 1L, 5L, 9L, 2L, 6L),
+        lengths(UploadQueue.of(sources, 3, UploadQueue.Order.ARRIVAL)));
+  }
+
+  @Test(timeout = 10_000)
+  public void arrivalOrderStreamsWithoutFillingTheWindow() throws Exception {
+    final CountDownLatch walked = new CountDownLatch(1);
+    final UploadSource stalled = new UploadSource() {
+      @Override
+      public String getName() {
+        return "stalled";
+      }
+
+      @Override
+      public long length() {
+        // The walk hangs here, like one stuck listing a slow directory
+        try {
+          walked.await();
+        } catch (InterruptedException pE) {
+          Thread.currentThread().interrupt();
+        }
+        return 7L;
+      }
+
+      @Override
+      public long lastModified() {
+        return 0L;
+      }
+
+      @Override
+      public InputStream openStream() {
+        return new ByteArrayInputStream(new byte[7]);
+      }
+    };
+
+    final UploadQueue queue = UploadQueue.of(Arrays.asList(sized(1), stalled), 100,
+        UploadQueue.Order.ARRIVAL);
+    assertEquals(1L, queue.take().length());
+    walked.countDown();
+    assertEquals("stalled", queue.take().getName());
+    assertNull(queue.take());
+  }
+
+  private static List<Long> lengths(final UploadQueue pQueue) throws InterruptedException {
+    final List<Long> lengths = new ArrayList<>();
+    UploadSource source;
+    while ((source = pQueue.take()) != null) {
+      lengths.add(source.length());
+    }
+    return lengths;
+  }
+
+  private static List<String> expand(final String... pInputs) throws Exception {
+    final List<String> paths = new ArrayList<>();
+    for (final String input : pInputs) {
+      UploadQueue.expand(input, true, paths::add);
+    }
+    return paths;
+  }
+
+  /**
+   * @return the file names, sorted since directories are listed in no particular order
+   */
+  private static List<String> names(final List<String> pPaths) {
+    final List<String> names = new ArrayList<>();
+    for (final String path : pPaths) {
+      names.add(new File(path).getName());
+    }
+    Collections.sort(names);
+    return names;
+  }
+
+  private static UploadSource sized(final long pLength) {
+    return new UploadSource() {
+      @Override
+      public String getName() {
+        return "sized-" + pLength;
+      }
+
+      @Override
+      public long length() {
+        return pLength;
+      }
+
+      @Override
+      public long lastModified() {
+        return 0L;
+      }
+
+      @Override
+      public InputStream openStream() {
+        return new ByteArrayInputStream(new byte[(int) pLength]);
+      }
+    };
+  }
+
+  private static void write(final Path pFile, final int pLength) throws Exception {
+    Files.createDirectories(pFile.getParent());
+    Files.write(pFile, new byte[pLength]);
+  }
+}